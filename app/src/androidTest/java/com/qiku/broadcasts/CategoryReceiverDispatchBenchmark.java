@@ -0,0 +1,170 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 对比CategoryReceiver.onReceive中按action分发表分发和逐个Listener比较action列表两种方式的耗时。
+ *
+ * 每个Listener监听time category中的一个action,投递TIME_TICK时只有1/4的Listener需要回调，
+ * 分别在10/100/1000个Listener的情况下测量单次投递的平均耗时，结果输出到logcat。
+ *
+ * receiver不注册到系统中，测量过程中不会收到真实的TIME_TICK；关闭分发统计，两种方式都不计时。
+ */
+@RunWith(AndroidJUnit4.class)
+public class CategoryReceiverDispatchBenchmark {
+
+    private static final String TAG = "DispatchBenchmark";
+
+    private static final String[] TIME_ACTIONS = {
+            Intent.ACTION_TIME_TICK,
+            Intent.ACTION_TIME_CHANGED,
+            Intent.ACTION_DATE_CHANGED,
+            Intent.ACTION_TIMEZONE_CHANGED,
+    };
+
+    private static final int WARM_UP_ROUNDS = 2000;
+    private static final int MEASURE_ROUNDS = 20000;
+
+    private static class CountingListener extends BroadcastBridge.Listener {
+        int mCount;
+
+        CountingListener(String name, String... actions) {
+            super(name, actions);
+        }
+
+        @Override
+        public ThreadMode getThreadMode() {
+            // 在测试线程中直接回调，只测量分发本身的耗时
+            return ThreadMode.POSTING;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mCount++;
+        }
+    }
+
+    /**
+     * 不注册到系统中的ReceiverRegistrar，广播只由测试直接调用onReceive投递
+     */
+    private static class DetachedReceiverRegistrar implements ReceiverRegistrar {
+        @Override
+        public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                       String permission, Handler scheduler) {
+            return null;
+        }
+
+        @Override
+        public void unregisterReceiver(BroadcastReceiver receiver) {
+        }
+
+        @Override
+        public Handler newCategoryHandler(String category) {
+            return null;
+        }
+
+        @Override
+        public Handler receiverHandler() {
+            return null;
+        }
+    }
+
+    private MergePolicyGlobal mPolicy;
+
+    @Before
+    public void setUp() {
+        BroadcastBridge.setStatsEnabled(false);
+        mPolicy = new MergePolicyGlobal(null, new DetachedReceiverRegistrar(),
+                BroadcastBridge.MERGE_GLOBAL);
+    }
+
+    @After
+    public void tearDown() {
+        mPolicy = null;
+        BroadcastBridge.setStatsEnabled(true);
+    }
+
+    @Test
+    public void dispatch10Listeners() {
+        runBenchmark(10);
+    }
+
+    @Test
+    public void dispatch100Listeners() {
+        runBenchmark(100);
+    }
+
+    @Test
+    public void dispatch1000Listeners() {
+        runBenchmark(1000);
+    }
+
+    private void runBenchmark(int listenerCount) {
+        List<CountingListener> listeners = new ArrayList<>(listenerCount);
+        for (int i = 0; i < listenerCount; i++) {
+            CountingListener listener = new CountingListener("bench-" + i,
+                    TIME_ACTIONS[i % TIME_ACTIONS.length]);
+            listeners.add(listener);
+            mPolicy.registerListener(listener);
+        }
+
+        MergePolicyBase.CategoryReceiver receiver = mPolicy.getCategoryReceiver(CategoryKey.of("global"));
+        Intent intent = new Intent(Intent.ACTION_TIME_TICK);
+
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            receiver.onReceive(null, intent);
+            linearDispatch(listeners, intent);
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            linearDispatch(listeners, intent);
+        }
+        long linearCost = (SystemClock.elapsedRealtimeNanos() - start) / MEASURE_ROUNDS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            receiver.onReceive(null, intent);
+        }
+        long tableCost = (SystemClock.elapsedRealtimeNanos() - start) / MEASURE_ROUNDS;
+
+        Log.i(TAG, listenerCount + " listeners : linear scan " + linearCost +
+                " ns/delivery, dispatch table " + tableCost + " ns/delivery");
+
+        // 两种方式回调的次数必须一致
+        int expected = 2 * (WARM_UP_ROUNDS + MEASURE_ROUNDS);
+        for (int i = 0; i < listeners.size(); i++) {
+            CountingListener listener = listeners.get(i);
+            assertEquals(listener.toString(), i % TIME_ACTIONS.length == 0 ? expected : 0,
+                    listener.mCount);
+            mPolicy.unregisterListener(listener);
+        }
+    }
+
+    /**
+     * 修改前CategoryReceiver.onReceive的分发方式，作为对照
+     */
+    private static void linearDispatch(List<CountingListener> listeners, Intent intent) {
+        for (BroadcastBridge.Listener listener : listeners) {
+            if (listener.getActionList().contains(intent.getAction())) {
+                listener.onReceiveBroadcast(intent);
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 
 import com.qiku.broadcasts.BroadcastBridge;
+import com.qiku.broadcasts.ListenerScope;
 import com.qiku.broadcasts.R;
 
 import java.util.Arrays;
@@ -107,6 +108,16 @@ public class MainActivity extends AppCompatActivity {
                     return Arrays.asList("content");
                 }
 
+                @Override
+                public List<String> getDataAuthorities() {
+                    return Arrays.asList("a.b.c");
+                }
+
+                @Override
+                public List<String> getDataPathPrefixes() {
+                    return Arrays.asList("/d");
+                }
+
                 @Override
                 public String getBroadcastPermission() {
                     return "com.qiku.permission.BROADCAST_BRIDGE";
@@ -119,8 +130,9 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         findViewById(R.id.send_custom_broadcast).setOnClickListener( v -> {
+            // 在TestApplication中声明为进程内的action，直接分发给Listener，不经过系统
             Intent intent = new Intent("com.qiku.ACTION_BROADCAST_BRIDGE_TEST");
-            sendBroadcast(intent);
+            BroadcastBridge.getInstance().sendBroadcast(intent);
         });
 
         findViewById(R.id.send_custom_broadcast1).setOnClickListener( v -> {
@@ -134,48 +146,14 @@ public class MainActivity extends AppCompatActivity {
             sendBroadcast(intent);
         });
 
-        BroadcastBridge.getInstance().registerListener(mScreenListener);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener1);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener2);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener3);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener4);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener5);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener6);
-        sleep(100);
-        BroadcastBridge.getInstance().registerListener(mScreenListener7);
+        // 批量注册，每个category的receiver只会注册一次。
+        // Listener只在Activity可见时回调，onDestroy时自动反注册
+        ListenerScope.forActivity(this).addAll(getListeners());
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener1);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener2);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener3);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener4);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener5);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener6);
-        sleep(100);
-        BroadcastBridge.getInstance().unregisterListener(mScreenListener7);
-    }
-
-    private static void sleep(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    private List<BroadcastBridge.Listener> getListeners() {
+        return Arrays.asList(mScreenListener, mScreenListener1, mScreenListener2,
+                mScreenListener3, mScreenListener4, mScreenListener5, mScreenListener6,
+                mScreenListener7);
     }
 }
@@ -2,14 +2,12 @@ package com.qiku.broadcastbridgetest;
 
 import android.app.Application;
 import android.content.Context;
-import android.text.TextUtils;
+import android.util.Log;
 
 import com.qiku.broadcasts.BroadcastBridge;
+import com.qiku.broadcasts.CategoryKey;
 import com.qiku.broadcasts.MergePolicyBase;
 
-import java.util.Collections;
-import java.util.List;
-
 public class TestApplication extends Application {
 
     private BroadcastBridge mBridge;
@@ -18,8 +16,17 @@ public class TestApplication extends Application {
     public void onCreate() {
         super.onCreate();
 
+        // 测试App打开所有日志，默认只输出警告和错误
+        BroadcastBridge.setLogLevel(Log.VERBOSE);
+
         mBridge = BroadcastBridge.getInstance();
 
+        // App内部的自定义广播只在进程内分发，不注册到系统中
+        mBridge.setLocalActions("com.qiku.ACTION_BROADCAST_BRIDGE_TEST");
+
+        // 所有Activity停止之后只保留CRITICAL的Listener监听的action
+        mBridge.setBackgroundModeEnabled(true);
+
         //测试MERGE_GLOBAL
         //mBridge.init(this, BroadcastBridge.MERGE_GLOBAL);
 
@@ -32,6 +39,9 @@ public class TestApplication extends Application {
         //测试MERGE_PERMISSION
         //mBridge.init(this, BroadcastBridge.MERGE_PERMISSION);
 
+        //测试MERGE_OPTIMAL
+        //mBridge.init(this, BroadcastBridge.MERGE_OPTIMAL);
+
         //测试自定义Policy
         //mBridge.init(this, new MergePolicyCustom(this,"MergeCustom"));
 
@@ -67,25 +77,10 @@ public class TestApplication extends Application {
         }
 
         @Override
-        public String getActionCategory(BroadcastBridge.Listener listener) {
-            List<String> schemes = listener.getDataSchemes();
-            String permission = listener.getBroadcastPermission();
-
-            StringBuilder category = new StringBuilder("custom");
-            if (schemes != null && schemes.size() > 0) {
-                Collections.sort(schemes);
-                category.append(":");
-                for (String scheme : schemes) {
-                    category.append(scheme).append("_");
-                }
-                category.deleteCharAt(category.length() - 1);
-            }
-
-            if (!TextUtils.isEmpty(permission)) {
-                category.append("_").append(permission);
-            }
-
-            return category.toString();
+        public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
+            // CategoryKey会复制并排序scheme，不需要修改Listener返回的列表
+            return CategoryKey.of("custom", listener.getDataSchemes(),
+                    listener.getBroadcastPermission());
         }
     }
 }
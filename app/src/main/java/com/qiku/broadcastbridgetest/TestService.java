@@ -3,8 +3,17 @@ package com.qiku.broadcastbridgetest;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.util.Log;
+
+import com.qiku.broadcasts.BroadcastBinding;
+import com.qiku.broadcasts.BroadcastBridge;
+import com.qiku.broadcasts.OnBroadcast;
 
 public class TestService extends Service {
+
+    // 由@OnBroadcast生成的TestService_BroadcastBinding
+    private BroadcastBinding mBinding;
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -13,6 +22,8 @@ public class TestService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        mBinding = new TestService_BroadcastBinding(this);
+        BroadcastBridge.getInstance().bind(mBinding);
     }
 
     @Override
@@ -23,5 +34,23 @@ public class TestService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        BroadcastBridge.getInstance().unbind(mBinding);
+    }
+
+    // SCREEN_ON和SCREEN_OFF属于keyguard，和onUserPresent合并到同一个Listener中
+    @OnBroadcast(actions = {Intent.ACTION_SCREEN_ON, Intent.ACTION_SCREEN_OFF})
+    void onScreenChanged(Intent intent) {
+        Log.i(Constants.TAG, "TestService received " + intent);
+    }
+
+    @OnBroadcast(actions = Intent.ACTION_USER_PRESENT)
+    void onUserPresent() {
+        Log.i(Constants.TAG, "TestService received user present");
+    }
+
+    @OnBroadcast(actions = {Intent.ACTION_PACKAGE_ADDED, Intent.ACTION_PACKAGE_REMOVED},
+            schemes = "package", threadMode = BroadcastBridge.Listener.ThreadMode.BACKGROUND)
+    void onPackageChanged(Intent intent) {
+        Log.i(Constants.TAG, "TestService received " + intent);
     }
 }
@@ -0,0 +1,127 @@
+package com.qiku.broadcasts;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.BatteryManager;
+
+/**
+ * BATTERY_CHANGED广播解码后的电池状态，每次投递只解码一次，见BroadcastPayloads
+ */
+public final class BatteryState {
+
+    static final BroadcastPayloads.Decoder<BatteryState> DECODER =
+            new BroadcastPayloads.Decoder<BatteryState>() {
+                @Override
+                public BatteryState decode(Context context, Intent intent) {
+                    return new BatteryState(intent);
+                }
+            };
+
+    private final int mLevel;
+    private final int mScale;
+    private final int mStatus;
+    private final int mPlugged;
+    private final int mHealth;
+    private final int mTemperature;
+    private final int mVoltage;
+    private final boolean mPresent;
+
+    private BatteryState(Intent intent) {
+        mLevel = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        mScale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        mStatus = intent.getIntExtra(BatteryManager.EXTRA_STATUS,
+                BatteryManager.BATTERY_STATUS_UNKNOWN);
+        mPlugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        mHealth = intent.getIntExtra(BatteryManager.EXTRA_HEALTH,
+                BatteryManager.BATTERY_HEALTH_UNKNOWN);
+        mTemperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        mVoltage = intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
+        mPresent = intent.getBooleanExtra(BatteryManager.EXTRA_PRESENT, true);
+    }
+
+    /**
+     * @param intent Listener收到的BATTERY_CHANGED广播
+     * @return 其他广播返回null
+     */
+    public static BatteryState from(Intent intent) {
+        return BroadcastPayloads.get(intent, BatteryState.class);
+    }
+
+    /**
+     * @return 电量，范围是0到getScale()，没有时为-1
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return 电量百分比，没有电量信息时为-1
+     */
+    public int getPercent() {
+        if (mLevel < 0 || mScale <= 0) {
+            return -1;
+        }
+        return mLevel * 100 / mScale;
+    }
+
+    /**
+     * @return BatteryManager.BATTERY_STATUS_*
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return 正在充电或者已经充满
+     */
+    public boolean isCharging() {
+        return mStatus == BatteryManager.BATTERY_STATUS_CHARGING ||
+                mStatus == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    /**
+     * @return BatteryManager.BATTERY_PLUGGED_*，没有连接电源时为0
+     */
+    public int getPlugged() {
+        return mPlugged;
+    }
+
+    public boolean isPlugged() {
+        return mPlugged != 0;
+    }
+
+    /**
+     * @return BatteryManager.BATTERY_HEALTH_*
+     */
+    public int getHealth() {
+        return mHealth;
+    }
+
+    /**
+     * @return 温度，单位0.1摄氏度
+     */
+    public int getTemperature() {
+        return mTemperature;
+    }
+
+    /**
+     * @return 电压，单位毫伏
+     */
+    public int getVoltage() {
+        return mVoltage;
+    }
+
+    public boolean isPresent() {
+        return mPresent;
+    }
+
+    @Override
+    public String toString() {
+        return "BatteryState : " + getPercent() + "%, status=" + mStatus +
+                ", plugged=" + mPlugged + ", temperature=" + mTemperature;
+    }
+}
@@ -0,0 +1,18 @@
+package com.qiku.broadcasts;
+
+import java.util.List;
+
+/**
+ * 由bridge-compiler根据OnBroadcast生成的绑定，每个宿主对象对应一个。
+ * 通过BroadcastBridge.bind/unbind一次注册或反注册其中所有的Listener。
+ *
+ * Listener的名字由宿主类名和每次创建绑定时分配的序号生成，同一个宿主类的多个对象(比如同一个Activity的两个实例)
+ * 可以同时绑定，反注册时互不影响
+ */
+public interface BroadcastBinding {
+
+    /**
+     * @return 该绑定中的Listener，不可修改，每次返回相同的对象
+     */
+    List<BroadcastBridge.Listener> getListeners();
+}
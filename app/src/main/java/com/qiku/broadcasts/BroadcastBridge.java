@@ -1,12 +1,20 @@
 package com.qiku.broadcasts;
 
+import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * BroadcastBridge是一个管理动态广播的通用模块，目的是合并App中的广播，防止在App中过度注册重复广播。
@@ -15,13 +23,28 @@ import java.util.Objects;
  *     MERGE_AUTO
  *     MERGE_SCHEME
  *     MERGE_PERMISSION
+ *     MERGE_OPTIMAL
  *
  * 默认是MERGE_AUTO。
  *
  * 合并后的广播优先级，是该Receiver对应的所有Listener中指定的优先级最高值。
+ * 通过setPriorityBandEdges开启优先级分段后，receiver使用所在分段的固定优先级。
  *
  * BroadcastBridge中注册receiver，使用的都是App的ApplicationContext。
  *
+ * Listener可以通过getThreadMode()指定回调所在的线程，默认在主线程回调。
+ *
+ * registerListenerAsync在独立的注册线程中注册receiver，不占用调用线程的时间，
+ * 在init之前注册的Listener会在init之后注册。
+ *
+ * App内部的自定义广播可以通过sendLocal在进程内直接分发给Listener，不经过系统。
+ * 通过setLocalActions声明的action不会注册到系统中，sendBroadcast会自动在进程内分发。
+ *
+ * App有多个进程时，可以通过RelayTransport以中继模式初始化，只由primary进程注册receiver。
+ *
+ * 通过ListenerScope注册的Listener在所属的Activity或Service停止时暂停回调，
+ * 不再需要的action会从receiver中删除。
+ *
  * @author zhangjigang(zhangjigang-os@360os.com)
  * @version v1.0
  */
@@ -41,17 +64,92 @@ public class BroadcastBridge {
      */
     public static abstract class Listener {
 
+        /**
+         * Listener回调所在的线程
+         */
+        public enum ThreadMode {
+            /**
+             * 在主线程中回调，默认值
+             */
+            MAIN,
+
+            /**
+             * 在BroadcastBridge共享的后台线程池中回调，多个广播之间不保证回调顺序
+             */
+            BACKGROUND,
+
+            /**
+             * 在当前Listener所属category独立的HandlerThread中回调，同一个category中的广播按顺序回调
+             */
+            CATEGORY_THREAD,
+
+            /**
+             * 在receiver接收广播的线程中直接回调，不切换线程。
+             * 如果receiver中的Listener都不需要在主线程回调，receiver会注册在BroadcastBridge共用的接收线程上，
+             * 否则是主线程。接收线程由所有这样的receiver共用，回调中不要执行耗时操作。
+             * 通过sendLocal分发时在调用sendLocal的线程中回调
+             */
+            POSTING
+        }
+
+        /**
+         * App进入后台之后Listener是否仍然需要接收广播，见getCriticality
+         */
+        public enum Criticality {
+            /**
+             * 只在前台接收广播，默认值
+             */
+            NORMAL,
+
+            /**
+             * 在后台也需要接收广播
+             */
+            CRITICAL
+        }
+
+        /**
+         * mPauseFlags中暂停的原因 : 所属的ListenerScope已经停止
+         */
+        static final int PAUSED_BY_SCOPE = 1;
+
+        /**
+         * mPauseFlags中暂停的原因 : App在后台，并且Listener不是CRITICAL
+         */
+        static final int PAUSED_BY_BACKGROUND = 1 << 1;
+
         private static final int PRIORITY_DEFAULT = 0;
 
         private String mName;
         private int mPriority;
         private List<String> mActionList;
 
+        /**
+         * getConflateWindowMillis()大于0时，注册后由CategoryReceiver创建
+         */
+        BroadcastConflater mConflater;
+
+        /**
+         * 注册后由DispatchStats设置
+         */
+        DispatchStats.ListenerStats mStats;
+
+        /**
+         * 第一次注册时由MergePolicyBase计算的category
+         */
+        volatile MergePolicyBase.CachedCategory mCachedCategory;
+
+        /**
+         * 暂停的原因，PAUSED_BY_SCOPE和PAUSED_BY_BACKGROUND的组合，不为0时暂停回调。
+         * 由MergePolicyBase在锁内修改
+         */
+        volatile int mPauseFlags;
+
         /**
          * 创建Listener对象
          *
          * @param name 在同一个进程中，每个Listener都要有一个唯一的名字
-         * @param priority 广播优先级,如果多个Listener合并后，最终的优先级为所有Listener中最大值
+         * @param priority 广播优先级,如果多个Listener合并后，最终的优先级为所有Listener中最大值，
+         *                 开启优先级分段时为所在分段的优先级，见BroadcastBridge.setPriorityBandEdges
          * @param actions 该listener关注的action
          */
         public Listener(String name, int priority, String ... actions) {
@@ -81,6 +179,16 @@ public class BroadcastBridge {
             return mName;
         }
 
+        /**
+         * 分发统计使用的名字，默认为getName()，返回相同名字的Listener共用一份统计，见getStats。
+         * OnBroadcast生成的Listener返回不带宿主对象序号的名字，同一个宿主类的所有对象合并统计
+         *
+         * @return
+         */
+        public String getStatsName() {
+            return mName;
+        }
+
         public int getPriority() {
             return mPriority;
         }
@@ -100,6 +208,42 @@ public class BroadcastBridge {
             return null;
         }
 
+        /**
+         * Listener关注的data的authority，格式为host或者host:port，不带端口时匹配所有端口。
+         * 和IntentFilter一样host不区分大小写，可以以*开头，比如*.example.com匹配example.com的所有子域名。
+         * 需要和getDataSchemes一起使用，默认为null，表示匹配所有authority。
+         *
+         * authority不会加入receiver的IntentFilter，合并到同一个receiver中的其他Listener不受影响，
+         * 收到广播后由receiver按照data查找满足条件的Listener，不满足条件的Listener不回调
+         *
+         * @return
+         */
+        public List<String> getDataAuthorities() {
+            return null;
+        }
+
+        /**
+         * Listener关注的data的path前缀，按字符串前缀比较，比如"/d"匹配content://a.b.c/d和content://a.b.c/dd。
+         * 需要和getDataSchemes一起使用，默认为null，表示匹配所有path，规则同getDataAuthorities
+         *
+         * @return
+         */
+        public List<String> getDataPathPrefixes() {
+            return null;
+        }
+
+        /**
+         * Listener关注的MIME type，比如"image/png"、"image/*"，默认为null，表示只接收不带type的广播。
+         *
+         * IntentFilter中有type时不会匹配不带type的广播，所以要求type的Listener只和type完全相同的Listener
+         * 合并到同一个receiver中。和scheme一样，只有支持scheme的MergePolicy才支持type
+         *
+         * @return
+         */
+        public List<String> getDataTypes() {
+            return null;
+        }
+
         /**
          * 如果一个Listener需要广播发送者有permission，那么这种类型的广播无法和其他类型合并。
          * App实现Listener的时候，覆写该方法，返回需要广播发送者具有的permission
@@ -109,6 +253,82 @@ public class BroadcastBridge {
             return null;
         }
 
+        /**
+         * 指定onReceiveBroadcast回调所在的线程，默认在主线程回调。
+         * App实现Listener的时候，覆写该方法返回需要的ThreadMode，注册之后返回值不应再改变。
+         *
+         * 如果一个category中所有的Listener都不在主线程回调，该category的receiver会注册在
+         * BroadcastBridge共用的接收线程上，主线程不会因为这些广播被唤醒
+         *
+         * @return
+         */
+        public ThreadMode getThreadMode() {
+            return ThreadMode.MAIN;
+        }
+
+        /**
+         * 合并投递的时间窗口，默认为0，表示不合并，每个广播都会回调。
+         *
+         * 对于BATTERY_CHANGED, TIME_TICK等高频广播，如果Listener只关心最新的状态，可以覆写该方法返回窗口大小:
+         * 窗口外收到的第一个广播立即回调，窗口内的广播只保留最新的一个，在窗口结束时回调。
+         * 每个action的窗口单独计算。注册之后返回值不应再改变。
+         * 窗口结束时的回调仍然按照getThreadMode()切换线程，POSTING模式会在BroadcastBridge的定时线程中回调。
+         *
+         * @return 窗口大小，单位毫秒
+         */
+        public long getConflateWindowMillis() {
+            return 0;
+        }
+
+        /**
+         * 对于BATTERY_CHANGED等sticky广播，注册Listener时如果所在的receiver已经在监听该action，
+         * 系统不会再投递sticky广播。覆写该方法返回true，BroadcastBridge会在注册之后立即用缓存的
+         * 最近一次sticky广播回调该Listener，不需要额外的binder调用。默认为false
+         *
+         * @return
+         */
+        public boolean isStickyReplayEnabled() {
+            return false;
+        }
+
+        /**
+         * 广播需要满足的条件，所有条件都满足时才回调onReceiveBroadcast，默认为null，不检查。
+         *
+         * 对于只关心某个包名的PACKAGE_ADDED、只关心某种网络的CONNECTIVITY_CHANGE等广播，
+         * 覆写该方法返回条件，代替在onReceiveBroadcast开始时检查extra并返回，
+         * 不满足条件时不会切换线程，也不会回调。条件对Listener的所有action都生效，
+         * 同一个receiver中相等的条件每次广播只检查一次，见BroadcastPredicate。注册之后返回值不应再改变
+         *
+         * @return
+         */
+        public List<BroadcastPredicate> getPredicates() {
+            return null;
+        }
+
+        /**
+         * App进入后台之后(见BroadcastBridge.setInBackground)，NORMAL的Listener暂停回调，
+         * 只有CRITICAL的Listener监听的action保留在receiver的IntentFilter中，其他action被删除，
+         * 系统不会再为这些广播唤醒进程，回到前台时恢复。
+         * 默认为NORMAL，需要在后台处理的Listener(比如低电量时停止下载)覆写该方法返回CRITICAL。
+         * 注册之后返回值不应再改变
+         *
+         * @return
+         */
+        public Criticality getCriticality() {
+            return Criticality.NORMAL;
+        }
+
+        /**
+         * 在MERGE_AUTO中该Listener所属的category。OnBroadcast生成的Listener在编译时已经计算好，
+         * MergePolicyAuto直接使用，不再按action查表。
+         * 默认返回null，由MergePolicyAuto根据action计算，App自己实现的Listener不需要覆写
+         *
+         * @return
+         */
+        public CategoryKey getAutoCategory() {
+            return null;
+        }
+
         /**
          * Listener的名字作为判断两个Listener是否相等的唯一标识，用于判断Listener是否重复注册，
          * 所以每个Listener需要有一个全局唯一的名字。
@@ -137,14 +357,90 @@ public class BroadcastBridge {
         }
 
         /**
-         * 该方法在主线程中回调，APP可以根据自己的业务逻辑，将回调的intent放到子线程中处理,
-         * 切勿在主线程中执行耗时操作
+         * 该方法在getThreadMode()指定的线程中回调，默认是主线程，
+         * 在主线程回调时切勿执行耗时操作。
+         * BATTERY_CHANGED等广播可以使用BatteryState.from(intent)读取解码后的内容，
+         * 同一个广播的所有Listener共用一次解码，见BroadcastPayloads
          *
          * @param intent
          */
         public abstract void onReceiveBroadcast(Intent intent);
     }
 
+    /**
+     * BroadcastBridge日志的输出目标，默认输出到logcat。
+     * write可能在任意线程(包括主线程)中调用，实现中不要执行耗时操作，参考RingBufferLogSink
+     */
+    public interface LogSink {
+
+        /**
+         * @param level android.util.Log中定义的级别
+         * @param tag 日志的子标签，通常是category或者模块名
+         * @param message 日志内容
+         */
+        void write(int level, String tag, String message);
+    }
+
+    /**
+     * Listener在主线程中回调超过预算时的通知
+     */
+    public interface SlowListenerCallback {
+
+        /**
+         * 在主线程中，Listener回调结束之后立即调用，实现中不要执行耗时操作
+         *
+         * @param listener 回调超时的Listener
+         * @param action 回调的广播
+         * @param durationNanos 回调耗时，单位纳秒
+         */
+        void onSlowListener(Listener listener, String action, long durationNanos);
+    }
+
+    /**
+     * 异步注册Listener的回调
+     */
+    public interface RegisterCallback {
+
+        /**
+         * 在注册线程中回调，此时receiver已经注册到系统中
+         *
+         * @param listener 注册的Listener
+         * @param success 是否注册成功
+         */
+        void onRegistered(Listener listener, boolean success);
+    }
+
+    /**
+     * 等待注册的Listener，在注册线程中批量注册完成后设置结果
+     */
+    private static final class PendingRegistration extends FutureTask<Boolean> {
+
+        private static final Runnable NO_OP = () -> {};
+
+        private final Listener mListener;
+        private final RegisterCallback mCallback;
+
+        PendingRegistration(Listener listener, RegisterCallback callback) {
+            super(NO_OP, null);
+            mListener = listener;
+            mCallback = callback;
+        }
+
+        void complete(boolean success) {
+            set(success);
+            if (mCallback != null) {
+                mCallback.onRegistered(mListener, success);
+            }
+        }
+
+        void abandon() {
+            cancel(false);
+            if (mCallback != null) {
+                mCallback.onRegistered(mListener, false);
+            }
+        }
+    }
+
     /**
      * 将所有的action合并到一个全局的category中，该category对应一个全局的receiver，相当于使用一个receiver
      * 监听所有的广播。
@@ -193,6 +489,14 @@ public class BroadcastBridge {
      */
     public static final String MERGE_PERMISSION = "MergePermission";
 
+    /**
+     * 同时支持scheme和permission，使用最少的receiver：只有permission不同，或者一个需要scheme另一个不需要scheme的
+     * Listener才分到不同的receiver中。需要不同scheme的Listener共用一个receiver，分发时按scheme过滤。
+     *
+     * 可以通过MergePolicyBase.dryRun预先查看合并的结果
+     */
+    public static final String MERGE_OPTIMAL = "MergeOptimal";
+
     /**
      * 不进行合并，每个Listener对应一个receiver。
      * 这种方式可能不能很好的达到合并重复广播的效果,不推荐使用。
@@ -209,13 +513,254 @@ public class BroadcastBridge {
 
     private boolean mInitialized;
 
+    /**
+     * 通过setPriorityBandEdges设置的优先级分段，没有设置时为null，使用Policy默认的设置(不分段)
+     */
+    private int[] mPriorityBandEdges;
+
+    /**
+     * 通过setLocalActions声明的只在进程内发送的action，没有设置时为null
+     */
+    private String[] mLocalActions;
+
+    /**
+     * 通过setReceiverBudget设置的receiver数量上限，没有设置时为0，使用Policy默认的上限
+     */
+    private int mReceiverBudget;
+
+    /**
+     * App是否在后台，见setInBackground
+     */
+    private boolean mInBackground;
+
+    /**
+     * 是否根据Activity的生命周期自动切换后台模式，见setBackgroundModeEnabled
+     */
+    private boolean mBackgroundModeEnabled;
+
+    private ForegroundTracker mForegroundTracker;
+
+    /**
+     * 等待在注册线程中注册的Listener，包括init之前注册的Listener
+     */
+    private final ArrayList<PendingRegistration> mPendingRegistrations = new ArrayList<>();
+
+    /**
+     * 注册线程已经取出、还没有完成的Listener，unregisterListener可以在注册之前取消
+     */
+    private final ArrayList<PendingRegistration> mDrainingRegistrations = new ArrayList<>();
+
+    /**
+     * 注册线程，在第一次异步注册时创建
+     */
+    private Handler mRegisterHandler;
+
+    private boolean mDrainScheduled;
+
+    private final Runnable mDrainRunnable = this::drainPendingRegistrations;
+
+
+    /**
+     * 设置日志级别，低于该级别的日志不会构造消息，也不会输出。默认只输出警告和错误
+     *
+     * @param level android.util.Log中定义的级别，比如Log.VERBOSE打开所有日志
+     */
+    public static void setLogLevel(int level) {
+        BroadcastBridgeLog.setLevel(level);
+    }
+
+    /**
+     * 设置日志输出目标，为null时输出到logcat
+     *
+     * @param sink
+     */
+    public static void setLogSink(LogSink sink) {
+        BroadcastBridgeLog.setSink(sink);
+    }
+
+    /**
+     * 打开或关闭分发统计，默认打开。关闭后回调时不再计时
+     *
+     * @param enabled
+     */
+    public static void setStatsEnabled(boolean enabled) {
+        DispatchStats.setEnabled(enabled);
+    }
+
+    /**
+     * 设置主线程回调的耗时预算，Listener在主线程中回调超过预算时通知callback
+     *
+     * @param budgetMillis 耗时预算，单位毫秒
+     * @param callback 为null时取消通知
+     */
+    public static void setSlowListenerCallback(long budgetMillis,
+                                               SlowListenerCallback callback) {
+        DispatchStats.setSlowListenerCallback(budgetMillis, callback);
+    }
+
+    /**
+     * 获取每个Listener和action的分发统计快照，只包含当前已经注册的Listener
+     *
+     * @return
+     */
+    public static BroadcastBridgeStats getStats() {
+        return DispatchStats.snapshot();
+    }
+
+    /**
+     * 设置优先级分段的边界，不同分段的Listener不会合并到同一个receiver中，
+     * 一个高优先级的Listener不会提升其他Listener所在receiver的优先级。默认不分段，比如传入{1, 100}开启分段。
+     *
+     * 需要在注册Listener之前调用，见MergePolicyBase.setPriorityBandEdges
+     *
+     * @param edges 升序排列的边界
+     */
+    public synchronized void setPriorityBandEdges(int... edges) {
+        mPriorityBandEdges = edges.clone();
+        if (mInitialized) {
+            applyPriorityBandEdges();
+        }
+    }
+
+    private void applyPriorityBandEdges() {
+        if (mPriorityBandEdges != null && mPolicy instanceof MergePolicyBase) {
+            ((MergePolicyBase) mPolicy).setPriorityBandEdges(mPriorityBandEdges);
+        }
+    }
+
+    /**
+     * 声明只在App进程内发送的action。这些action不会注册到系统中，
+     * 只有这些action的receiver不产生registerReceiver调用，广播不会被其他App收到，
+     * 通过sendBroadcast发送时自动在进程内分发。
+     *
+     * 需要在注册Listener之前调用，见MergePolicyBase.setLocalActions
+     *
+     * @param actions
+     */
+    public synchronized void setLocalActions(String... actions) {
+        mLocalActions = actions.clone();
+        if (mInitialized) {
+            applyLocalActions();
+        }
+    }
+
+    private void applyLocalActions() {
+        if (mLocalActions != null && mPolicy instanceof MergePolicyBase) {
+            ((MergePolicyBase) mPolicy).setLocalActions(mLocalActions);
+        }
+    }
+
+    /**
+     * 设置当前进程receiver数量的上限，默认为MergePolicyBase.DEFAULT_RECEIVER_BUDGET。
+     * 接近上限时新的category会合并到共用的receiver中，见MergePolicyBase.setReceiverBudget
+     *
+     * @param budget 大于0
+     */
+    public synchronized void setReceiverBudget(int budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Receiver budget must be positive : " + budget);
+        }
+        mReceiverBudget = budget;
+        if (mInitialized) {
+            applyReceiverBudget();
+        }
+    }
+
+    private void applyReceiverBudget() {
+        if (mReceiverBudget > 0 && mPolicy instanceof MergePolicyBase) {
+            ((MergePolicyBase) mPolicy).setReceiverBudget(mReceiverBudget);
+        }
+    }
+
+    /**
+     * @return 当前使用的receiver数量，没有初始化或者Policy不是MergePolicyBase时返回0
+     */
+    public synchronized int getReceiverCount() {
+        if (!mInitialized || !(mPolicy instanceof MergePolicyBase)) {
+            return 0;
+        }
+        return ((MergePolicyBase) mPolicy).getReceiverCount();
+    }
+
+    /**
+     * @return receiver数量的上限，没有初始化或者Policy不是MergePolicyBase时返回0
+     */
+    public synchronized int getReceiverBudget() {
+        if (!mInitialized || !(mPolicy instanceof MergePolicyBase)) {
+            return 0;
+        }
+        return ((MergePolicyBase) mPolicy).getReceiverBudget();
+    }
+
+    /**
+     * 设置App是否在后台，可以在init之前调用。
+     *
+     * 在后台时只有Listener.Criticality.CRITICAL的Listener继续回调，其他Listener监听的action从receiver中删除，
+     * 每个receiver最多重新注册一次，回到前台时恢复，见MergePolicyBase.setBackground。
+     * 使用setBackgroundModeEnabled时不需要自己调用
+     *
+     * @param background
+     */
+    public synchronized void setInBackground(boolean background) {
+        if (mInBackground == background) {
+            return;
+        }
+        mInBackground = background;
+        BroadcastBridgeLog.i(TAG, "setInBackground : %b", background);
+        if (mInitialized) {
+            applyBackground();
+        }
+    }
+
+    public synchronized boolean isInBackground() {
+        return mInBackground;
+    }
+
+    private void applyBackground() {
+        if (mPolicy instanceof MergePolicyBase) {
+            ((MergePolicyBase) mPolicy).setBackground(mInBackground);
+        }
+    }
+
+    /**
+     * 根据Activity的生命周期自动调用setInBackground，可以在init之前调用，需要在主线程中调用。
+     *
+     * 最后一个Activity停止一段时间之后进入后台，有Activity启动时回到前台。
+     * 开启时认为App在前台，没有Activity的进程(比如只运行Service的进程)需要自己调用setInBackground
+     *
+     * @param enabled
+     */
+    public synchronized void setBackgroundModeEnabled(boolean enabled) {
+        mBackgroundModeEnabled = enabled;
+        if (mInitialized) {
+            applyBackgroundMode();
+        }
+    }
+
+    private void applyBackgroundMode() {
+        if (!(mApplicationContext instanceof Application)) {
+            BroadcastBridgeLog.w(TAG, "applyBackgroundMode : %s is not an Application",
+                    mApplicationContext);
+            return;
+        }
+        Application application = (Application) mApplicationContext;
+        if (mBackgroundModeEnabled && mForegroundTracker == null) {
+            mForegroundTracker = new ForegroundTracker(this);
+            application.registerActivityLifecycleCallbacks(mForegroundTracker);
+        } else if (!mBackgroundModeEnabled && mForegroundTracker != null) {
+            application.unregisterActivityLifecycleCallbacks(mForegroundTracker);
+            mForegroundTracker.cancel();
+            mForegroundTracker = null;
+            setInBackground(false);
+        }
+    }
 
     /**
      * 初始化BroadcastBridge,使用默认的合并策略，默认为MERGE_AUTO
      *
      * @param context
      */
-    public void init(Context context) {
+    public synchronized void init(Context context) {
         init(context, MERGE_AUTO /* default category */);
     }
 
@@ -223,9 +768,9 @@ public class BroadcastBridge {
      * 初始化BroadcastBridge
      *
      * @param context
-     * @param mergePolicy 需要使用的合并策略(MERGE_GLOBAL | MERGE_AUTO | MERGE_SCHEME | MERGE_PERMISSION)
+     * @param mergePolicy 需要使用的合并策略(MERGE_GLOBAL | MERGE_AUTO | MERGE_SCHEME | MERGE_PERMISSION | MERGE_OPTIMAL)
      */
-    public void init(Context context, String mergePolicy) {
+    public synchronized void init(Context context, String mergePolicy) {
         if (mInitialized) {
             BroadcastBridgeLog.w(TAG, "No need to init twice");
             return;
@@ -235,37 +780,78 @@ public class BroadcastBridge {
             throw new IllegalStateException("context is null !!!");
         }
         mApplicationContext = context.getApplicationContext();
+        BroadcastPayloads.setContext(mApplicationContext);
         mMergePolicyName = mergePolicy;
-        BroadcastBridgeLog.i(TAG, "init : merge policy is " + mMergePolicyName);
+        BroadcastBridgeLog.i(TAG, "init : merge policy is %s", mMergePolicyName);
+
+        initWithPolicy(newPolicy(mergePolicy, new ContextReceiverRegistrar(mApplicationContext)),
+                null);
+    }
 
-        switch (mMergePolicyName) {
+    /**
+     * 以中继模式初始化BroadcastBridge，App的多个进程只由primary进程注册receiver，见RelayTransport。
+     *
+     * primary进程正常注册receiver，并且为secondary进程注册它们需要的广播，收到后通过transport转发；
+     * secondary进程不注册任何receiver，Listener的变化作为需求发送给primary进程，
+     * 收到转发的广播后在进程内分发给Listener，回调线程和匹配规则不变。
+     * secondary进程中getLastIntent总是返回null
+     *
+     * @param context
+     * @param mergePolicy 需要使用的合并策略，所有进程需要使用相同的策略
+     * @param transport 进程之间的通信方式
+     */
+    public synchronized void init(Context context, String mergePolicy, RelayTransport transport) {
+        if (mInitialized) {
+            BroadcastBridgeLog.w(TAG, "No need to init twice");
+            return;
+        }
+
+        if (context == null) {
+            throw new IllegalStateException("context is null !!!");
+        }
+        mApplicationContext = context.getApplicationContext();
+        BroadcastPayloads.setContext(mApplicationContext);
+        mMergePolicyName = mergePolicy;
+        BroadcastBridgeLog.i(TAG, "init : merge policy is %s, relay %s as %s", mMergePolicyName,
+                transport.getProcessName(), transport.isPrimary() ? "primary" : "secondary");
+
+        final MergePolicyBase policy;
+        if (transport.isPrimary()) {
+            policy = newPolicy(mergePolicy, new ContextReceiverRegistrar(mApplicationContext));
+            // 设置callback之后primary进程可能马上收到需求，需要在优先级分段等设置之后
+            initWithPolicy(policy, () -> BroadcastRelay.attachPrimary(transport, policy));
+        } else {
+            final RelayReceiverRegistrar registrar = BroadcastRelay.newSecondaryRegistrar(transport);
+            policy = newPolicy(mergePolicy, registrar);
+            initWithPolicy(policy, () -> BroadcastRelay.attachSecondary(transport, policy, registrar));
+        }
+    }
+
+    private MergePolicyBase newPolicy(String mergePolicy, ReceiverRegistrar registrar) {
+        switch (mergePolicy) {
             case MERGE_GLOBAL: {
-                mPolicy = new MergePolicyGlobal(mApplicationContext, MERGE_GLOBAL);
-                break;
+                return new MergePolicyGlobal(mApplicationContext, registrar, MERGE_GLOBAL);
             }
             case MERGE_AUTO: {
-                mPolicy = new MergePolicyAuto(mApplicationContext, MERGE_AUTO);
-                break;
+                return new MergePolicyAuto(mApplicationContext, registrar, MERGE_AUTO);
             }
             case MERGE_SCHEME: {
-                mPolicy = new MergePolicyScheme(mApplicationContext, MERGE_SCHEME);
-                break;
+                return new MergePolicyScheme(mApplicationContext, registrar, MERGE_SCHEME);
             }
             case MERGE_PERMISSION: {
-                mPolicy = new MergePolicyPermission(mApplicationContext, MERGE_PERMISSION);
-                break;
+                return new MergePolicyPermission(mApplicationContext, registrar, MERGE_PERMISSION);
+            }
+            case MERGE_OPTIMAL: {
+                return new MergePolicyOptimal(mApplicationContext, registrar, MERGE_OPTIMAL);
             }
             /*case MERGE_NONE: {
                 //TODO : not supported now, zhangjigang 20190322
-                mPolicy = new MergePolicyNone(mApplicationContext);
-                break;
+                return new MergePolicyNone(mApplicationContext);
             }*/
             default: {
                 throw new IllegalArgumentException("Unsupported policy " + mergePolicy);
             }
         }
-
-        mInitialized = true;
     }
 
     /**
@@ -274,7 +860,7 @@ public class BroadcastBridge {
      * @param context
      * @param policy 自定义策略，可以继承MergePolicyBase实现自定义策略
      */
-    public void init(Context context, IMergePolicy policy) {
+    public synchronized void init(Context context, IMergePolicy policy) {
         if (mInitialized) {
             BroadcastBridgeLog.w(TAG, "No need to init twice");
             return;
@@ -283,28 +869,383 @@ public class BroadcastBridge {
             throw new IllegalStateException("context is null !!!");
         }
         mApplicationContext = context.getApplicationContext();
-        mPolicy = policy;
+        BroadcastPayloads.setContext(mApplicationContext);
         mMergePolicyName = policy.getMergePolicyName();
 
-        BroadcastBridgeLog.i(TAG, "init : merge policy is " + mMergePolicyName);
+        BroadcastBridgeLog.i(TAG, "init : merge policy is %s", mMergePolicyName);
 
-        mInitialized = true;
+        initWithPolicy(policy, null);
+    }
 
+    /**
+     * 几种init共同的部分 : 把init之前的设置应用到policy上，然后开始处理等待注册的Listener
+     *
+     * @param policy
+     * @param beforeInitialized 应用设置之后、标记为已初始化之前执行，比如中继模式下连接transport，可以为null
+     */
+    private void initWithPolicy(IMergePolicy policy, Runnable beforeInitialized) {
+        mPolicy = policy;
+        applyPriorityBandEdges();
+        applyLocalActions();
+        applyReceiverBudget();
+        applyBackground();
+        if (beforeInitialized != null) {
+            beforeInitialized.run();
+        }
+        mInitialized = true;
+        applyBackgroundMode();
+        scheduleDrain();
     }
 
 
+    /**
+     * 在当前线程中注册Listener。
+     * 如果BroadcastBridge还没有初始化，Listener会被放入等待队列，在init之后的注册线程中注册
+     *
+     * @param listener
+     * @return
+     */
     public synchronized boolean registerListener(Listener listener) {
 
         if (listener == null) {
             return false;
         }
+        if (!mInitialized) {
+            BroadcastBridgeLog.w(TAG, "registerListener : not initialized, " +
+                    "%s will be registered after init", listener);
+            mPendingRegistrations.add(new PendingRegistration(listener, null));
+            return true;
+        }
         return mPolicy.registerListener(listener);
     }
 
+    /**
+     * 在注册线程中异步注册Listener，调用线程不会执行registerReceiver。
+     * 可以在init之前调用，Listener会在init之后注册。
+     *
+     * @param listener
+     * @return receiver注册到系统之后完成的Future，结果表示是否注册成功
+     */
+    public Future<Boolean> registerListenerAsync(Listener listener) {
+        return registerListenerAsync(listener, null);
+    }
+
+    /**
+     * 在注册线程中异步注册Listener，调用线程不会执行registerReceiver。
+     * 同一时间等待注册的多个Listener会作为一个批量注册，每个receiver最多重新注册一次。
+     * 可以在init之前调用，Listener会在init之后注册。
+     *
+     * @param listener
+     * @param callback receiver注册到系统之后在注册线程中回调，可以为null
+     * @return receiver注册到系统之后完成的Future，结果表示是否注册成功
+     */
+    public synchronized Future<Boolean> registerListenerAsync(Listener listener,
+                                                            RegisterCallback callback) {
+        PendingRegistration registration = new PendingRegistration(listener, callback);
+        if (listener == null) {
+            registration.complete(false);
+            return registration;
+        }
+        mPendingRegistrations.add(registration);
+        scheduleDrain();
+        return registration;
+    }
+
     public synchronized boolean unregisterListener(Listener listener) {
         if (listener == null) {
             return false;
         }
-        return mPolicy.unregisterListener(listener);
+        // 还在等待注册的Listener直接从等待队列中删除
+        boolean pendingRemoved = removePendingRegistration(listener);
+        if (!mInitialized) {
+            return pendingRemoved;
+        }
+        return mPolicy.unregisterListener(listener) || pendingRemoved;
+    }
+
+    /**
+     * 获取sticky action(比如BATTERY_CHANGED)最近一次的广播。
+     * 只有当前有Listener监听该action时才有缓存，不会产生binder调用。
+     * 返回的Intent是共享的，不要修改
+     *
+     * @param action
+     * @return 没有缓存时返回null
+     */
+    public synchronized Intent getLastIntent(String action) {
+        if (!mInitialized) {
+            return null;
+        }
+        return mPolicy.getLastIntent(action);
+    }
+
+    /**
+     * 在当前进程中把intent直接分发给匹配的Listener，不经过系统，没有binder调用，
+     * 适用于App内部的自定义广播。匹配规则和回调线程见MergePolicyBase.sendLocal。
+     * 其他App和没有注册Listener的组件(比如静态注册的receiver)不会收到该广播
+     *
+     * @param intent
+     * @return 回调的Listener数量，没有初始化或者Policy不支持时返回0
+     */
+    public int sendLocal(Intent intent) {
+        IMergePolicy policy;
+        synchronized (this) {
+            if (!mInitialized) {
+                BroadcastBridgeLog.w(TAG, "sendLocal : not initialized, %s dropped", intent);
+                return 0;
+            }
+            policy = mPolicy;
+        }
+        if (!(policy instanceof MergePolicyBase)) {
+            BroadcastBridgeLog.w(TAG, "sendLocal : %s does not support local dispatch",
+                    mMergePolicyName);
+            return 0;
+        }
+        return ((MergePolicyBase) policy).sendLocal(intent);
+    }
+
+    /**
+     * 发送广播 : 通过setLocalActions声明的action在进程内分发，其他action通过Context.sendBroadcast发送
+     *
+     * @param intent
+     */
+    public void sendBroadcast(Intent intent) {
+        IMergePolicy policy;
+        Context context;
+        synchronized (this) {
+            if (!mInitialized) {
+                throw new IllegalStateException("BroadcastBridge is not initialized");
+            }
+            policy = mPolicy;
+            context = mApplicationContext;
+        }
+        if (policy instanceof MergePolicyBase &&
+                ((MergePolicyBase) policy).isLocalAction(intent.getAction())) {
+            ((MergePolicyBase) policy).sendLocal(intent);
+        } else {
+            context.sendBroadcast(intent);
+        }
+    }
+
+    /**
+     * 开始批量注册/反注册Listener。
+     * 在commit之前注册或反注册的Listener只会记录IntentFilter的变化，commit时每个受影响的receiver
+     * 只会重新注册一次，避免每个Listener都导致一次unregisterReceiver和registerReceiver。
+     *
+     * beginBatch和commit需要成对调用，可以嵌套，最外层的commit才会真正注册receiver
+     */
+    public synchronized void beginBatch() {
+        if (!mInitialized) {
+            // init之前注册的Listener在init之后会作为一个批量注册
+            return;
+        }
+        mPolicy.beginBatch();
+    }
+
+    /**
+     * 结束批量注册/反注册，把beginBatch之后所有的变化一次性注册到系统中
+     */
+    public synchronized void commit() {
+        if (!mInitialized) {
+            return;
+        }
+        mPolicy.commitBatch();
+    }
+
+    /**
+     * 批量注册多个Listener，每个受影响的receiver最多重新注册一次
+     *
+     * @param listeners
+     * @return 是否所有Listener都注册成功
+     */
+    public synchronized boolean registerListeners(Collection<? extends Listener> listeners) {
+        if (listeners == null) {
+            return false;
+        }
+        boolean allRegistered = true;
+        beginBatch();
+        try {
+            for (Listener listener : listeners) {
+                if (!registerListener(listener)) {
+                    allRegistered = false;
+                }
+            }
+        } finally {
+            commit();
+        }
+        return allRegistered;
+    }
+
+    /**
+     * 批量反注册多个Listener，每个受影响的receiver最多重新注册或反注册一次
+     *
+     * @param listeners
+     * @return 是否所有Listener都反注册成功
+     */
+    public synchronized boolean unregisterListeners(Collection<? extends Listener> listeners) {
+        if (listeners == null) {
+            return false;
+        }
+        boolean allUnregistered = true;
+        beginBatch();
+        try {
+            for (Listener listener : listeners) {
+                if (!unregisterListener(listener)) {
+                    allUnregistered = false;
+                }
+            }
+        } finally {
+            commit();
+        }
+        return allUnregistered;
+    }
+
+    /**
+     * 注册OnBroadcast生成的绑定中所有的Listener，作为一个批量注册
+     *
+     * @param binding
+     * @return 是否所有Listener都注册成功
+     */
+    public synchronized boolean bind(BroadcastBinding binding) {
+        if (binding == null) {
+            return false;
+        }
+        return registerListeners(binding.getListeners());
+    }
+
+    /**
+     * 反注册OnBroadcast生成的绑定中所有的Listener，作为一个批量反注册
+     *
+     * @param binding
+     * @return 是否所有Listener都反注册成功
+     */
+    public synchronized boolean unbind(BroadcastBinding binding) {
+        if (binding == null) {
+            return false;
+        }
+        return unregisterListeners(binding.getListeners());
+    }
+
+    /**
+     * 暂停或恢复Listener，由ListenerScope调用，见MergePolicyBase.setListenersPaused
+     *
+     * @param listeners
+     * @param paused
+     */
+    synchronized void setListenersPaused(Collection<? extends Listener> listeners,
+                                         boolean paused) {
+        if (!mInitialized || !(mPolicy instanceof MergePolicyBase)) {
+            // 还没有注册的Listener只设置状态，注册时不会加入它的action
+            for (Listener listener : listeners) {
+                if (paused) {
+                    listener.mPauseFlags |= Listener.PAUSED_BY_SCOPE;
+                } else {
+                    listener.mPauseFlags &= ~Listener.PAUSED_BY_SCOPE;
+                }
+            }
+            return;
+        }
+        ((MergePolicyBase) mPolicy).setListenersPaused(listeners, paused);
+    }
+
+    private boolean removePendingRegistration(Listener listener) {
+        boolean removed = false;
+        for (int i = mPendingRegistrations.size() - 1; i >= 0; i--) {
+            PendingRegistration registration = mPendingRegistrations.get(i);
+            if (registration.mListener.equals(listener)) {
+                mPendingRegistrations.remove(i);
+                registration.abandon();
+                removed = true;
+            }
+        }
+        // 注册线程在Policy的锁内检查是否已经取消，已经注册的Listener由调用者从Policy中反注册
+        for (int i = mDrainingRegistrations.size() - 1; i >= 0; i--) {
+            PendingRegistration registration = mDrainingRegistrations.get(i);
+            if (registration.mListener.equals(listener) && !registration.isDone()) {
+                mDrainingRegistrations.remove(i);
+                registration.abandon();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 初始化之后，把等待队列中的Listener交给注册线程处理
+     */
+    private void scheduleDrain() {
+        if (!mInitialized || mDrainScheduled || mPendingRegistrations.isEmpty()) {
+            return;
+        }
+        if (mRegisterHandler == null) {
+            HandlerThread thread = new HandlerThread("BroadcastBridge-register",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mRegisterHandler = new Handler(thread.getLooper());
+        }
+        mDrainScheduled = true;
+        mRegisterHandler.post(mDrainRunnable);
+    }
+
+    /**
+     * 在注册线程中批量注册等待队列中的Listener，所有receiver注册完成之后再通知结果。
+     *
+     * 只在复制等待队列时持有BroadcastBridge的锁，registerReceiver等binder调用在Policy的锁内执行，
+     * 注册过程中主线程调用getLastIntent、sendLocal等方法不会被阻塞。
+     * 复制之后被unregisterListener取消的Listener不再注册，见removePendingRegistration
+     */
+    private void drainPendingRegistrations() {
+        PendingRegistration[] registrations;
+        IMergePolicy policy;
+        synchronized (this) {
+            mDrainScheduled = false;
+            registrations = mPendingRegistrations.toArray(
+                    new PendingRegistration[mPendingRegistrations.size()]);
+            mPendingRegistrations.clear();
+            mDrainingRegistrations.addAll(Arrays.asList(registrations));
+            policy = mPolicy;
+        }
+
+        boolean[] results = new boolean[registrations.length];
+        synchronized (policy) {
+            policy.beginBatch();
+            try {
+                for (int i = 0; i < registrations.length; i++) {
+                    if (registrations[i].isCancelled()) {
+                        continue;
+                    }
+                    try {
+                        results[i] = policy.registerListener(registrations[i].mListener);
+                    } catch (RuntimeException e) {
+                        // 注册线程中不能抛出异常，否则会导致进程崩溃，其他Listener也无法得到结果
+                        BroadcastBridgeLog.e(TAG, "drainPendingRegistrations : " +
+                                "%s not registered, %s", registrations[i].mListener, e);
+                    }
+                }
+            } finally {
+                policy.commitBatch();
+            }
+
+            // registerReceiver失败时Listener仍然在receiver中，但是不会收到系统的广播
+            if (policy instanceof MergePolicyBase) {
+                for (int i = 0; i < registrations.length; i++) {
+                    if (results[i] && !((MergePolicyBase) policy).isListenerLive(
+                            registrations[i].mListener)) {
+                        BroadcastBridgeLog.e(TAG, "drainPendingRegistrations : " +
+                                "receiver of %s not registered", registrations[i].mListener);
+                        results[i] = false;
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            mDrainingRegistrations.removeAll(Arrays.asList(registrations));
+        }
+        for (int i = 0; i < registrations.length; i++) {
+            // 取消的Listener已经在abandon中回调
+            if (!registrations[i].isCancelled()) {
+                registrations[i].complete(results[i]);
+            }
+        }
     }
 }
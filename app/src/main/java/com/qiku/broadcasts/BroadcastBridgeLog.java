@@ -2,50 +2,165 @@ package com.qiku.broadcasts;
 
 import android.util.Log;
 
+/**
+ * BroadcastBridge内部日志。
+ *
+ * 日志按级别过滤，低于当前级别的日志直接返回。带参数的重载方法只有在级别打开时才会格式化消息，
+ * 调用处不要再用字符串拼接构造消息；构造参数本身有开销时(比如遍历IntentFilter)，先用isLoggable判断。
+ *
+ * 默认输出到logcat，设置LogSink之后输出到LogSink(比如RingBufferLogSink)。
+ */
 final class BroadcastBridgeLog {
     private BroadcastBridgeLog() {}
 
 
     private static final String TAG = "BroadcastBridge";
 
+    /**
+     * 默认只输出警告和错误日志
+     */
+    private static volatile int sLevel = Log.WARN;
+
+    private static volatile BroadcastBridge.LogSink sSink;
+
+    static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    static void setSink(BroadcastBridge.LogSink sink) {
+        sSink = sink;
+    }
+
+    /**
+     * 指定级别的日志是否需要输出
+     *
+     * @param level android.util.Log中定义的级别
+     * @return
+     */
+    static boolean isLoggable(int level) {
+        return level >= sLevel;
+    }
+
     public static void v(String subTag, String msg) {
-        if (!isLogOn()) {
+        if (!isLoggable(Log.VERBOSE)) {
             return;
         }
-        Log.v(TAG, "[" + subTag + "] => " + msg);
+        write(Log.VERBOSE, subTag, msg);
+    }
+
+    public static void v(String subTag, String format, Object arg) {
+        if (!isLoggable(Log.VERBOSE)) {
+            return;
+        }
+        write(Log.VERBOSE, subTag, String.format(format, arg));
+    }
+
+    public static void v(String subTag, String format, Object arg1, Object arg2) {
+        if (!isLoggable(Log.VERBOSE)) {
+            return;
+        }
+        write(Log.VERBOSE, subTag, String.format(format, arg1, arg2));
     }
 
     public static void w(String subTag, String msg) {
-        if (!isLogOn()) {
+        if (!isLoggable(Log.WARN)) {
             return;
         }
-        Log.w(TAG, "[" + subTag + "] => " + msg);
+        write(Log.WARN, subTag, msg);
+    }
+
+    public static void w(String subTag, String format, Object arg) {
+        if (!isLoggable(Log.WARN)) {
+            return;
+        }
+        write(Log.WARN, subTag, String.format(format, arg));
+    }
+
+    public static void w(String subTag, String format, Object arg1, Object arg2) {
+        if (!isLoggable(Log.WARN)) {
+            return;
+        }
+        write(Log.WARN, subTag, String.format(format, arg1, arg2));
     }
 
     public static void d(String subTag, String msg) {
-        if (!isLogOn()) {
+        if (!isLoggable(Log.DEBUG)) {
             return;
         }
-        Log.d(TAG, "[" + subTag + "] => " + msg);
+        write(Log.DEBUG, subTag, msg);
+    }
+
+    public static void d(String subTag, String format, Object arg) {
+        if (!isLoggable(Log.DEBUG)) {
+            return;
+        }
+        write(Log.DEBUG, subTag, String.format(format, arg));
+    }
+
+    public static void d(String subTag, String format, Object arg1, Object arg2) {
+        if (!isLoggable(Log.DEBUG)) {
+            return;
+        }
+        write(Log.DEBUG, subTag, String.format(format, arg1, arg2));
     }
 
     public static void i(String subTag, String msg) {
-        if (!isLogOn()) {
+        if (!isLoggable(Log.INFO)) {
+            return;
+        }
+        write(Log.INFO, subTag, msg);
+    }
+
+    public static void i(String subTag, String format, Object arg) {
+        if (!isLoggable(Log.INFO)) {
+            return;
+        }
+        write(Log.INFO, subTag, String.format(format, arg));
+    }
+
+    public static void i(String subTag, String format, Object arg1, Object arg2) {
+        if (!isLoggable(Log.INFO)) {
             return;
         }
-        Log.i(TAG, "[" + subTag + "] => " + msg);
+        write(Log.INFO, subTag, String.format(format, arg1, arg2));
+    }
+
+    public static void i(String subTag, String format, Object arg1, Object arg2,
+                         Object arg3) {
+        if (!isLoggable(Log.INFO)) {
+            return;
+        }
+        write(Log.INFO, subTag, String.format(format, arg1, arg2, arg3));
     }
 
     public static void e(String subTag, String msg) {
-        if (!isLogOn()) {
+        if (!isLoggable(Log.ERROR)) {
             return;
         }
-        Log.e(TAG, "[" + subTag + "] => " + msg);
+        write(Log.ERROR, subTag, msg);
     }
 
-    private static boolean isLogOn() {
-        //TODO : 可改为用属性动态控制log开关
-        return true;
+    public static void e(String subTag, String format, Object arg) {
+        if (!isLoggable(Log.ERROR)) {
+            return;
+        }
+        write(Log.ERROR, subTag, String.format(format, arg));
+    }
+
+    public static void e(String subTag, String format, Object arg1, Object arg2) {
+        if (!isLoggable(Log.ERROR)) {
+            return;
+        }
+        write(Log.ERROR, subTag, String.format(format, arg1, arg2));
+    }
+
+    private static void write(int level, String subTag, String msg) {
+        BroadcastBridge.LogSink sink = sSink;
+        if (sink != null) {
+            sink.write(level, subTag, msg);
+        } else {
+            Log.println(level, TAG, "[" + subTag + "] => " + msg);
+        }
     }
 
 }
@@ -0,0 +1,189 @@
+package com.qiku.broadcasts;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BroadcastBridge分发统计的快照，通过BroadcastBridge.getStats()获取，获取之后不会再变化。
+ *
+ * 对每个Listener记录回调耗时和排队耗时(从receiver收到广播到Listener开始回调的时间，
+ * 包括切换线程和合并投递的等待)，对每个action记录收到的广播数和所有Listener的回调耗时。
+ */
+public final class BroadcastBridgeStats {
+
+    /**
+     * 耗时分布，单位为微秒
+     */
+    public static final class Latency {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mTotalMicros;
+        private final long mMaxMicros;
+
+        Latency(long[] buckets, long count, long totalMicros, long maxMicros) {
+            mBuckets = buckets;
+            mCount = count;
+            mTotalMicros = totalMicros;
+            mMaxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMeanMicros() {
+            return mCount == 0 ? 0 : mTotalMicros / mCount;
+        }
+
+        public long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        /**
+         * 百分位耗时，返回所在桶的上界，相对误差不超过12.5%
+         *
+         * @param percentile 0到100之间，比如99表示P99
+         * @return
+         */
+        public long getPercentileMicros(double percentile) {
+            long total = 0;
+            for (long bucket : mBuckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= target && mBuckets[i] > 0) {
+                    return Math.min(LatencyHistogram.upperBoundOf(i), mMaxMicros);
+                }
+            }
+            return mMaxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", mean=" + getMeanMicros() + "us, p50=" +
+                    getPercentileMicros(50) + "us, p99=" + getPercentileMicros(99) +
+                    "us, max=" + mMaxMicros + "us";
+        }
+    }
+
+    /**
+     * 一个Listener的统计
+     */
+    public static final class ListenerEntry {
+        private final String mName;
+        private final Latency mCallbackLatency;
+        private final Latency mQueueDelay;
+        private final long mSlowCount;
+
+        ListenerEntry(String name, Latency callbackLatency, Latency queueDelay, long slowCount) {
+            mName = name;
+            mCallbackLatency = callbackLatency;
+            mQueueDelay = queueDelay;
+            mSlowCount = slowCount;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * onReceiveBroadcast的耗时，count即回调次数
+         */
+        public Latency getCallbackLatency() {
+            return mCallbackLatency;
+        }
+
+        /**
+         * 从receiver收到广播到开始回调的耗时
+         */
+        public Latency getQueueDelay() {
+            return mQueueDelay;
+        }
+
+        /**
+         * 在主线程中回调超过预算的次数
+         */
+        public long getSlowCount() {
+            return mSlowCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Listener " + mName + " : callback{" + mCallbackLatency + "}, queue{" +
+                    mQueueDelay + "}, slow=" + mSlowCount;
+        }
+    }
+
+    /**
+     * 一个action的统计
+     */
+    public static final class ActionEntry {
+        private final String mAction;
+        private final long mDeliveryCount;
+        private final Latency mCallbackLatency;
+
+        ActionEntry(String action, long deliveryCount, Latency callbackLatency) {
+            mAction = action;
+            mDeliveryCount = deliveryCount;
+            mCallbackLatency = callbackLatency;
+        }
+
+        public String getAction() {
+            return mAction;
+        }
+
+        /**
+         * receiver收到该action广播的次数
+         */
+        public long getDeliveryCount() {
+            return mDeliveryCount;
+        }
+
+        /**
+         * 所有Listener处理该action的回调耗时
+         */
+        public Latency getCallbackLatency() {
+            return mCallbackLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Action " + mAction + " : deliveries=" + mDeliveryCount + ", callback{" +
+                    mCallbackLatency + "}";
+        }
+    }
+
+    private final List<ListenerEntry> mListeners;
+    private final List<ActionEntry> mActions;
+
+    BroadcastBridgeStats(List<ListenerEntry> listeners, List<ActionEntry> actions) {
+        mListeners = Collections.unmodifiableList(listeners);
+        mActions = Collections.unmodifiableList(actions);
+    }
+
+    public List<ListenerEntry> getListenerStats() {
+        return mListeners;
+    }
+
+    public List<ActionEntry> getActionStats() {
+        return mActions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BroadcastBridgeStats");
+        for (ListenerEntry entry : mListeners) {
+            sb.append("\n  ").append(entry);
+        }
+        for (ActionEntry entry : mActions) {
+            sb.append("\n  ").append(entry);
+        }
+        return sb.toString();
+    }
+}
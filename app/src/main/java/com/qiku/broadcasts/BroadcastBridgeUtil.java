@@ -1,8 +1,10 @@
 package com.qiku.broadcasts;
 
 import android.content.IntentFilter;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -20,6 +22,65 @@ final class BroadcastBridgeUtil {
         }
     }
 
+    static void removeDataScheme(IntentFilter filter, String scheme) {
+        Iterator<String> it = filter.schemesIterator();
+        while (it != null && it.hasNext()) {
+            if (scheme.equals(it.next())) {
+                it.remove();
+                break;
+            }
+        }
+    }
+
+    /**
+     * 把MIME type加入IntentFilter
+     *
+     * @throws IllegalArgumentException type格式错误
+     */
+    static void addDataTypes(IntentFilter filter, List<String> types) {
+        for (int i = 0; i < types.size(); i++) {
+            try {
+                filter.addDataType(types.get(i));
+            } catch (IntentFilter.MalformedMimeTypeException e) {
+                throw new IllegalArgumentException("Malformed data type " + types.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * @return IntentFilter中的MIME type，"image/*"这样的type在IntentFilter中保存为"image"，这里恢复为原来的格式
+     */
+    static List<String> dataTypesOf(IntentFilter filter) {
+        List<String> list = new ArrayList<>(filter.countDataTypes());
+        for (int i = 0; i < filter.countDataTypes(); i++) {
+            String type = filter.getDataType(i);
+            list.add(type.indexOf('/') < 0 ? type + "/*" : type);
+        }
+        return list;
+    }
+
+    /**
+     * 按照IntentFilter的规则比较MIME type，支持子类型的通配(比如"image/*")和匹配所有type的通配
+     *
+     * @param types Listener要求的type
+     * @param type 广播中的type
+     * @return
+     */
+    static boolean matchesDataType(List<String> types, String type) {
+        if (TextUtils.isEmpty(type)) {
+            return false;
+        }
+        int slash = type.indexOf('/');
+        for (int i = 0; i < types.size(); i++) {
+            String t = types.get(i);
+            if (t.equals(type) || "*/*".equals(t) || (t.endsWith("/*") && slash > 0 &&
+                    t.regionMatches(0, type, 0, slash + 1) && t.length() == slash + 2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static List<String> actionsOf(IntentFilter filter) {
         Iterator<String> it = filter.actionsIterator();
         List<String> list = new ArrayList<>();
@@ -28,4 +89,40 @@ final class BroadcastBridgeUtil {
         }
         return list;
     }
+
+    /**
+     * @param filter
+     * @param schemes 为null时表示不需要scheme
+     * @return IntentFilter中的scheme是否和schemes完全相同
+     */
+    static boolean hasSameDataSchemes(IntentFilter filter, List<String> schemes) {
+        int count = schemes == null ? 0 : schemes.size();
+        if (filter.countDataSchemes() > count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!filter.hasDataScheme(schemes.get(i))) {
+                return false;
+            }
+        }
+        // schemes中可能有重复的scheme
+        return count == 0 || filter.countDataSchemes() == new HashSet<>(schemes).size();
+    }
+
+    /**
+     * @param schemes Listener要求的scheme，null表示不检查
+     * @param scheme 广播中data的scheme
+     * @return Listener是否接收该广播
+     */
+    static boolean accepts(String[] schemes, String scheme) {
+        if (schemes == null) {
+            return true;
+        }
+        for (String s : schemes) {
+            if (s.equals(scheme)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
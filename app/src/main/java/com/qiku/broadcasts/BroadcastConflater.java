@@ -0,0 +1,115 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+/**
+ * 高频广播的合并投递(latest-value-wins)。
+ *
+ * 每个action独立计算时间窗口：窗口外收到的第一个广播立即投递(leading edge)，
+ * 窗口内后续的广播只保留最新的一个，在窗口结束时投递(trailing edge)，并开始新的窗口。
+ * 这样在广播密集发送时，Listener的回调次数只和窗口大小有关，和系统发送广播的频率无关。
+ */
+final class BroadcastConflater {
+
+    private static final class Window {
+        private final String mAction;
+        private long mEndTime;
+        private Intent mPending;
+        private BroadcastPayloads.Scope mPendingPayloads;
+        private long mPendingReceiveNanos;
+        private boolean mScheduled;
+
+        Window(String action) {
+            mAction = action;
+        }
+    }
+
+    private final BroadcastBridge.Listener mListener;
+
+    private final long mWindowMillis;
+
+    private final ArrayMap<String, Window> mWindows = new ArrayMap<>();
+
+    /**
+     * 最近一次投递时使用的category Handler，窗口结束时投递pending的广播需要用到
+     */
+    private Handler mCategoryHandler;
+
+    BroadcastConflater(BroadcastBridge.Listener listener, long windowMillis) {
+        mListener = listener;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * 收到广播时调用，判断是否需要立即投递
+     *
+     * @param intent 收到的广播
+     * @param payloads 这一次投递的解码结果，可以为null
+     * @param categoryHandler 当前category的Handler
+     * @param receiveNanos receiver收到广播的时间
+     * @return true表示需要立即投递，false表示广播已经被合并，会在窗口结束时投递最新的广播
+     */
+    synchronized boolean offer(Intent intent, BroadcastPayloads.Scope payloads,
+                               Handler categoryHandler, long receiveNanos) {
+        mCategoryHandler = categoryHandler;
+
+        String action = intent.getAction();
+        Window window = mWindows.get(action);
+        if (window == null) {
+            window = new Window(action);
+            mWindows.put(action, window);
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (now >= window.mEndTime && !window.mScheduled) {
+            window.mEndTime = now + mWindowMillis;
+            return true;
+        }
+
+        window.mPending = intent;
+        window.mPendingPayloads = payloads;
+        window.mPendingReceiveNanos = receiveNanos;
+        if (!window.mScheduled) {
+            window.mScheduled = true;
+            final Window scheduled = window;
+            BroadcastDispatcher.timerHandler().postAtTime(() -> flush(scheduled), this,
+                    window.mEndTime);
+        }
+        return false;
+    }
+
+    /**
+     * Listener被删除时调用，丢弃所有还没有投递的广播
+     */
+    synchronized void cancel() {
+        BroadcastDispatcher.timerHandler().removeCallbacksAndMessages(this);
+        mWindows.clear();
+    }
+
+    private void flush(Window window) {
+        Intent pending;
+        BroadcastPayloads.Scope payloads;
+        long receiveNanos;
+        Handler categoryHandler;
+        synchronized (this) {
+            if (mWindows.get(window.mAction) != window) {
+                // 已经cancel
+                return;
+            }
+            pending = window.mPending;
+            payloads = window.mPendingPayloads;
+            receiveNanos = window.mPendingReceiveNanos;
+            window.mPending = null;
+            window.mPendingPayloads = null;
+            window.mScheduled = false;
+            window.mEndTime = SystemClock.uptimeMillis() + mWindowMillis;
+            categoryHandler = mCategoryHandler;
+        }
+
+        BroadcastDispatcher.deliverNow(mListener, pending, payloads, categoryHandler,
+                receiveNanos);
+    }
+}
@@ -0,0 +1,223 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按照Listener指定的ThreadMode把广播投递到对应的线程中。
+ *
+ * 主线程Handler、后台线程池和接收线程在所有CategoryReceiver之间共享，都是在第一次使用时才创建。
+ * 每个category独立的HandlerThread由CategoryReceiver自己持有，只在有CATEGORY_THREAD的Listener时创建。
+ */
+final class BroadcastDispatcher {
+    private BroadcastDispatcher() {}
+
+    private static final int BACKGROUND_POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final long BACKGROUND_KEEP_ALIVE_SECONDS = 30;
+
+    private static class MainHandlerHolder {
+        static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    private static class TimerHandlerHolder {
+        static final Handler sTimerHandler;
+
+        static {
+            HandlerThread thread = new HandlerThread("BroadcastBridge-timer",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sTimerHandler = new Handler(thread.getLooper());
+        }
+    }
+
+    private static class ReceiverHandlerHolder {
+        static final Handler sReceiverHandler;
+
+        static {
+            HandlerThread thread = new HandlerThread("BroadcastBridge-receiver",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sReceiverHandler = new Handler(thread.getLooper());
+        }
+    }
+
+    private static class BackgroundExecutorHolder {
+        static final ExecutorService sExecutor;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(BACKGROUND_POOL_SIZE,
+                    BACKGROUND_POOL_SIZE, BACKGROUND_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BroadcastBridge-bg-" +
+                            mCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // 空闲时回收所有线程，没有后台Listener时不占用线程
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+    }
+
+    static Handler mainHandler() {
+        return MainHandlerHolder.sMainHandler;
+    }
+
+    static ExecutorService backgroundExecutor() {
+        return BackgroundExecutorHolder.sExecutor;
+    }
+
+    /**
+     * 用于延时任务(比如合并投递的时间窗口)的Handler，运行在独立的后台线程中，不会唤醒主线程
+     *
+     * @return
+     */
+    static Handler timerHandler() {
+        return TimerHandlerHolder.sTimerHandler;
+    }
+
+    /**
+     * 所有Listener都不在主线程回调的receiver注册在该线程上，线程数量不随receiver数量增加
+     *
+     * @return
+     */
+    static Handler receiverHandler() {
+        return ReceiverHandlerHolder.sReceiverHandler;
+    }
+
+    /**
+     * 为category创建独立的HandlerThread
+     *
+     * @param category
+     * @return
+     */
+    static Handler newCategoryHandler(String category) {
+        HandlerThread thread = new HandlerThread("BroadcastBridge-" + category,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    /**
+     * 当前线程是否在handler对应的线程中
+     *
+     * @param handler
+     * @return
+     */
+    static boolean isCurrentThread(Handler handler) {
+        return handler.getLooper() == Looper.myLooper();
+    }
+
+    /**
+     * 把intent投递给listener，如果listener指定了合并窗口，先经过BroadcastConflater合并
+     *
+     * @param listener 要回调的Listener
+     * @param intent 收到的广播
+     * @param payloads 这一次投递的解码结果，见BroadcastPayloads.newScope，可以为null
+     * @param categoryHandler 当前category的HandlerThread对应的Handler，
+     *                        只有ThreadMode.CATEGORY_THREAD的Listener会使用
+     * @param receiveNanos receiver收到广播时的System.nanoTime()，用于统计排队耗时
+     */
+    static void deliver(BroadcastBridge.Listener listener, Intent intent,
+                        BroadcastPayloads.Scope payloads, Handler categoryHandler,
+                        long receiveNanos) {
+        BroadcastConflater conflater = listener.mConflater;
+        if (conflater != null &&
+                !conflater.offer(intent, payloads, categoryHandler, receiveNanos)) {
+            // 广播被合并，在时间窗口结束时投递
+            return;
+        }
+        deliverNow(listener, intent, payloads, categoryHandler, receiveNanos);
+    }
+
+    /**
+     * 不经过合并，直接按照Listener的ThreadMode投递
+     */
+    static void deliverNow(final BroadcastBridge.Listener listener, final Intent intent,
+                           final BroadcastPayloads.Scope payloads, Handler categoryHandler,
+                           final long receiveNanos) {
+        switch (listener.getThreadMode()) {
+            case POSTING: {
+                invoke(listener, intent, payloads, receiveNanos);
+                break;
+            }
+            case BACKGROUND: {
+                backgroundExecutor().execute(() ->
+                        invoke(listener, intent, payloads, receiveNanos));
+                break;
+            }
+            case CATEGORY_THREAD: {
+                postOrRun(categoryHandler, listener, intent, payloads, receiveNanos);
+                break;
+            }
+            case MAIN:
+            default: {
+                postOrRun(mainHandler(), listener, intent, payloads, receiveNanos);
+                break;
+            }
+        }
+    }
+
+    private static void postOrRun(Handler handler, final BroadcastBridge.Listener listener,
+                                  final Intent intent, final BroadcastPayloads.Scope payloads,
+                                  final long receiveNanos) {
+        // ReceiverRegistrar没有为category创建线程时，在接收广播的线程中回调
+        if (handler == null || isCurrentThread(handler)) {
+            invoke(listener, intent, payloads, receiveNanos);
+        } else {
+            handler.post(() -> invoke(listener, intent, payloads, receiveNanos));
+        }
+    }
+
+    /**
+     * 在目标线程中回调Listener，打开统计时记录排队耗时和回调耗时
+     */
+    private static void invoke(BroadcastBridge.Listener listener, Intent intent,
+                               BroadcastPayloads.Scope payloads, long receiveNanos) {
+        if (listener.mPauseFlags != 0) {
+            // 投递之后Listener所属的ListenerScope已经停止，或者App已经进入后台
+            return;
+        }
+        if (payloads == null) {
+            invoke(listener, intent, receiveNanos);
+            return;
+        }
+        // POSTING的Listener中可能再调用sendLocal，回调结束之后恢复外层的Scope
+        BroadcastPayloads.Scope previous = BroadcastPayloads.enter(payloads);
+        try {
+            invoke(listener, intent, receiveNanos);
+        } finally {
+            BroadcastPayloads.exit(previous);
+        }
+    }
+
+    private static void invoke(BroadcastBridge.Listener listener, Intent intent,
+                               long receiveNanos) {
+        if (!DispatchStats.isEnabled()) {
+            listener.onReceiveBroadcast(intent);
+            return;
+        }
+        long start = System.nanoTime();
+        listener.onReceiveBroadcast(intent);
+        long end = System.nanoTime();
+        DispatchStats.onCallback(listener, intent.getAction(), start - receiveNanos,
+                end - start);
+    }
+}
@@ -0,0 +1,176 @@
+package com.qiku.broadcasts;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 广播内容的解码结果，每次投递只解码一次，由收到该广播的所有Listener共用。
+ *
+ * receiver每次分发广播时创建一个Scope，随广播一起交给所有Listener，Listener在onReceiveBroadcast中调用
+ * get(或者BatteryState.from、NetworkState.from)时，第一次调用解码并缓存在该Scope中，
+ * 之后的Listener直接使用缓存的结果，不需要再读取extra或者调用系统服务。
+ * 缓存只属于这一次投递，同一个Intent对象再次发送(比如sendLocal复用Intent)时重新解码；
+ * 不在投递过程中调用get时(比如getLastIntent返回的Intent)，每次调用都解码。
+ *
+ * 解码器按action注册，BATTERY_CHANGED和CONNECTIVITY_ACTION已经预置，App可以用register添加或者替换
+ */
+public final class BroadcastPayloads {
+    private BroadcastPayloads() {}
+
+    private static final String TAG = "BroadcastPayloads";
+
+    /**
+     * 把一个广播解码为类型T的对象，可以在任意线程调用，同一次投递只会调用一次
+     *
+     * @param <T>
+     */
+    public interface Decoder<T> {
+        /**
+         * @param context Application的Context，BroadcastBridge没有初始化时为null
+         * @param intent 收到的广播，不要修改
+         * @return 解码结果，可以为null
+         */
+        T decode(Context context, Intent intent);
+    }
+
+    private static final class Registration<T> {
+        final Class<T> mType;
+        final Decoder<T> mDecoder;
+
+        Registration(Class<T> type, Decoder<T> decoder) {
+            mType = type;
+            mDecoder = decoder;
+        }
+    }
+
+    /**
+     * 一次投递的解码结果，第一次访问时解码，由CategoryReceiver在分发广播时创建
+     */
+    static final class Scope {
+        private final Intent mIntent;
+        private final Registration<?> mRegistration;
+        private boolean mDecoded;
+        private Object mValue;
+
+        private Scope(Intent intent, Registration<?> registration) {
+            mIntent = intent;
+            mRegistration = registration;
+        }
+
+        synchronized Object get() {
+            if (!mDecoded) {
+                mDecoded = true;
+                mValue = decode(mRegistration, mIntent);
+            }
+            return mValue;
+        }
+    }
+
+    private static final Map<String, Registration<?>> sDecoders = new ConcurrentHashMap<>();
+
+    /**
+     * 当前线程正在回调的Listener所在的投递，回调结束之后恢复
+     */
+    private static final ThreadLocal<Scope> sCurrentScope = new ThreadLocal<>();
+
+    private static volatile Context sContext;
+
+    static {
+        registerBuiltins();
+    }
+
+    /**
+     * 静态初始化块不能添加注解，CONNECTIVITY_ACTION的deprecation警告在这里屏蔽
+     */
+    @SuppressWarnings("deprecation")
+    private static void registerBuiltins() {
+        register(Intent.ACTION_BATTERY_CHANGED, BatteryState.class, BatteryState.DECODER);
+        register(ConnectivityManager.CONNECTIVITY_ACTION, NetworkState.class,
+                NetworkState.DECODER);
+    }
+
+    /**
+     * 由BroadcastBridge.init设置
+     */
+    static void setContext(Context context) {
+        sContext = context;
+    }
+
+    /**
+     * 注册action的解码器，替换之前注册的解码器，正在进行的投递不受影响
+     *
+     * @param action
+     * @param type 解码结果的类型
+     * @param decoder
+     * @param <T>
+     */
+    public static <T> void register(String action, Class<T> type, Decoder<T> decoder) {
+        if (action == null || type == null || decoder == null) {
+            throw new IllegalArgumentException("action, type and decoder must not be null");
+        }
+        sDecoders.put(action, new Registration<>(type, decoder));
+    }
+
+    /**
+     * 分发广播之前调用
+     *
+     * @param intent 收到的广播
+     * @return 没有为该action注册解码器时返回null
+     */
+    static Scope newScope(Intent intent) {
+        String action = intent.getAction();
+        Registration<?> registration = action == null ? null : sDecoders.get(action);
+        return registration == null ? null : new Scope(intent, registration);
+    }
+
+    /**
+     * 回调Listener之前调用，在当前线程中设置Scope
+     *
+     * @return 之前的Scope，回调结束之后传给exit
+     */
+    static Scope enter(Scope scope) {
+        Scope previous = sCurrentScope.get();
+        sCurrentScope.set(scope);
+        return previous;
+    }
+
+    static void exit(Scope previous) {
+        sCurrentScope.set(previous);
+    }
+
+    /**
+     * 获取广播的解码结果，同一次投递只在第一次调用时解码
+     *
+     * @param intent Listener收到的广播
+     * @param type 解码结果的类型
+     * @param <T>
+     * @return 没有为该action注册type类型的解码器时返回null
+     */
+    public static <T> T get(Intent intent, Class<T> type) {
+        Scope scope = sCurrentScope.get();
+        if (scope != null && scope.mIntent == intent) {
+            return type.isAssignableFrom(scope.mRegistration.mType) ?
+                    type.cast(scope.get()) : null;
+        }
+        String action = intent.getAction();
+        Registration<?> registration = action == null ? null : sDecoders.get(action);
+        if (registration == null || !type.isAssignableFrom(registration.mType)) {
+            return null;
+        }
+        return type.cast(decode(registration, intent));
+    }
+
+    private static Object decode(Registration<?> registration, Intent intent) {
+        try {
+            return registration.mDecoder.decode(sContext, intent);
+        } catch (RuntimeException e) {
+            // 其他App发送的extra可能无法反序列化，所有Listener都得到null
+            BroadcastBridgeLog.w(TAG, "decode : %s failed, %s", intent.getAction(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.qiku.broadcasts;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Listener对广播中extra和data的声明式条件，见BroadcastBridge.Listener.getPredicates。
+ *
+ * 条件在receiver收到广播的线程中、切换到Listener的回调线程之前检查，不满足条件的Listener不会回调。
+ * 同一个receiver中相等的条件每次广播只检查一次，extra在第一次需要时只取出一次。
+ * 条件创建之后不再改变，按照内容判断是否相等，可以作为常量在多个Listener之间共用
+ */
+public final class BroadcastPredicate {
+
+    private static final int KIND_HAS_EXTRA = 0;
+    private static final int KIND_EXTRA_IN = 1;
+    private static final int KIND_SCHEME_SPECIFIC_PART = 2;
+
+    private final int mKind;
+
+    /**
+     * extra的名字，KIND_SCHEME_SPECIFIC_PART时为null
+     */
+    private final String mKey;
+
+    /**
+     * 满足条件的值，KIND_HAS_EXTRA时为空列表
+     */
+    private final List<Object> mValues;
+
+    private final int mHash;
+
+    private BroadcastPredicate(int kind, String key, List<Object> values) {
+        mKind = kind;
+        mKey = key;
+        mValues = values;
+        mHash = Objects.hash(kind, key, values);
+    }
+
+    /**
+     * 广播中有名为key的extra
+     *
+     * @param key
+     * @return
+     */
+    public static BroadcastPredicate hasExtra(String key) {
+        return new BroadcastPredicate(KIND_HAS_EXTRA, checkKey(key),
+                Collections.emptyList());
+    }
+
+    /**
+     * 广播中名为key的extra等于value，按照equals比较，
+     * value应该是String、Integer、Boolean等基本类型，不支持数组
+     *
+     * @param key
+     * @param value 为null时只匹配没有该extra或者extra为null的广播
+     * @return
+     */
+    public static BroadcastPredicate extraEquals(String key, Object value) {
+        return extraIn(key, value);
+    }
+
+    /**
+     * 广播中名为key的extra等于values中的任意一个，比较规则和extraEquals相同
+     *
+     * @param key
+     * @param values 不能为空
+     * @return
+     */
+    public static BroadcastPredicate extraIn(String key, Object... values) {
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("extraIn must have values : " + key);
+        }
+        return new BroadcastPredicate(KIND_EXTRA_IN, checkKey(key),
+                Collections.unmodifiableList(Arrays.asList(values.clone())));
+    }
+
+    /**
+     * 广播中data的scheme specific part等于values中的任意一个，
+     * 比如PACKAGE_ADDED只关心某个包名时使用schemeSpecificPart("com.qiku.app")
+     *
+     * @param values 不能为空
+     * @return
+     */
+    public static BroadcastPredicate schemeSpecificPart(String... values) {
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("schemeSpecificPart must have values");
+        }
+        return new BroadcastPredicate(KIND_SCHEME_SPECIFIC_PART, null,
+                Collections.unmodifiableList(Arrays.asList((Object[]) values.clone())));
+    }
+
+    private static String checkKey(String key) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Extra key must not be empty");
+        }
+        return key;
+    }
+
+    /**
+     * @return 是否需要读取广播中的extra
+     */
+    boolean needsExtras() {
+        return mKind != KIND_SCHEME_SPECIFIC_PART;
+    }
+
+    /**
+     * @param extras 广播中的extra，needsExtras为false或者广播中没有extra时为null
+     * @param data 广播中的data
+     * @return 广播是否满足条件
+     */
+    boolean matches(Bundle extras, Uri data) {
+        switch (mKind) {
+            case KIND_HAS_EXTRA:
+                return extras != null && extras.containsKey(mKey);
+            case KIND_EXTRA_IN:
+                return mValues.contains(extras == null ? null : extras.get(mKey));
+            case KIND_SCHEME_SPECIFIC_PART:
+                return data != null && mValues.contains(data.getSchemeSpecificPart());
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BroadcastPredicate)) return false;
+        BroadcastPredicate that = (BroadcastPredicate) o;
+        return mHash == that.mHash && mKind == that.mKind &&
+                Objects.equals(mKey, that.mKey) && mValues.equals(that.mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public String toString() {
+        switch (mKind) {
+            case KIND_HAS_EXTRA:
+                return "hasExtra(" + mKey + ")";
+            case KIND_EXTRA_IN:
+                return "extraIn(" + mKey + ", " + mValues + ")";
+            default:
+                return "schemeSpecificPart(" + mValues + ")";
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.util.ArrayMap;
+
+import java.util.List;
+
+/**
+ * 中继模式，同一个App的多个进程只由primary进程注册receiver，见RelayTransport。
+ *
+ * primary进程为secondary进程的每个RelayDemand注册一个RelayListener，和本进程的Listener一起合并，
+ * RelayListener收到广播后通过RelayTransport转发给secondary进程；
+ * secondary进程的MergePolicy使用RelayReceiverRegistrar，收到转发的广播后通过sendLocal分发给本进程的Listener，
+ * 匹配规则和系统投递时一致。
+ */
+final class BroadcastRelay implements RelayTransport.Callback {
+
+    private static final String TAG = "BroadcastRelay";
+
+    /**
+     * primary进程中代替secondary进程的一个receiver注册的Listener，在接收广播的线程中直接转发
+     */
+    private static final class RelayListener extends BroadcastBridge.Listener {
+        private final RelayTransport mTransport;
+        private final String mProcess;
+        private final RelayDemand mDemand;
+        private final CategoryKey mAutoCategory;
+
+        RelayListener(RelayTransport transport, String process, RelayDemand demand) {
+            super("relay:" + process + ":" + demand.getName(), demand.getPriority(),
+                    demand.getActions().toArray(new String[demand.getActions().size()]));
+            mTransport = transport;
+            mProcess = process;
+            mDemand = demand;
+            // secondary进程接近receiver上限时会把不同category的action合并到overflow receiver中，
+            // 这样的需求在MERGE_AUTO中不能按预置的分类计算category，单独使用一个receiver
+            mAutoCategory = MergePolicyAuto.categoryNameOf(demand.getActions()) != null ? null :
+                    CategoryKey.of(getName());
+        }
+
+        @Override
+        public CategoryKey getAutoCategory() {
+            return mAutoCategory;
+        }
+
+        @Override
+        public List<String> getDataSchemes() {
+            return mDemand.getSchemes();
+        }
+
+        @Override
+        public List<String> getDataTypes() {
+            return mDemand.getDataTypes();
+        }
+
+        @Override
+        public String getBroadcastPermission() {
+            return mDemand.getPermission();
+        }
+
+        @Override
+        public ThreadMode getThreadMode() {
+            return ThreadMode.POSTING;
+        }
+
+        /**
+         * 对secondary进程来说相当于注册了一个新的receiver，primary进程已经在监听的sticky广播也要转发过去
+         */
+        @Override
+        public boolean isStickyReplayEnabled() {
+            return true;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mTransport.relayBroadcast(mProcess, intent);
+        }
+    }
+
+    private final RelayTransport mTransport;
+
+    private final MergePolicyBase mPolicy;
+
+    /**
+     * secondary进程中的RelayReceiverRegistrar，primary进程中为null
+     */
+    private final RelayReceiverRegistrar mRegistrar;
+
+    /**
+     * primary进程中每个secondary进程的RelayListener，demand的名字 -> RelayListener
+     */
+    private final ArrayMap<String, ArrayMap<String, RelayListener>> mProcessListeners =
+            new ArrayMap<>();
+
+    private BroadcastRelay(RelayTransport transport, MergePolicyBase policy,
+                           RelayReceiverRegistrar registrar) {
+        mTransport = transport;
+        mPolicy = policy;
+        mRegistrar = registrar;
+    }
+
+    /**
+     * primary进程 : policy正常注册到系统中，同时为secondary进程注册RelayListener
+     */
+    static BroadcastRelay attachPrimary(RelayTransport transport, MergePolicyBase policy) {
+        BroadcastRelay relay = new BroadcastRelay(transport, policy, null);
+        transport.setCallback(relay);
+        return relay;
+    }
+
+    /**
+     * secondary进程 : policy需要使用newSecondaryRegistrar创建的ReceiverRegistrar
+     */
+    static BroadcastRelay attachSecondary(RelayTransport transport, MergePolicyBase policy,
+                                          RelayReceiverRegistrar registrar) {
+        BroadcastRelay relay = new BroadcastRelay(transport, policy, registrar);
+        transport.setCallback(relay);
+        return relay;
+    }
+
+    static RelayReceiverRegistrar newSecondaryRegistrar(RelayTransport transport) {
+        return new RelayReceiverRegistrar(transport);
+    }
+
+    @Override
+    public synchronized void onDemandChanged(String process, List<RelayDemand> demands) {
+        if (mRegistrar != null) {
+            BroadcastBridgeLog.w(TAG, "onDemandChanged : %s is not primary, demand from %s " +
+                    "ignored", mTransport.getProcessName(), process);
+            return;
+        }
+        ArrayMap<String, RelayListener> current = mProcessListeners.get(process);
+        ArrayMap<String, RelayListener> updated = new ArrayMap<>(demands.size());
+        mPolicy.beginBatch();
+        try {
+            for (int i = 0; i < demands.size(); i++) {
+                RelayDemand demand = demands.get(i);
+                RelayListener listener = current == null ? null : current.remove(demand.getName());
+                if (listener != null && !listener.mDemand.equals(demand)) {
+                    mPolicy.unregisterListener(listener);
+                    listener = null;
+                }
+                if (listener == null) {
+                    listener = new RelayListener(mTransport, process, demand);
+                    if (!mPolicy.registerListener(listener)) {
+                        BroadcastBridgeLog.e(TAG, "onDemandChanged : %s from %s not registered",
+                                demand, process);
+                        continue;
+                    }
+                }
+                updated.put(demand.getName(), listener);
+            }
+            // 不再需要的receiver
+            if (current != null) {
+                for (int i = 0; i < current.size(); i++) {
+                    mPolicy.unregisterListener(current.valueAt(i));
+                }
+            }
+        } finally {
+            mPolicy.commitBatch();
+        }
+        if (updated.isEmpty()) {
+            mProcessListeners.remove(process);
+        } else {
+            mProcessListeners.put(process, updated);
+        }
+        BroadcastBridgeLog.i(TAG, "onDemandChanged : %s has %d receivers", process,
+                updated.size());
+    }
+
+    @Override
+    public void onRelayedBroadcast(Intent intent) {
+        mPolicy.sendLocal(intent);
+    }
+
+    @Override
+    public void onPrimaryConnected() {
+        if (mRegistrar != null) {
+            mRegistrar.sendDemand();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.qiku.broadcasts;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Listener所属的category，由MergePolicy.getActionCategory返回，相同category的Listener合并到同一个Receiver中。
+ *
+ * category由名字、scheme、MIME type、permission和优先级分段组成，创建时复制并排序scheme，预先计算hash，
+ * 之后不会再改变。每个Listener的category只在第一次注册时计算一次，之后注册和反注册都直接使用缓存的对象，
+ * 查找Receiver时不需要再拼接字符串。
+ */
+public final class CategoryKey {
+
+    private final String mName;
+
+    /**
+     * 排序之后的scheme，不需要scheme时为空列表
+     */
+    private final List<String> mSchemes;
+
+    /**
+     * 排序之后的MIME type，由MergePolicyBase根据Listener的getDataTypes设置，不需要type时为空列表。
+     * IntentFilter中有type时不匹配不带type的广播，所以type不同的Listener不能合并
+     */
+    private final List<String> mDataTypes;
+
+    /**
+     * 不需要permission时为null
+     */
+    private final String mPermission;
+
+    /**
+     * 优先级分段，由MergePolicyBase根据Listener的优先级设置，MergePolicy返回的category都是0
+     */
+    private final int mPriorityBand;
+
+    private final int mHash;
+
+    /**
+     * toString的结果，第一次使用时生成
+     */
+    private String mLabel;
+
+    private CategoryKey(String name, List<String> schemes, List<String> dataTypes,
+                        String permission, int priorityBand) {
+        mName = name;
+        mSchemes = schemes;
+        mDataTypes = dataTypes;
+        mPermission = permission;
+        mPriorityBand = priorityBand;
+
+        int hash = name.hashCode();
+        hash = 31 * hash + schemes.hashCode();
+        hash = 31 * hash + dataTypes.hashCode();
+        hash = 31 * hash + (permission == null ? 0 : permission.hashCode());
+        hash = 31 * hash + priorityBand;
+        mHash = hash;
+    }
+
+    /**
+     * 只有名字的category
+     *
+     * @param name
+     * @return
+     */
+    public static CategoryKey of(String name) {
+        return of(name, null, null);
+    }
+
+    /**
+     * @param name category的名字
+     * @param schemes Listener指定的scheme，可以为null。不会修改传入的列表，顺序不影响结果
+     * @param permission Listener指定的permission，可以为null
+     * @return
+     */
+    public static CategoryKey of(String name, List<String> schemes, String permission) {
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("category must has a name");
+        }
+        return new CategoryKey(name, sorted(schemes), Collections.<String>emptyList(),
+                TextUtils.isEmpty(permission) ? null : permission, 0);
+    }
+
+    private static List<String> sorted(List<String> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ArrayList<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * 相同名字、scheme和permission，属于另一个优先级分段的category
+     *
+     * @param priorityBand
+     * @return
+     */
+    CategoryKey withPriorityBand(int priorityBand) {
+        if (priorityBand == mPriorityBand) {
+            return this;
+        }
+        return new CategoryKey(mName, mSchemes, mDataTypes, mPermission, priorityBand);
+    }
+
+    /**
+     * 相同名字、scheme、permission和优先级分段，要求MIME type的category
+     *
+     * @param dataTypes 可以为null，顺序不影响结果
+     * @return
+     */
+    CategoryKey withDataTypes(List<String> dataTypes) {
+        List<String> sortedTypes = sorted(dataTypes);
+        if (sortedTypes.equals(mDataTypes)) {
+            return this;
+        }
+        return new CategoryKey(mName, mSchemes, sortedTypes, mPermission, mPriorityBand);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<String> getSchemes() {
+        return mSchemes;
+    }
+
+    public List<String> getDataTypes() {
+        return mDataTypes;
+    }
+
+    public String getPermission() {
+        return mPermission;
+    }
+
+    /**
+     * @return 优先级分段，0表示最低的分段
+     */
+    public int getPriorityBand() {
+        return mPriorityBand;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CategoryKey)) return false;
+        CategoryKey that = (CategoryKey) o;
+        return mHash == that.mHash && mPriorityBand == that.mPriorityBand &&
+                mName.equals(that.mName) &&
+                mSchemes.equals(that.mSchemes) &&
+                mDataTypes.equals(that.mDataTypes) &&
+                TextUtils.equals(mPermission, that.mPermission);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    /**
+     * 格式为 name[:scheme1,scheme2][;type1,type2][@permission][#band]，用于日志和category线程的名字
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        String label = mLabel;
+        if (label == null) {
+            StringBuilder sb = new StringBuilder(mName);
+            if (!mSchemes.isEmpty()) {
+                sb.append(':').append(TextUtils.join(",", mSchemes));
+            }
+            if (!mDataTypes.isEmpty()) {
+                sb.append(';').append(TextUtils.join(",", mDataTypes));
+            }
+            if (mPermission != null) {
+                sb.append('@').append(mPermission);
+            }
+            if (mPriorityBand != 0) {
+                sb.append('#').append(mPriorityBand);
+            }
+            label = sb.toString();
+            mLabel = label;
+        }
+        return label;
+    }
+}
@@ -0,0 +1,40 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+/**
+ * 默认的ReceiverRegistrar，通过Context把receiver注册到系统中
+ */
+final class ContextReceiverRegistrar implements ReceiverRegistrar {
+
+    private final Context mContext;
+
+    ContextReceiverRegistrar(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                   String permission, Handler scheduler) {
+        return mContext.registerReceiver(receiver, filter, permission, scheduler);
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        mContext.unregisterReceiver(receiver);
+    }
+
+    @Override
+    public Handler newCategoryHandler(String category) {
+        return BroadcastDispatcher.newCategoryHandler(category);
+    }
+
+    @Override
+    public Handler receiverHandler() {
+        return BroadcastDispatcher.receiverHandler();
+    }
+}
@@ -0,0 +1,292 @@
+package com.qiku.broadcasts;
+
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * CategoryReceiver分发广播时使用的不可变快照。
+ *
+ * 注册/反注册Listener时在锁内构建新的快照，然后整体替换；onReceive只读取快照，不需要加锁，
+ * 所以在任意线程注册/反注册Listener都不会影响正在进行的分发，分发也不会被注册阻塞。
+ * 快照一旦发布就不再修改。
+ */
+final class DispatchSnapshot {
+
+    static final DispatchSnapshot EMPTY =
+            new DispatchSnapshot(new BroadcastBridge.Listener[0],
+                    new ArrayMap<String, BroadcastBridge.Listener[]>(), null, null, null,
+                    new String[0], Collections.<String>emptyList(), null, null);
+
+    /**
+     * 所有Listener，顺序和注册顺序一致
+     */
+    final BroadcastBridge.Listener[] mListeners;
+
+    /**
+     * action到Listener数组的分发表，数组中Listener的顺序和注册顺序一致
+     */
+    private final ArrayMap<String, BroadcastBridge.Listener[]> mDispatchTable;
+
+    /**
+     * 和mDispatchTable中的Listener数组一一对应，每个Listener要求的scheme，不需要scheme的Listener为null。
+     * 只有category中的Listener要求不同的scheme时才创建(比如MergePolicyOptimal)，否则为null，分发时不检查scheme
+     */
+    private final ArrayMap<String, String[][]> mSchemeTable;
+
+    /**
+     * 有Listener声明了BroadcastPredicate的action对应的匹配器，没有任何Listener声明条件时为null
+     */
+    private final ArrayMap<String, PredicateMatcher> mPredicateTable;
+
+    /**
+     * 有Listener声明了authority或者path前缀的action对应的前缀树，没有任何Listener声明时为null
+     */
+    private final ArrayMap<String, UriTrie> mUriTable;
+
+    /**
+     * 所有Listener要求的scheme，排序之后的数组，和IntentFilter中的scheme一致，不需要data时为空数组。
+     * 只在进程内分发时使用，系统投递的广播已经由IntentFilter匹配过
+     */
+    private final String[] mFilterSchemes;
+
+    /**
+     * 所有Listener要求的MIME type，和IntentFilter中的type一致，不需要type时为空列表。
+     * 只在进程内分发时使用
+     */
+    private final List<String> mFilterTypes;
+
+    /**
+     * receiver注册时使用的permission，不需要permission时为null
+     */
+    final String mPermission;
+
+    /**
+     * 当前category独立的HandlerThread，没有创建时为null
+     */
+    final Handler mCategoryHandler;
+
+    private DispatchSnapshot(BroadcastBridge.Listener[] listeners,
+                             ArrayMap<String, BroadcastBridge.Listener[]> dispatchTable,
+                             ArrayMap<String, String[][]> schemeTable,
+                             ArrayMap<String, PredicateMatcher> predicateTable,
+                             ArrayMap<String, UriTrie> uriTable,
+                             String[] filterSchemes, List<String> filterTypes,
+                             String permission, Handler categoryHandler) {
+        mListeners = listeners;
+        mDispatchTable = dispatchTable;
+        mSchemeTable = schemeTable;
+        mPredicateTable = predicateTable;
+        mUriTable = uriTable;
+        mFilterSchemes = filterSchemes;
+        mFilterTypes = filterTypes;
+        mPermission = permission;
+        mCategoryHandler = categoryHandler;
+    }
+
+    /**
+     * 根据当前所有Listener构建快照
+     *
+     * @param listeners 按注册顺序排列的Listener
+     * @param categoryHandler 当前category的Handler
+     * @return
+     */
+    static DispatchSnapshot build(List<BroadcastBridge.Listener> listeners,
+                                  Handler categoryHandler) {
+        ArrayMap<String, ArrayList<BroadcastBridge.Listener>> actionToListeners =
+                new ArrayMap<>();
+        TreeSet<String> filterSchemes = new TreeSet<>();
+        TreeSet<String> filterTypes = new TreeSet<>();
+        String permission = null;
+        for (BroadcastBridge.Listener listener : listeners) {
+            List<String> schemes = listener.getDataSchemes();
+            if (schemes != null) {
+                filterSchemes.addAll(schemes);
+            }
+            List<String> types = listener.getDataTypes();
+            if (types != null) {
+                filterTypes.addAll(types);
+            }
+            if (!TextUtils.isEmpty(listener.getBroadcastPermission())) {
+                permission = listener.getBroadcastPermission();
+            }
+            for (String action : listener.getActionList()) {
+                ArrayList<BroadcastBridge.Listener> list = actionToListeners.get(action);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    actionToListeners.put(action, list);
+                }
+                // 同一个Listener中重复的action只回调一次
+                if (list.isEmpty() || list.get(list.size() - 1) != listener) {
+                    list.add(listener);
+                }
+            }
+        }
+
+        ArrayMap<String, BroadcastBridge.Listener[]> table =
+                new ArrayMap<>(actionToListeners.size());
+        for (int i = 0; i < actionToListeners.size(); i++) {
+            ArrayList<BroadcastBridge.Listener> list = actionToListeners.valueAt(i);
+            table.put(actionToListeners.keyAt(i),
+                    list.toArray(new BroadcastBridge.Listener[list.size()]));
+        }
+
+        return new DispatchSnapshot(
+                listeners.toArray(new BroadcastBridge.Listener[listeners.size()]),
+                table, buildSchemeTable(listeners, table), buildPredicateTable(table),
+                buildUriTable(table), filterSchemes.toArray(new String[filterSchemes.size()]),
+                filterTypes.isEmpty() ? Collections.<String>emptyList() :
+                        new ArrayList<>(filterTypes),
+                permission, categoryHandler);
+    }
+
+    /**
+     * 所有Listener要求的scheme都相同时，IntentFilter已经过滤了广播，返回null
+     */
+    private static ArrayMap<String, String[][]> buildSchemeTable(
+            List<BroadcastBridge.Listener> listeners,
+            ArrayMap<String, BroadcastBridge.Listener[]> table) {
+        ArrayMap<BroadcastBridge.Listener, String[]> listenerSchemes =
+                new ArrayMap<>(listeners.size());
+        TreeSet<String> first = null;
+        boolean mixed = false;
+        for (int i = 0; i < listeners.size(); i++) {
+            BroadcastBridge.Listener listener = listeners.get(i);
+            List<String> schemes = listener.getDataSchemes();
+            TreeSet<String> sorted = schemes == null ? new TreeSet<String>() : new TreeSet<>(schemes);
+            if (first == null) {
+                first = sorted;
+            } else if (!first.equals(sorted)) {
+                mixed = true;
+            }
+            listenerSchemes.put(listener,
+                    sorted.isEmpty() ? null : sorted.toArray(new String[sorted.size()]));
+        }
+        if (!mixed) {
+            return null;
+        }
+
+        ArrayMap<String, String[][]> schemeTable = new ArrayMap<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            BroadcastBridge.Listener[] actionListeners = table.valueAt(i);
+            String[][] schemes = new String[actionListeners.length][];
+            for (int j = 0; j < actionListeners.length; j++) {
+                schemes[j] = listenerSchemes.get(actionListeners[j]);
+            }
+            schemeTable.put(table.keyAt(i), schemes);
+        }
+        return schemeTable;
+    }
+
+    /**
+     * 为每个action编译Listener的条件，没有Listener声明条件时返回null
+     */
+    private static ArrayMap<String, PredicateMatcher> buildPredicateTable(
+            ArrayMap<String, BroadcastBridge.Listener[]> table) {
+        ArrayMap<String, PredicateMatcher> predicateTable = null;
+        for (int i = 0; i < table.size(); i++) {
+            PredicateMatcher matcher = PredicateMatcher.build(table.valueAt(i));
+            if (matcher == null) {
+                continue;
+            }
+            if (predicateTable == null) {
+                predicateTable = new ArrayMap<>();
+            }
+            predicateTable.put(table.keyAt(i), matcher);
+        }
+        return predicateTable;
+    }
+
+    /**
+     * 为每个action构建authority和path前缀的前缀树，没有Listener声明时返回null
+     */
+    private static ArrayMap<String, UriTrie> buildUriTable(
+            ArrayMap<String, BroadcastBridge.Listener[]> table) {
+        ArrayMap<String, UriTrie> uriTable = null;
+        for (int i = 0; i < table.size(); i++) {
+            UriTrie trie = UriTrie.build(table.valueAt(i));
+            if (trie == null) {
+                continue;
+            }
+            if (uriTable == null) {
+                uriTable = new ArrayMap<>();
+            }
+            uriTable.put(table.keyAt(i), trie);
+        }
+        return uriTable;
+    }
+
+    /**
+     * 获取监听action的Listener
+     *
+     * @param action
+     * @return 没有Listener监听该action时返回null
+     */
+    BroadcastBridge.Listener[] listenersOf(String action) {
+        return mDispatchTable.get(action);
+    }
+
+    /**
+     * 获取监听action的Listener要求的scheme，和listenersOf返回的数组一一对应
+     *
+     * @param action
+     * @return 不需要检查scheme时返回null
+     */
+    String[][] schemesOf(String action) {
+        return mSchemeTable == null ? null : mSchemeTable.get(action);
+    }
+
+    /**
+     * 获取监听action的Listener的条件匹配器，匹配结果和listenersOf返回的数组一一对应
+     *
+     * @param action
+     * @return 不需要检查条件时返回null
+     */
+    PredicateMatcher predicatesOf(String action) {
+        return mPredicateTable == null ? null : mPredicateTable.get(action);
+    }
+
+    /**
+     * 获取监听action的Listener的authority和path前缀的前缀树，匹配结果和listenersOf返回的数组一一对应
+     *
+     * @param action
+     * @return 不需要检查authority和path时返回null
+     */
+    UriTrie uriTrieOf(String action) {
+        return mUriTable == null ? null : mUriTable.get(action);
+    }
+
+    /**
+     * 按照IntentFilter的规则检查广播的MIME type : IntentFilter中有type时只匹配type相同的广播，
+     * 没有type时只匹配不带type的广播
+     *
+     * @param type 广播的type，不带type时为null
+     * @return
+     */
+    boolean matchesType(String type) {
+        if (mFilterTypes.isEmpty()) {
+            return type == null;
+        }
+        return BroadcastBridgeUtil.matchesDataType(mFilterTypes, type);
+    }
+
+    /**
+     * 按照IntentFilter的规则检查广播中data的scheme : IntentFilter中有scheme时只匹配scheme相同的广播，
+     * 没有scheme时只匹配不带data的广播
+     *
+     * @param scheme 广播中data的scheme，不带data时为null
+     * @return
+     */
+    boolean matchesScheme(String scheme) {
+        if (mFilterSchemes.length == 0) {
+            return scheme == null;
+        }
+        return scheme != null && Arrays.binarySearch(mFilterSchemes, scheme) >= 0;
+    }
+}
@@ -0,0 +1,188 @@
+package com.qiku.broadcasts;
+
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分发统计的全局记录。
+ *
+ * 每个Listener和action的统计对象在注册Listener时创建，分发时只做查找和原子自增，不分配内存。
+ * Listener的统计按getStatsName合并，同一个名字下所有的Listener都反注册之后删除。
+ */
+final class DispatchStats {
+    private DispatchStats() {}
+
+    static final class ListenerStats {
+        final String mName;
+        final LatencyHistogram mCallbackLatency = new LatencyHistogram();
+        final LatencyHistogram mQueueDelay = new LatencyHistogram();
+        final AtomicLong mSlowCount = new AtomicLong();
+
+        /**
+         * 使用该统计对象的已注册Listener数量，在sListenerStats的锁内修改
+         */
+        int mListenerCount;
+
+        ListenerStats(String name) {
+            mName = name;
+        }
+    }
+
+    static final class ActionStats {
+        final String mAction;
+        final AtomicLong mDeliveryCount = new AtomicLong();
+        final LatencyHistogram mCallbackLatency = new LatencyHistogram();
+
+        ActionStats(String action) {
+            mAction = action;
+        }
+    }
+
+    private static volatile boolean sEnabled = true;
+
+    private static volatile long sSlowBudgetNanos;
+
+    private static volatile BroadcastBridge.SlowListenerCallback sSlowCallback;
+
+    private static final ConcurrentHashMap<String, ListenerStats> sListenerStats =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<String, ActionStats> sActionStats =
+            new ConcurrentHashMap<>();
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static void setSlowListenerCallback(long budgetMillis,
+                                        BroadcastBridge.SlowListenerCallback callback) {
+        sSlowBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        sSlowCallback = callback;
+    }
+
+    /**
+     * 注册Listener时调用，提前创建统计对象
+     *
+     * @param listener
+     */
+    static void attach(BroadcastBridge.Listener listener) {
+        String name = listener.getStatsName();
+        synchronized (sListenerStats) {
+            ListenerStats stats = sListenerStats.get(name);
+            if (stats == null) {
+                stats = new ListenerStats(name);
+                sListenerStats.put(name, stats);
+            }
+            stats.mListenerCount++;
+            listener.mStats = stats;
+        }
+
+        for (String action : listener.getActionList()) {
+            actionStats(action);
+        }
+    }
+
+    /**
+     * 反注册Listener时调用，没有其他Listener使用时删除统计对象
+     *
+     * @param listener
+     */
+    static void detach(BroadcastBridge.Listener listener) {
+        synchronized (sListenerStats) {
+            ListenerStats stats = listener.mStats;
+            if (stats == null) {
+                return;
+            }
+            listener.mStats = null;
+            if (--stats.mListenerCount == 0) {
+                sListenerStats.remove(stats.mName, stats);
+            }
+        }
+    }
+
+    private static ActionStats actionStats(String action) {
+        ActionStats stats = sActionStats.get(action);
+        if (stats == null) {
+            ActionStats created = new ActionStats(action);
+            stats = sActionStats.putIfAbsent(action, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * receiver收到广播时调用
+     *
+     * @param action
+     */
+    static void onBroadcast(String action) {
+        if (!sEnabled || action == null) {
+            return;
+        }
+        ActionStats stats = sActionStats.get(action);
+        if (stats != null) {
+            stats.mDeliveryCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Listener回调结束后调用
+     *
+     * @param listener
+     * @param action
+     * @param queueNanos 从receiver收到广播到开始回调的耗时
+     * @param callbackNanos onReceiveBroadcast的耗时
+     */
+    static void onCallback(BroadcastBridge.Listener listener, String action, long queueNanos,
+                           long callbackNanos) {
+        ListenerStats stats = listener.mStats;
+        if (stats != null) {
+            stats.mQueueDelay.recordNanos(queueNanos);
+            stats.mCallbackLatency.recordNanos(callbackNanos);
+        }
+
+        ActionStats actionStats = action == null ? null : sActionStats.get(action);
+        if (actionStats != null) {
+            actionStats.mCallbackLatency.recordNanos(callbackNanos);
+        }
+
+        BroadcastBridge.SlowListenerCallback callback = sSlowCallback;
+        if (callback != null && callbackNanos > sSlowBudgetNanos &&
+                Looper.myLooper() == Looper.getMainLooper()) {
+            if (stats != null) {
+                stats.mSlowCount.incrementAndGet();
+            }
+            callback.onSlowListener(listener, action, callbackNanos);
+        }
+    }
+
+    static BroadcastBridgeStats snapshot() {
+        List<BroadcastBridgeStats.ListenerEntry> listeners = new ArrayList<>();
+        for (Map.Entry<String, ListenerStats> entry : sListenerStats.entrySet()) {
+            ListenerStats stats = entry.getValue();
+            listeners.add(new BroadcastBridgeStats.ListenerEntry(stats.mName,
+                    stats.mCallbackLatency.snapshot(), stats.mQueueDelay.snapshot(),
+                    stats.mSlowCount.get()));
+        }
+
+        List<BroadcastBridgeStats.ActionEntry> actions = new ArrayList<>();
+        for (Map.Entry<String, ActionStats> entry : sActionStats.entrySet()) {
+            ActionStats stats = entry.getValue();
+            actions.add(new BroadcastBridgeStats.ActionEntry(stats.mAction,
+                    stats.mDeliveryCount.get(), stats.mCallbackLatency.snapshot()));
+        }
+        return new BroadcastBridgeStats(listeners, actions);
+    }
+}
@@ -0,0 +1,119 @@
+package com.qiku.broadcasts;
+
+import android.util.ArrayMap;
+
+import java.util.TreeMap;
+
+/**
+ * CategoryReceiver中IntentFilter内容的引用计数，只在持有MergePolicyBase锁时访问。
+ *
+ * 记录每个action和scheme被多少个Listener使用，以及每个优先级有多少个Listener。
+ * 添加或删除一个Listener时只需要更新它自己的action、scheme和优先级，
+ * 计数从0变为1或者从1变为0的项就是IntentFilter需要的最小变化，不需要遍历其他Listener。
+ * MergePolicyBase也用它记录每个action在多少个receiver的IntentFilter中。
+ */
+final class FilterRefCounts {
+
+    private final ArrayMap<String, Integer> mActions = new ArrayMap<>();
+
+    private final ArrayMap<String, Integer> mSchemes = new ArrayMap<>();
+
+    /**
+     * 优先级 -> Listener数量，只在不使用优先级分段时记录
+     */
+    private final TreeMap<Integer, Integer> mPriorities = new TreeMap<>();
+
+    /**
+     * 在主线程回调的Listener数量
+     */
+    private int mMainThreadListeners;
+
+    /**
+     * @return action是否是第一次添加，需要加入IntentFilter
+     */
+    boolean addAction(String action) {
+        return increment(mActions, action);
+    }
+
+    /**
+     * @return action是否已经没有Listener使用，需要从IntentFilter中删除
+     */
+    boolean removeAction(String action) {
+        return decrement(mActions, action);
+    }
+
+    boolean hasAction(String action) {
+        return mActions.containsKey(action);
+    }
+
+    boolean addScheme(String scheme) {
+        return increment(mSchemes, scheme);
+    }
+
+    boolean removeScheme(String scheme) {
+        return decrement(mSchemes, scheme);
+    }
+
+    void addPriority(int priority) {
+        Integer count = mPriorities.get(priority);
+        mPriorities.put(priority, count == null ? 1 : count + 1);
+    }
+
+    void removePriority(int priority) {
+        Integer count = mPriorities.get(priority);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            mPriorities.remove(priority);
+        } else {
+            mPriorities.put(priority, count - 1);
+        }
+    }
+
+    /**
+     * @param defaultPriority 没有记录任何优先级时的返回值
+     * @return 所有Listener优先级的最大值
+     */
+    int maxPriority(int defaultPriority) {
+        return mPriorities.isEmpty() ? defaultPriority : mPriorities.lastKey();
+    }
+
+    void addMainThreadListener() {
+        mMainThreadListeners++;
+    }
+
+    void removeMainThreadListener() {
+        mMainThreadListeners--;
+    }
+
+    boolean hasMainThreadListener() {
+        return mMainThreadListeners > 0;
+    }
+
+    void clear() {
+        mActions.clear();
+        mSchemes.clear();
+        mPriorities.clear();
+        mMainThreadListeners = 0;
+    }
+
+    private static boolean increment(ArrayMap<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+        return count == null;
+    }
+
+    private static boolean decrement(ArrayMap<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(key);
+            return true;
+        }
+        counts.put(key, count - 1);
+        return false;
+    }
+}
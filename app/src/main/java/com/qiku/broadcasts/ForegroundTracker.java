@@ -0,0 +1,74 @@
+package com.qiku.broadcasts;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+
+/**
+ * 根据已经启动的Activity数量判断App是否在前台，切换时调用BroadcastBridge.setInBackground。
+ *
+ * 最后一个Activity停止之后等待BACKGROUND_DELAY_MILLIS再进入后台，
+ * 屏幕旋转、Activity之间跳转等短时间内停止再启动的情况不会切换。
+ * 所有回调都在主线程中
+ */
+final class ForegroundTracker implements Application.ActivityLifecycleCallbacks {
+
+    static final long BACKGROUND_DELAY_MILLIS = 700;
+
+    private final BroadcastBridge mBridge;
+
+    private final Handler mHandler = BroadcastDispatcher.mainHandler();
+
+    private final Runnable mEnterBackgroundRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mBridge.setInBackground(true);
+        }
+    };
+
+    private int mStartedActivities;
+
+    ForegroundTracker(BroadcastBridge bridge) {
+        mBridge = bridge;
+    }
+
+    void cancel() {
+        mHandler.removeCallbacks(mEnterBackgroundRunnable);
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        if (mStartedActivities++ == 0) {
+            cancel();
+            mBridge.setInBackground(false);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (mStartedActivities > 0 && --mStartedActivities == 0) {
+            mHandler.postDelayed(mEnterBackgroundRunnable, BACKGROUND_DELAY_MILLIS);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -1,5 +1,7 @@
 package com.qiku.broadcasts;
 
+import android.content.Intent;
+
 public interface IMergePolicy {
 
     /**
@@ -25,6 +27,25 @@ public interface IMergePolicy {
      */
     boolean unregisterListener(BroadcastBridge.Listener listener);
 
+    /**
+     * 获取sticky action最近一次的广播，不会产生binder调用
+     *
+     * @param action
+     * @return 没有监听该action或者该action不是sticky广播时返回null
+     */
+    Intent getLastIntent(String action);
+
+    /**
+     * 开始批量注册/反注册，在commitBatch之前IntentFilter的变化只记录下来，不会立即重新注册receiver。
+     * 可以嵌套调用，最外层的commitBatch才会真正注册
+     */
+    void beginBatch();
+
+    /**
+     * 结束批量注册/反注册，每个变化了的receiver最多重新注册一次，不再使用的receiver被反注册
+     */
+    void commitBatch();
+
     /**
      * 当前MergePolicy是否支持在Listener中指定scheme
      *
@@ -39,10 +60,11 @@ public interface IMergePolicy {
     boolean isPermissionSupported();
 
     /**
-     * 为每个Listener指定分类，相同分类的Listener会合并到同一个Receiver中
+     * 为每个Listener指定分类，相同分类的Listener会合并到同一个Receiver中。
+     * MergePolicyBase对每个Listener只调用一次，结果缓存在Listener中
      *
      * @param listener
      * @return
      */
-    String getActionCategory(BroadcastBridge.Listener listener);
+    CategoryKey getActionCategory(BroadcastBridge.Listener listener);
 }
@@ -0,0 +1,82 @@
+package com.qiku.broadcasts;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录耗时分布的直方图，单位为微秒。
+ *
+ * 采用和HdrHistogram类似的对数-线性分桶：小于16us时每1us一个桶，之后每个2的幂区间分为8个桶，
+ * 相对误差不超过12.5%。所有桶在创建时分配好，记录时只做原子自增，不会分配内存，可以在多个线程中同时记录。
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 最大可以记录2^40us(约12天)，超过的值记录在最后一个桶中
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKET_COUNT =
+            LINEAR_BUCKETS + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        long micros = nanos < 0 ? 0 : nanos / 1000;
+        mBuckets.incrementAndGet(bucketOf(micros));
+        mCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+
+        long max = mMaxMicros.get();
+        while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶的上界(不包含)，用于计算百分位
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (long) (SUB_BUCKETS + sub + 1) << shift;
+    }
+
+    /**
+     * 复制当前的数据，复制过程中其他线程的记录可能只有部分被包含
+     *
+     * @return
+     */
+    BroadcastBridgeStats.Latency snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new BroadcastBridgeStats.Latency(buckets, mCount.get(), mTotalMicros.get(),
+                mMaxMicros.get());
+    }
+}
@@ -0,0 +1,171 @@
+package com.qiku.broadcasts;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 一组和某个对象(Activity、Service或者自定义的对象)生命周期绑定的Listener。
+ *
+ * start之后Listener正常回调；stop之后暂停回调，没有其他活动Listener的action在一段时间之后从receiver中删除，
+ * 屏幕旋转等短时间内停止再启动的情况不会重新注册；destroy时反注册所有Listener。
+ * 新创建的ListenerScope处于停止状态，在停止状态下添加的Listener注册时不会加入它的action。
+ *
+ * Activity可以使用forActivity，由Activity的生命周期自动调用start、stop和destroy；
+ * Service或者自定义的对象需要自己调用，比如Service在onCreate中start，在onDestroy中destroy。
+ * 通过ListenerScope添加的Listener不需要再调用BroadcastBridge.unregisterListener
+ */
+public class ListenerScope {
+
+    private final BroadcastBridge mBridge;
+
+    private final ArrayList<BroadcastBridge.Listener> mListeners = new ArrayList<>();
+
+    private boolean mStarted;
+
+    private boolean mDestroyed;
+
+    public ListenerScope() {
+        this(BroadcastBridge.getInstance());
+    }
+
+    ListenerScope(BroadcastBridge bridge) {
+        mBridge = bridge;
+    }
+
+    /**
+     * 创建和Activity生命周期绑定的ListenerScope，需要在Activity的onCreate中调用
+     *
+     * @param activity
+     * @return
+     */
+    public static ListenerScope forActivity(final Activity activity) {
+        final ListenerScope scope = new ListenerScope();
+        final Application application = activity.getApplication();
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity a, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity a) {
+                if (a == activity) {
+                    scope.start();
+                }
+            }
+
+            @Override
+            public void onActivityResumed(Activity a) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity a) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity a) {
+                if (a == activity) {
+                    scope.stop();
+                }
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity a, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity a) {
+                if (a == activity) {
+                    scope.destroy();
+                    application.unregisterActivityLifecycleCallbacks(this);
+                }
+            }
+        });
+        return scope;
+    }
+
+    /**
+     * 添加并注册Listener，停止状态下添加的Listener在start之后才回调
+     *
+     * @param listeners
+     * @return 是否所有Listener都注册成功
+     */
+    public synchronized boolean add(BroadcastBridge.Listener... listeners) {
+        return addAll(Arrays.asList(listeners));
+    }
+
+    public synchronized boolean addAll(Collection<? extends BroadcastBridge.Listener> listeners) {
+        if (mDestroyed) {
+            throw new IllegalStateException("ListenerScope has been destroyed");
+        }
+        if (!mStarted) {
+            mBridge.setListenersPaused(listeners, true);
+        }
+        mListeners.addAll(listeners);
+        return mBridge.registerListeners(listeners);
+    }
+
+    /**
+     * 反注册Listener，并从当前ListenerScope中删除
+     *
+     * @param listener
+     * @return
+     */
+    public synchronized boolean remove(BroadcastBridge.Listener listener) {
+        if (!mListeners.remove(listener)) {
+            return false;
+        }
+        return mBridge.unregisterListener(listener);
+    }
+
+    /**
+     * 恢复所有Listener的回调，在删除action之前启动不需要重新注册
+     */
+    public synchronized void start() {
+        if (mStarted || mDestroyed) {
+            return;
+        }
+        mStarted = true;
+        mBridge.setListenersPaused(mListeners, false);
+    }
+
+    /**
+     * 暂停所有Listener的回调
+     */
+    public synchronized void stop() {
+        if (!mStarted || mDestroyed) {
+            return;
+        }
+        mStarted = false;
+        mBridge.setListenersPaused(mListeners, true);
+    }
+
+    /**
+     * 反注册所有Listener，之后不能再添加Listener
+     */
+    public synchronized void destroy() {
+        if (mDestroyed) {
+            return;
+        }
+        mDestroyed = true;
+        mStarted = false;
+        mBridge.unregisterListeners(mListeners);
+        mListeners.clear();
+    }
+
+    public synchronized boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * @return 当前ListenerScope中的Listener
+     */
+    public synchronized Collection<BroadcastBridge.Listener> getListeners() {
+        return Collections.unmodifiableList(new ArrayList<>(mListeners));
+    }
+}
@@ -1,16 +1,16 @@
 package com.qiku.broadcasts;
 
 import android.content.Context;
-import android.util.ArrayMap;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 /**
  * 该Policy为系统中的常用广播进行了默认分类(category)，如PACKAGE_ADD属于package这个category,
  * SCREEN_ON属于keyguard这个category。
  *
+ * 分类定义在src/main/categories下的配置文件中，构建时生成ActionCategoryTable，
+ * App增加自己的分类时只需要增加配置文件，不需要修改代码。
+ *
  * 每个category对应一个Receiver。
  *
  * 在使用该Policy时，按照预先定义的分类合并Listener中的action，
@@ -18,118 +18,20 @@ import java.util.List;
  */
 public class MergePolicyAuto extends MergePolicyBase {
 
-    static class Category {
-        private String mName;
-        private List<String> mCategoryActions;
-
-        Category(String name, List<String> categoryActions) {
-            mName = name;
-            mCategoryActions = categoryActions;
-        }
-
-        String getName() {
-            return mName;
-        }
-
-        List<String> getCategoryActions() {
-            return mCategoryActions;
-        }
-
-        @Override
-        public String toString() {
-            return "Category{" +
-                    "mName='" + mName + '\'' +
-                    '}';
-        }
-    }
-
-    private ArrayList<String> mKeyguardActions = new ArrayList<String>() {
-        {
-            add("android.intent.action.SCREEN_ON");
-            add("android.intent.action.SCREEN_OFF");
-            add("android.intent.action.USER_PRESENT");
-        }
-    };
-
-    private ArrayList<String> mPackageActions = new ArrayList<String>() {
-        {
-            add("android.intent.action.PACKAGE_ADDED");
-            add("android.intent.action.PACKAGE_REPLACED");
-            add("android.intent.action.PACKAGE_REMOVED");
-        }
-    };
-
-
-    private ArrayList<String> mNetActions = new ArrayList<String>() {
-        {
-            add("android.net.conn.CONNECTIVITY_CHANGE");
-        }
-    };
-
-    private ArrayList<String> mBatteryActions = new ArrayList<String>() {
-        {
-            add("android.intent.action.BATTERY_CHANGED");
-            add("android.intent.action.BATTERY_LOW");
-            add("android.intent.action.BATTERY_OKAY");
-        }
-    };
-
-    private ArrayList<String> mPowerActions = new ArrayList<String>() {
-        {
-            add("android.intent.action.ACTION_POWER_CONNECTED");
-            add("android.intent.action.ACTION_POWER_DISCONNECTED");
-        }
-    };
-
-    private ArrayList<String> mTimeActions = new ArrayList<String>() {
-        {
-            add("android.intent.action.TIME_TICK");
-            add("android.intent.action.TIME_SET");
-            add("android.intent.action.DATE_CHANGED");
-            add("android.intent.action.TIMEZONE_CHANGED");
-        }
-    };
-
-    private Category mKeyguardCategory = new Category("keyguard", mKeyguardActions);
-    private Category mPackageCategory = new Category("package", mPackageActions);
-    private Category mNetCategory = new Category("net", mNetActions);
-    private Category mBatteryCategory = new Category("battery", mBatteryActions);
-    private Category mPowerCategory = new Category("power", mPowerActions);
-    private Category mTimeCategory = new Category("time", mTimeActions);
-
-
-    private ArrayMap<String, Category> mActionsToCategory = new ArrayMap<>();
-
-    {
-        mActionsToCategory.put("android.intent.action.SCREEN_ON", mKeyguardCategory);
-        mActionsToCategory.put("android.intent.action.SCREEN_OFF", mKeyguardCategory);
-        mActionsToCategory.put("android.intent.action.USER_PRESENT", mKeyguardCategory);
-
-        mActionsToCategory.put("android.intent.action.PACKAGE_ADDED", mPackageCategory);
-        mActionsToCategory.put("android.intent.action.PACKAGE_REPLACED", mPackageCategory);
-        mActionsToCategory.put("android.intent.action.PACKAGE_REMOVED", mPackageCategory);
-        mActionsToCategory.put("android.intent.action.PACKAGE_CHANGED", mPackageCategory);
-
-        mActionsToCategory.put("android.net.conn.CONNECTIVITY_CHANGE", mNetCategory);
-
-        mActionsToCategory.put("android.intent.action.BATTERY_CHANGED", mBatteryCategory);
-        mActionsToCategory.put("android.intent.action.BATTERY_LOW", mBatteryCategory);
-        mActionsToCategory.put("android.intent.action.BATTERY_OKAY", mBatteryCategory);
-
-        mActionsToCategory.put("android.intent.action.ACTION_POWER_CONNECTED", mPowerCategory);
-        mActionsToCategory.put("android.intent.action.ACTION_POWER_DISCONNECTED", mPowerCategory);
-
-        mActionsToCategory.put("android.intent.action.TIME_TICK", mTimeCategory);
-        mActionsToCategory.put("android.intent.action.TIME_SET", mTimeCategory);
-        mActionsToCategory.put("android.intent.action.DATE_CHANGED", mTimeCategory);
-        mActionsToCategory.put("android.intent.action.TIMEZONE_CHANGED", mTimeCategory);
-    }
-
+    /**
+     * 每个预置category对应的CategoryKey，下标和ActionCategoryTable.CATEGORIES相同，第一次使用时创建
+     */
+    private static final CategoryKey[] PRESET_KEYS =
+            new CategoryKey[ActionCategoryTable.CATEGORIES.length];
 
     public MergePolicyAuto(Context context, String name) {
         super(context, name);
     }
 
+    public MergePolicyAuto(Context context, ReceiverRegistrar registrar, String name) {
+        super(context, registrar, name);
+    }
+
 
     /**
      * 当前MergePolicy的分类方法
@@ -138,26 +40,53 @@ public class MergePolicyAuto extends MergePolicyBase {
      * @return
      */
     @Override
-    public String getActionCategory(BroadcastBridge.Listener listener) {
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
 
-        HashSet<String> temp = new HashSet<>();
-        for (String action : listener.getActionList()) {
-            Category category = mActionsToCategory.get(action);
-            if (category != null) {
-                temp.add(category.getName());
-            } else {
-                // 如果action不在预设的category中，那么这个action作为一个category
-                temp.add(action);
-            }
+        // OnBroadcast生成的Listener在编译时已经按照相同的配置文件计算好category
+        CategoryKey preset = listener.getAutoCategory();
+        if (preset != null) {
+            return preset;
         }
 
-        if (temp.size() > 1) {
+        List<String> actions = listener.getActionList();
+        String categoryName = categoryNameOf(actions);
+        if (categoryName == null) {
             // listener中的action属于不同的category
             throw new IllegalArgumentException("Actions " + listener.getActionList() +
                     " in listener " + listener);
         }
 
-        return temp.iterator().next();
+        int presetIndex = ActionCategoryTable.getCategoryIndex(actions.get(0));
+        if (presetIndex < 0) {
+            return CategoryKey.of(categoryName);
+        }
+        CategoryKey key = PRESET_KEYS[presetIndex];
+        if (key == null) {
+            // CategoryKey不可变，多个线程同时创建也没有问题
+            key = CategoryKey.of(categoryName);
+            PRESET_KEYS[presetIndex] = key;
+        }
+        return key;
+    }
+
+    /**
+     * @param actions
+     * @return 所有action所属的category的名字，action属于不同的category时返回null
+     */
+    static String categoryNameOf(List<String> actions) {
+        String categoryName = null;
+        for (int i = 0; i < actions.size(); i++) {
+            String action = actions.get(i);
+            int index = ActionCategoryTable.getCategoryIndex(action);
+            // 如果action不在预设的category中，那么这个action作为一个category
+            String name = index >= 0 ? ActionCategoryTable.CATEGORIES[index] : action;
+            if (categoryName == null) {
+                categoryName = name;
+            } else if (!categoryName.equals(name)) {
+                return null;
+            }
+        }
+        return categoryName;
     }
 
     /**
@@ -4,15 +4,29 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 各个MergePolicy的基类，所有Policy都是从该类继承。
  * Broadcast中提供几种预置的Policy，如果不满足App的需求，App可以继承该类实现自定义的Policy。
+ *
+ * 注册/反注册在当前对象的锁内执行，可以在任意线程调用；
+ * 分发广播只读取每个CategoryReceiver发布的不可变快照，不需要加锁。
+ * sendLocal使用相同的快照在进程内分发，不经过系统。
  */
 public abstract class MergePolicyBase implements IMergePolicy {
 
@@ -22,16 +36,99 @@ public abstract class MergePolicyBase implements IMergePolicy {
      */
     public class CategoryReceiver extends BroadcastReceiver {
 
-        private IntentFilter mFilter = new IntentFilter();
+        private IntentFilter mFilter;
 
-        private String mCategory;
+        private final CategoryKey mCategory;
+
+        /**
+         * category的字符串形式，用于日志和category线程的名字
+         */
+        private final String mTag;
 
         private String mPermission;
 
+        /**
+         * IntentFilter中action、scheme和优先级的引用计数
+         */
+        private final FilterRefCounts mCounts = new FilterRefCounts();
+
+        /**
+         * 所有Listener，只在持有MergePolicyBase锁时访问，分发时使用mSnapshot
+         */
         private ArrayList<BroadcastBridge.Listener> mListeners = new ArrayList<>();
 
-        CategoryReceiver(String category) {
+        /**
+         * 分发广播时使用的不可变快照，注册/反注册Listener后整体替换。
+         * onReceive只读取该字段，不需要加锁
+         */
+        private volatile DispatchSnapshot mSnapshot = DispatchSnapshot.EMPTY;
+
+        /**
+         * 当前category独立的HandlerThread，注册第一个CATEGORY_THREAD的Listener时创建
+         */
+        private Handler mCategoryHandler;
+
+        /**
+         * 注册receiver时使用的scheduler，为null时在主线程接收广播
+         */
+        private Handler mScheduler;
+
+        /**
+         * 当前receiver是否已经注册到系统中
+         */
+        private boolean mRegistered;
+
+        /**
+         * 批量注册过程中，IntentFilter已经变化但还没有重新注册
+         */
+        private boolean mPendingRegister;
+
+        /**
+         * 批量注册过程中，Listener已经变化但还没有发布新的快照
+         */
+        private boolean mPendingSnapshot;
+
+        /**
+         * 由于Listener暂停而没有活动Listener的action，仍然在IntentFilter中，
+         * 在removePausedActions时删除，之前有Listener恢复时直接保留。
+         * 进入后台时立即删除
+         */
+        private final HashSet<String> mPausedActions = new HashSet<>();
+
+        /**
+         * 所有Listener都已经删除，但是还有等待删除的暂停action，receiver保持注册直到removePausedActions。
+         * 这期间添加的Listener(比如屏幕旋转后重建的Activity)直接使用当前的IntentFilter，不需要重新注册
+         */
+        private boolean mLingering;
+
+        CategoryReceiver(CategoryKey category) {
             mCategory = category;
+            mTag = String.valueOf(category);
+            mFilter = newFilter();
+        }
+
+        /**
+         * 使用优先级分段时，receiver的优先级固定为分段的优先级，分段内Listener的优先级变化不需要重新注册
+         */
+        private IntentFilter newFilter() {
+            IntentFilter filter = new IntentFilter();
+            if (isPriorityBanded()) {
+                filter.setPriority(bandPriority(mCategory.getPriorityBand()));
+            }
+            // category中所有Listener要求的MIME type都相同，不随Listener变化
+            BroadcastBridgeUtil.addDataTypes(filter, mCategory.getDataTypes());
+            return filter;
+        }
+
+        String getTag() {
+            return mTag;
+        }
+
+        /**
+         * 当前注册使用的IntentFilter，只在测试中使用，不要修改
+         */
+        IntentFilter getFilter() {
+            return mFilter;
         }
 
         /**
@@ -41,33 +138,27 @@ public abstract class MergePolicyBase implements IMergePolicy {
          */
         boolean addListener(BroadcastBridge.Listener listener) {
 
-            BroadcastBridgeLog.i(mCategory, "*** add listener start : " + listener + " <<<");
+            BroadcastBridgeLog.i(mTag, "*** add listener start : %s <<<", listener);
 
             // listener不能注册多次,否则会进行多余的回调
             if (mListeners.contains(listener)) {
-                BroadcastBridgeLog.e(mCategory, "addListener : " + listener +
-                        " can not register twice");
+                BroadcastBridgeLog.e(mTag, "addListener : %s can not register twice", listener);
                 return false;
             }
 
-            //判断当前MergePolicy是否支持scheme
+            //判断当前MergePolicy是否支持scheme，MIME type和scheme一样是IntentFilter中data的一部分
             List<String> schemes = listener.getDataSchemes();
-            if (schemes != null && schemes.size() > 0) {
-                if (isSchemeSupported()) {
-                    for (String scheme : schemes) {
-                        if (!mFilter.hasDataScheme(scheme)) {
-                            mFilter.addDataScheme(scheme);
-                        }
-                    }
-                } else {
-                    String msgErr = "current merge policy " + getMergePolicyName() +
-                            " do not support scheme";
-
+            List<String> types = listener.getDataTypes();
+            if ((schemes != null && schemes.size() > 0) || (types != null && types.size() > 0)) {
+                if (!isSchemeSupported()) {
                     // TODO : 为了调试方便，只打印日志并返回false，在正式代码中最好抛出异常
-                    BroadcastBridgeLog.e(mCategory,  msgErr + ", " + listener + " not added !!!");
+                    BroadcastBridgeLog.e(mTag, "current merge policy %s do not support " +
+                            "scheme, %s not added !!!", getMergePolicyName(), listener);
                     return false;
 
-                    /*throw new IllegalArgumentException(msgErr + " for listener " + listener
+                    /*String msgErr = "current merge policy " + getMergePolicyName() +
+                            " do not support scheme";
+                    throw new IllegalArgumentException(msgErr + " for listener " + listener
                             + ", please select other merge policy or implement by yourself !" );*/
                 }
             }
@@ -79,49 +170,158 @@ public abstract class MergePolicyBase implements IMergePolicy {
                     mPermission = permission;
                 } else {
                     // TODO : 为了调试方便，只打印日志并返回false，在正式代码中最好抛出异常
-                    String msgErr = "current merge policy " + getMergePolicyName() +
-                            " do not support permission";
-                    BroadcastBridgeLog.e(mCategory,  msgErr + ", " + listener + " not added !!!");
+                    BroadcastBridgeLog.e(mTag, "current merge policy %s do not support " +
+                            "permission, %s not added !!!", getMergePolicyName(), listener);
                     return false;
 
-                    /*throw new IllegalArgumentException(msgErr + " for listener " + listener
+                    /*String msgErr = "current merge policy " + getMergePolicyName() +
+                            " do not support permission";
+                    throw new IllegalArgumentException(msgErr + " for listener " + listener
                             + ", please select other merge policy or implement by yourself !" );*/
                 }
             }
 
+            // 后台注册的NORMAL Listener和其他Listener一样暂停，回到前台时恢复
+            if (mBackground && listener.getCriticality() ==
+                    BroadcastBridge.Listener.Criticality.NORMAL) {
+                listener.mPauseFlags |= BroadcastBridge.Listener.PAUSED_BY_BACKGROUND;
+            } else {
+                listener.mPauseFlags &= ~BroadcastBridge.Listener.PAUSED_BY_BACKGROUND;
+            }
             mListeners.add(listener);
+            DispatchStats.attach(listener);
+            if (listener.getConflateWindowMillis() > 0) {
+                listener.mConflater = new BroadcastConflater(listener,
+                        listener.getConflateWindowMillis());
+            }
 
             boolean registerAgain = false;
 
-            // 监听的action已经变化，需要重新注册
-            for (String action : listener.getActionList()) {
-                if (!mFilter.hasAction(action)) {
-                    BroadcastBridgeLog.i(mCategory, "addListener : " +
-                            "receiver will add new action " + action);
-                    mFilter.addAction(action);
+            if (mLingering) {
+                mLingering = false;
+                if (!BroadcastBridgeUtil.hasSameDataSchemes(mFilter, schemes)) {
+                    // IntentFilter中的scheme和新的Listener不一致，重新构建
+                    resetFilter();
+                    mPausedActions.clear();
                     registerAgain = true;
                 }
             }
 
-            // 广播优先级已经改变，需要重新注册
-            // Receiver的广播优先级是所有Listener中指定的优先级的最大值
-            if (mFilter.getPriority() < listener.getPriority()) {
-                BroadcastBridgeLog.i(mCategory, "addListener : receiver " +
-                        "priority changed from " + mFilter.getPriority() +
-                        " to " + listener.getPriority());
-                mFilter.setPriority(listener.getPriority());
+            // 已经在IntentFilter中的action，如果receiver不需要重新注册，系统不会再投递sticky广播，
+            // Listener需要时从缓存中补发最近一次的sticky广播
+            ArrayList<Intent> stickyReplay = null;
+
+            // 只有计数从0变为1的action和scheme需要加入IntentFilter，然后重新注册。
+            // 暂停的Listener不计入action，恢复时再加入
+            List<String> actions = listener.mPauseFlags != 0 ? Collections.<String>emptyList() :
+                    listener.getActionList();
+            for (int i = 0; i < actions.size(); i++) {
+                String action = actions.get(i);
+                if (mCounts.addAction(action) && !mPausedActions.remove(action)) {
+                    if (isLocalAction(action)) {
+                        // 进程内的action只通过sendLocal分发，不需要注册到系统中
+                        BroadcastBridgeLog.i(mTag,
+                                "addListener : local action %s not added to filter", action);
+                    } else {
+                        BroadcastBridgeLog.i(mTag,
+                                "addListener : receiver will add new action %s", action);
+                        addFilterAction(action);
+                        registerAgain = true;
+                    }
+                } else if (listener.isStickyReplayEnabled()) {
+                    Intent sticky = mStickyIntents.get(action);
+                    if (sticky != null) {
+                        if (stickyReplay == null) {
+                            stickyReplay = new ArrayList<>();
+                        }
+                        stickyReplay.add(sticky);
+                    }
+                }
+            }
+
+            if (schemes != null) {
+                for (int i = 0; i < schemes.size(); i++) {
+                    String scheme = schemes.get(i);
+                    if (mCounts.addScheme(scheme) && !mFilter.hasDataScheme(scheme)) {
+                        BroadcastBridgeLog.i(mTag,
+                                "addListener : receiver will add new scheme %s", scheme);
+                        mFilter.addDataScheme(scheme);
+                        registerAgain = true;
+                    }
+                }
+            }
+
+            if (listener.getThreadMode() == BroadcastBridge.Listener.ThreadMode.MAIN) {
+                mCounts.addMainThreadListener();
+            } else if (listener.getThreadMode() ==
+                    BroadcastBridge.Listener.ThreadMode.CATEGORY_THREAD) {
+                getCategoryHandler();
+            }
+
+            // 接收广播的线程已经改变，需要重新注册
+            if (updateScheduler()) {
                 registerAgain = true;
             }
 
+            // 在重新注册之前发布新的快照，保证receiver收到广播时能看到新的Listener。
+            // 批量注册过程中在commitBatch时发布，先于重新注册
+            publishSnapshot();
+
+            // 没有使用优先级分段时，Receiver的广播优先级是所有Listener中指定的优先级的最大值，
+            // 广播优先级已经改变，需要重新注册
+            if (!isPriorityBanded()) {
+                mCounts.addPriority(listener.getPriority());
+                if (updatePriority("addListener")) {
+                    registerAgain = true;
+                }
+            }
+
             if (registerAgain) {
-                BroadcastBridgeLog.i(mCategory, "addListener : receiver " +
-                        "should be registered again");
+                BroadcastBridgeLog.i(mTag, "addListener : receiver should be registered again");
                 registerAgain();
             }
-            BroadcastBridgeLog.i(mCategory, "*** add listener end  : " + listener + " <<<");
+
+            // 重新注册时系统会把匹配的sticky广播重新投递给receiver，不需要再补发，否则会回调两次。
+            // 批量注册过程中在commitBatch时重新注册
+            if (stickyReplay != null && !registerAgain && !mPendingRegister) {
+                postStickyReplay(listener, stickyReplay);
+            }
+            BroadcastBridgeLog.i(mTag, "*** add listener end  : %s <<<", listener);
            return true;
         }
 
+        /**
+         * 补发缓存的sticky广播。addListener在BroadcastBridge和Policy的锁内执行，
+         * POSTING的Listener(比如RelayListener)直接回调会在持有锁时执行App的代码，
+         * 所以和系统投递一样在接收广播的线程中补发
+         */
+        private void postStickyReplay(final BroadcastBridge.Listener listener,
+                                      final ArrayList<Intent> stickyReplay) {
+            final Handler categoryHandler = mCategoryHandler;
+            Handler handler = mScheduler != null ? mScheduler : BroadcastDispatcher.mainHandler();
+            handler.post(() -> {
+                synchronized (MergePolicyBase.this) {
+                    // 补发之前Listener可能已经反注册
+                    int index = mListeners.indexOf(listener);
+                    if (index < 0 || mListeners.get(index) != listener) {
+                        return;
+                    }
+                }
+                long now = System.nanoTime();
+                PredicateMatcher matcher = PredicateMatcher.build(
+                        new BroadcastBridge.Listener[]{listener});
+                for (Intent sticky : stickyReplay) {
+                    if (matcher != null && !matcher.accepts(0, sticky)) {
+                        continue;
+                    }
+                    BroadcastBridgeLog.i(mTag, "addListener : replay sticky %s to %s",
+                            sticky.getAction(), listener);
+                    BroadcastDispatcher.deliver(listener, sticky,
+                            BroadcastPayloads.newScope(sticky), categoryHandler, now);
+                }
+            });
+        }
+
         /**
          * 从当前Receiver中删除一个Listener
          * 如果删除Listener会影响当前Receiver监听的action和广播优先级，则会重新注册
@@ -131,19 +331,43 @@ public abstract class MergePolicyBase implements IMergePolicy {
          */
         boolean removeListener(BroadcastBridge.Listener listener) {
 
-            BroadcastBridgeLog.i(mCategory, "*** remove listener start : " + listener + " <<<");
+            BroadcastBridgeLog.i(mTag, "*** remove listener start : %s <<<", listener);
 
-            boolean removed = mListeners.remove(listener);
-            if (!removed) {
-                BroadcastBridgeLog.w(mCategory, "removeListener : " + listener +
-                        " has not registered, no need to remove");
+            int index = mListeners.indexOf(listener);
+            if (index < 0) {
+                BroadcastBridgeLog.w(mTag,
+                        "removeListener : %s has not registered, no need to remove", listener);
+                return false;
+            }
+            // 反注册时可能传入同名的新对象，使用注册时的对象
+            listener = mListeners.remove(index);
+            DispatchStats.detach(listener);
+            BroadcastBridgeLog.i(mTag, "removeListener : %s removed", listener);
+            boolean paused = listener.mPauseFlags != 0;
+            listener.mPauseFlags = 0;
+            if (listener.mConflater != null) {
+                listener.mConflater.cancel();
+                listener.mConflater = null;
+            }
+            publishSnapshot();
+
+            if (mListeners.size() == 0 && !mPausedActions.isEmpty()) {
+                BroadcastBridgeLog.i(mTag, "removeListener : all listeners removed, " +
+                        "keep receiver until paused actions removed");
+                mCounts.clear();
+                mPausedActions.addAll(BroadcastBridgeUtil.actionsOf(mFilter));
+                mLingering = true;
                 return false;
-            } else {
-                BroadcastBridgeLog.i(mCategory, "removeListener : " + listener + " removed");
             }
 
             if (mListeners.size() == 0) {
-                BroadcastBridgeLog.w(mCategory, "removeListener : all listeners removed");
+                BroadcastBridgeLog.w(mTag, "removeListener : all listeners removed");
+                // 批量注册过程中，当前receiver可能会被再次使用，这里清空IntentFilter,
+                // 避免残留已经删除的Listener的action
+                resetFilter();
+                mCounts.clear();
+                mPausedActions.clear();
+                mPermission = null;
                 return true;
             }
 
@@ -152,85 +376,379 @@ public abstract class MergePolicyBase implements IMergePolicy {
 
             // 如果其他listener没有监听被删除的listener的action，则将action从IntentFilter中删除,
             // 然后重新注册receiver,这样可以避免系统投递不必要的广播
-            for (String actionOfRemovedListener : listener.getActionList()) {
-                boolean shouldRemoveFromIntentFilter = true;
-                for (BroadcastBridge.Listener remainListener : mListeners) {
-                    if (remainListener.getActionList().contains(actionOfRemovedListener)) {
-                        shouldRemoveFromIntentFilter = false;
-                        break;
-                    }
-                }
-                if (shouldRemoveFromIntentFilter) {
-                    BroadcastBridgeUtil.removeAction(mFilter, actionOfRemovedListener);
+            // 只需要更新被删除的listener自己的action计数，不遍历其他listener
+            // 暂停的Listener的action已经不在计数中
+            List<String> removedActions = paused ? Collections.<String>emptyList() :
+                    listener.getActionList();
+            for (int i = 0; i < removedActions.size(); i++) {
+                String actionOfRemovedListener = removedActions.get(i);
+                if (mCounts.removeAction(actionOfRemovedListener) &&
+                        !isLocalAction(actionOfRemovedListener)) {
+                    removeFilterAction(actionOfRemovedListener);
                     shouldRegisterAgain = true;
-                    BroadcastBridgeLog.w(mCategory, "removeListener : remove action " +
+                    BroadcastBridgeLog.w(mTag, "removeListener : remove action %s",
                             actionOfRemovedListener);
                 }
             }
 
-            //判断是否需要改变优先级
-            //如果移除的listener的优先级和IntentFilter中相同，那么从所有剩余listener中找到最大的优先级,
-            //如果这个优先级小于当前的IntentFilter的有限级，那么IntentFilter要降低优先级
-            int maxRemainPriority = IntentFilter.SYSTEM_LOW_PRIORITY;
-            if (mFilter.getPriority() == listener.getPriority()) {
-                for (BroadcastBridge.Listener l : mListeners) {
-                    if (l.getPriority() > maxRemainPriority) {
-                        maxRemainPriority = l.getPriority();
+            List<String> removedSchemes = listener.getDataSchemes();
+            if (removedSchemes != null) {
+                for (int i = 0; i < removedSchemes.size(); i++) {
+                    String scheme = removedSchemes.get(i);
+                    if (mCounts.removeScheme(scheme)) {
+                        BroadcastBridgeUtil.removeDataScheme(mFilter, scheme);
+                        shouldRegisterAgain = true;
+                        BroadcastBridgeLog.w(mTag, "removeListener : remove scheme %s", scheme);
                     }
                 }
             }
 
-            if (maxRemainPriority < mFilter.getPriority()) {
-                BroadcastBridgeLog.i(mCategory, "removeListener : receiver " +
-                        "priority changed from " + mFilter.getPriority() +
-                        " to " + maxRemainPriority);
-                mFilter.setPriority(maxRemainPriority);
+            if (listener.getThreadMode() == BroadcastBridge.Listener.ThreadMode.MAIN) {
+                mCounts.removeMainThreadListener();
+            }
+
+            // 使用优先级分段时receiver的优先级不变，否则降低为剩余Listener优先级的最大值
+            if (!isPriorityBanded()) {
+                mCounts.removePriority(listener.getPriority());
+                if (updatePriority("removeListener")) {
+                    shouldRegisterAgain = true;
+                }
+            }
+
+            if (updateScheduler()) {
                 shouldRegisterAgain = true;
             }
 
             if (shouldRegisterAgain) {
-                BroadcastBridgeLog.i(mCategory, "removeListener : receiver " +
-                        "should be registered again");
+                BroadcastBridgeLog.i(mTag,
+                        "removeListener : receiver should be registered again");
                 registerAgain();
             }
 
-            BroadcastBridgeLog.i(mCategory, "*** remove listener end  : " + listener + " <<<");
+            BroadcastBridgeLog.i(mTag, "*** remove listener end  : %s <<<", listener);
 
             return false;
         }
 
+        /**
+         * 设置或清除一个Listener暂停的原因，只有暂停状态改变时才更新action的计数。
+         * 暂停的Listener不再回调，没有其他活动Listener的action在removePausedActions时才从IntentFilter中删除，
+         * 在这之前恢复不需要重新注册
+         *
+         * @param flag BroadcastBridge.Listener.PAUSED_BY_SCOPE或者PAUSED_BY_BACKGROUND
+         * @return 是否有action需要延后删除
+         */
+        boolean setPaused(BroadcastBridge.Listener listener, int flag, boolean paused) {
+            int index = mListeners.indexOf(listener);
+            if (index < 0) {
+                return false;
+            }
+            listener = mListeners.get(index);
+            int oldFlags = listener.mPauseFlags;
+            int newFlags = paused ? oldFlags | flag : oldFlags & ~flag;
+            listener.mPauseFlags = newFlags;
+            if ((oldFlags != 0) == (newFlags != 0)) {
+                return false;
+            }
+            BroadcastBridgeLog.i(mTag, "setPaused : %s %s", listener,
+                    paused ? "paused" : "resumed");
+
+            boolean pendingRemoval = false;
+            boolean registerAgain = false;
+            List<String> actions = listener.getActionList();
+            for (int i = 0; i < actions.size(); i++) {
+                String action = actions.get(i);
+                if (isLocalAction(action)) {
+                    if (paused) {
+                        mCounts.removeAction(action);
+                    } else {
+                        mCounts.addAction(action);
+                    }
+                } else if (paused) {
+                    if (mCounts.removeAction(action)) {
+                        mPausedActions.add(action);
+                        pendingRemoval = true;
+                    }
+                } else if (mCounts.addAction(action) && !mPausedActions.remove(action)) {
+                    BroadcastBridgeLog.i(mTag, "setPaused : receiver will add action %s", action);
+                    addFilterAction(action);
+                    registerAgain = true;
+                }
+            }
+            if (registerAgain) {
+                registerAgain();
+            }
+            return pendingRemoval;
+        }
+
+        /**
+         * App进入后台时暂停所有NORMAL的Listener，回到前台时恢复
+         *
+         * @return 是否有action需要删除
+         */
+        boolean setBackground(boolean background) {
+            boolean pendingRemoval = false;
+            for (int i = 0; i < mListeners.size(); i++) {
+                BroadcastBridge.Listener listener = mListeners.get(i);
+                if (listener.getCriticality() == BroadcastBridge.Listener.Criticality.NORMAL &&
+                        setPaused(listener, BroadcastBridge.Listener.PAUSED_BY_BACKGROUND,
+                                background)) {
+                    pendingRemoval = true;
+                }
+            }
+            return pendingRemoval;
+        }
+
+        /**
+         * 删除暂停之后仍然没有活动Listener的action，然后重新注册
+         */
+        private void removePausedActions() {
+            if (mPausedActions.isEmpty()) {
+                return;
+            }
+            for (String action : mPausedActions) {
+                BroadcastBridgeLog.i(mTag, "removePausedActions : remove action %s", action);
+                removeFilterAction(action);
+            }
+            mPausedActions.clear();
+            registerAgain();
+        }
+
+        private void addFilterAction(String action) {
+            mFilter.addAction(action);
+            mFilterActions.addAction(action);
+        }
+
+        private void removeFilterAction(String action) {
+            BroadcastBridgeUtil.removeAction(mFilter, action);
+            releaseFilterAction(action);
+        }
+
+        /**
+         * 使用不包含任何action的新IntentFilter
+         */
+        private void resetFilter() {
+            for (String action : BroadcastBridgeUtil.actionsOf(mFilter)) {
+                releaseFilterAction(action);
+            }
+            mFilter = newFilter();
+        }
+
+        /**
+         * 根据当前所有Listener构建新的快照并发布。
+         * 批量注册过程中只做标记，在commitBatch时每个receiver只构建一次，
+         * 批量注册/反注册N个Listener不会重复构建N次快照
+         */
+        private void publishSnapshot() {
+            if (mBatchDepth > 0) {
+                if (!mPendingSnapshot) {
+                    if (!mPendingRegister) {
+                        mPendingReceivers.add(this);
+                    }
+                    mPendingSnapshot = true;
+                }
+                return;
+            }
+            mSnapshot = DispatchSnapshot.build(mListeners, mCategoryHandler);
+            mLocalIndex = null;
+        }
+
+        /**
+         * 不使用优先级分段时，把IntentFilter的优先级设置为所有Listener优先级的最大值
+         *
+         * @return 优先级是否发生了变化
+         */
+        private boolean updatePriority(String from) {
+            int priority = mCounts.maxPriority(mFilter.getPriority());
+            if (priority == mFilter.getPriority()) {
+                return false;
+            }
+            if (BroadcastBridgeLog.isLoggable(Log.INFO)) {
+                BroadcastBridgeLog.i(mTag, from + " : receiver priority changed from " +
+                        mFilter.getPriority() + " to " + priority);
+            }
+            mFilter.setPriority(priority);
+            return true;
+        }
+
+        /**
+         * 如果所有Listener都不需要在主线程回调，receiver注册在所有receiver共用的接收线程上，
+         * 否则注册在主线程。receiver的数量可能很多，不为每个receiver创建线程
+         *
+         * @return scheduler是否发生了变化
+         */
+        private boolean updateScheduler() {
+            Handler scheduler = mCounts.hasMainThreadListener() ? null :
+                    mRegistrar.receiverHandler();
+            if (scheduler == mScheduler) {
+                return false;
+            }
+            BroadcastBridgeLog.i(mTag, "updateScheduler : receive broadcasts on %s",
+                    scheduler == null ? "main thread" : "receiver thread");
+            mScheduler = scheduler;
+            return true;
+        }
+
+        private Handler getCategoryHandler() {
+            if (mCategoryHandler == null) {
+                mCategoryHandler = mRegistrar.newCategoryHandler(mTag);
+            }
+            return mCategoryHandler;
+        }
+
         private void registerSelf() {
+            if (mFilter.countActions() == 0) {
+                // 所有action都是进程内的action，不需要注册到系统中
+                BroadcastBridgeLog.i(mTag, "registerSelf : only local actions, not registered");
+                return;
+            }
             try {
+                Intent sticky;
                 if (TextUtils.isEmpty(mPermission)) {
-                    mApplicationContext.registerReceiver(this, mFilter);
+                    sticky = mRegistrar.registerReceiver(this, mFilter, null, mScheduler);
                 } else {
-                    mApplicationContext.registerReceiver(this, mFilter, mPermission, null);
+                    sticky = mRegistrar.registerReceiver(this, mFilter, mPermission, mScheduler);
+                }
+                mRegistered = true;
+                // registerReceiver返回匹配的sticky广播，缓存下来，后续的Listener不需要再查询
+                if (sticky != null && sticky.getAction() != null) {
+                    mStickyIntents.put(sticky.getAction(), sticky);
                 }
             } catch (Exception e) {
+                // 比如超过了系统的receiver数量上限，Listener仍然保留，下一次重新注册时再尝试
+                BroadcastBridgeLog.e(mTag, "registerSelf : failed, %s", e);
+            }
+            if (BroadcastBridgeLog.isLoggable(Log.INFO)) {
+                BroadcastBridgeLog.i(mTag, "registerSelf : current actions : " +
+                        BroadcastBridgeUtil.actionsOf(mFilter));
             }
-            BroadcastBridgeLog.i(mCategory, "registerSelf : current actions : " +
-                    BroadcastBridgeUtil.actionsOf(mFilter));
         }
 
         private void unregisterSelf() {
+            if (!mRegistered) {
+                return;
+            }
+            mRegistered = false;
             try {
-                mApplicationContext.unregisterReceiver(this);
+                mRegistrar.unregisterReceiver(this);
             } catch (Exception e) {
             }
         }
 
+        /**
+         * IntentFilter或scheduler变化后重新注册receiver。
+         * 批量注册过程中只做标记，在commitBatch时每个receiver最多重新注册一次
+         */
         private void registerAgain() {
+            if (mBatchDepth > 0) {
+                markPending();
+                return;
+            }
             unregisterSelf();
             registerSelf();
         }
 
+        private void markPending() {
+            if (!mPendingRegister) {
+                if (!mPendingSnapshot) {
+                    mPendingReceivers.add(this);
+                }
+                mPendingRegister = true;
+            }
+        }
+
+        /**
+         * 当前Receiver不再使用时调用，反注册receiver并退出category的HandlerThread
+         */
+        private void release() {
+            unregisterSelf();
+            // 等待删除暂停action的receiver被释放时，IntentFilter中仍然有action
+            resetFilter();
+            mScheduler = null;
+            mSnapshot = DispatchSnapshot.EMPTY;
+            if (mCategoryHandler != null) {
+                mCategoryHandler.getLooper().quitSafely();
+                mCategoryHandler = null;
+            }
+        }
+
         @Override
         public void onReceive(Context context, Intent intent) {
-            for (BroadcastBridge.Listener listener : mListeners) {
-                if (listener.getActionList().contains(intent.getAction())) {
-                    listener.onReceiveBroadcast(intent);
+            long receiveNanos = System.nanoTime();
+            String action = intent.getAction();
+            DispatchStats.onBroadcast(action);
+            if (action != null) {
+                cacheSticky(action, intent, isInitialStickyBroadcast());
+            }
+
+            DispatchSnapshot snapshot = mSnapshot;
+            BroadcastBridge.Listener[] listeners = snapshot.listenersOf(action);
+            if (listeners == null) {
+                return;
+            }
+            dispatch(snapshot, listeners, intent, action, receiveNanos);
+        }
+
+        /**
+         * 进程内分发，按照IntentFilter的规则检查data的scheme和permission，和系统投递时匹配的Listener一致
+         *
+         * @return 回调的Listener数量
+         */
+        int dispatchLocal(Intent intent, String action, String scheme, long sendNanos) {
+            DispatchSnapshot snapshot = mSnapshot;
+            BroadcastBridge.Listener[] listeners = snapshot.listenersOf(action);
+            if (listeners == null || !snapshot.matchesScheme(scheme) ||
+                    !snapshot.matchesType(intent.getType()) ||
+                    !holdsPermission(snapshot.mPermission)) {
+                return 0;
+            }
+            return dispatch(snapshot, listeners, intent, action, sendNanos);
+        }
+
+        private int dispatch(DispatchSnapshot snapshot, BroadcastBridge.Listener[] listeners,
+                             Intent intent, String action, long receiveNanos) {
+            // category中的Listener要求不同的scheme时，只回调scheme匹配的Listener
+            String[][] schemes = snapshot.schemesOf(action);
+            String scheme = schemes == null ? null : intent.getScheme();
+            // Listener声明了authority或者path前缀时，通过前缀树查找data匹配的Listener
+            UriTrie trie = snapshot.uriTrieOf(action);
+            boolean[] routed = trie == null ? null : trie.match(intent.getData());
+            // 在切换线程之前检查Listener声明的条件，不满足条件的Listener不回调。
+            // 只检查会被回调的Listener用到的条件，暂停或者scheme不匹配的Listener的条件不检查
+            PredicateMatcher matcher = snapshot.predicatesOf(action);
+            long passed = 0;
+            if (matcher != null) {
+                long needed = 0;
+                for (int i = 0; i < listeners.length; i++) {
+                    if (isCandidate(listeners[i], i, schemes, scheme, routed)) {
+                        needed |= matcher.maskOf(i);
+                    }
                 }
+                passed = matcher.match(intent, needed);
             }
+            // 这一次投递的所有Listener共用解码结果，同一个Intent再次分发时重新解码
+            BroadcastPayloads.Scope payloads = BroadcastPayloads.newScope(intent);
+            int delivered = 0;
+            for (int i = 0; i < listeners.length; i++) {
+                if (!isCandidate(listeners[i], i, schemes, scheme, routed) ||
+                        (matcher != null && !matcher.accepts(i, passed, intent))) {
+                    continue;
+                }
+                BroadcastDispatcher.deliver(listeners[i], intent, payloads,
+                        snapshot.mCategoryHandler, receiveNanos);
+                delivered++;
+            }
+            return delivered;
+        }
+
+        /**
+         * @return Listener没有暂停，并且scheme和data匹配，只剩下BroadcastPredicate需要检查
+         */
+        private boolean isCandidate(BroadcastBridge.Listener listener, int index,
+                                    String[][] schemes, String scheme, boolean[] routed) {
+            return listener.mPauseFlags == 0 &&
+                    (schemes == null || BroadcastBridgeUtil.accepts(schemes[index], scheme)) &&
+                    (routed == null || routed[index]);
         }
     }
 
@@ -238,11 +756,116 @@ public abstract class MergePolicyBase implements IMergePolicy {
     protected Context mApplicationContext;
     protected String mName;
 
-    private ArrayMap<String, CategoryReceiver> mCategoryToReceivers =
+    /**
+     * 注册receiver和创建category线程的方式
+     */
+    protected final ReceiverRegistrar mRegistrar;
+
+    private ArrayMap<CategoryKey, CategoryReceiver> mCategoryToReceivers =
+            new ArrayMap<>();
+
+    /**
+     * action到监听该action的receiver的索引，只用于sendLocal，发布之后不再修改。
+     * 任何receiver的Listener变化时置为null，下一次sendLocal时在锁内重新构建，
+     * 连续注册/反注册多个Listener只需要构建一次
+     */
+    private volatile ArrayMap<String, CategoryReceiver[]> mLocalIndex;
+
+    /**
+     * 只在进程内发送的action，不会注册到系统中，见setLocalActions
+     */
+    private volatile Set<String> mLocalActions = Collections.emptySet();
+
+    /**
+     * permission -> 当前进程是否持有该permission，进程内分发时检查，避免每次都产生binder调用
+     */
+    private final ConcurrentHashMap<String, Boolean> mHeldPermissions = new ConcurrentHashMap<>();
+
+    /**
+     * 每个sticky action最近一次收到的广播，来自registerReceiver的返回值和之后收到的广播。
+     * 当action不再被任何receiver监听时删除，避免返回过期的状态
+     */
+    private final ConcurrentHashMap<String, Intent> mStickyIntents = new ConcurrentHashMap<>();
+
+    /**
+     * 每个action在多少个receiver的IntentFilter中，同一个action可能因为优先级分段、scheme、
+     * permission或者overflow分到多个receiver中，最后一个receiver删除该action时才清除sticky广播的缓存
+     */
+    private final FilterRefCounts mFilterActions = new FilterRefCounts();
+
+    /**
+     * beginBatch的嵌套层数，大于0时处于批量注册过程中
+     */
+    private int mBatchDepth;
+
+    /**
+     * 批量注册过程中需要发布快照、重新注册或者反注册的receiver
+     */
+    private ArrayList<CategoryReceiver> mPendingReceivers = new ArrayList<>();
+
+    /**
+     * 默认的receiver数量上限。从Android 10开始，每个进程最多注册1000个receiver，超过时registerReceiver会失败
+     */
+    public static final int DEFAULT_RECEIVER_BUDGET = 1000;
+
+    /**
+     * receiver数量达到上限的该百分比之后，新的category不再注册单独的receiver
+     */
+    private static final int MERGE_THRESHOLD_PERCENT = 80;
+
+    /**
+     * 接近上限之后，新的category合并到的receiver的名字，按scheme、permission和优先级分段区分
+     */
+    private static final String OVERFLOW_CATEGORY = "overflow";
+
+    private int mReceiverBudget = DEFAULT_RECEIVER_BUDGET;
+
+    /**
+     * 由于接近上限而合并到overflow receiver中的Listener，反注册时不能再通过categoryOf计算
+     */
+    private final ArrayMap<BroadcastBridge.Listener, CategoryKey> mOverflowListeners =
             new ArrayMap<>();
 
+    /**
+     * 已经输出过接近上限的警告
+     */
+    private boolean mBudgetWarned;
+
+    /**
+     * Listener暂停之后，等待该时间再从IntentFilter中删除没有活动Listener的action，
+     * 屏幕旋转等短时间内停止再启动的情况不会重新注册
+     */
+    static final long PAUSED_ACTION_DEBOUNCE_MILLIS = 3000;
+
+    private final Runnable mRemovePausedActionsRunnable = this::removePausedActions;
+
+    /**
+     * App是否在后台，见setBackground
+     */
+    private boolean mBackground;
+
+    /**
+     * 默认不分段，receiver的优先级是所有Listener优先级的最大值
+     */
+    private static final int[] NO_PRIORITY_BANDS = new int[0];
+
+    /**
+     * 优先级分段的边界，升序排列，为空时不分段
+     */
+    private int[] mPriorityBandEdges = NO_PRIORITY_BANDS;
+
     public MergePolicyBase(Context context, String name) {
+        this(context, new ContextReceiverRegistrar(context), name);
+    }
+
+    /**
+     * @param context 可以为null，比如在JVM上运行benchmark时
+     * @param registrar 注册receiver和创建category线程的方式
+     * @param name
+     */
+    public MergePolicyBase(Context context, ReceiverRegistrar registrar, String name) {
         mApplicationContext = context;
+        mRegistrar = registrar;
         mName = name;
     }
 
@@ -251,29 +874,613 @@ public abstract class MergePolicyBase implements IMergePolicy {
         return mName;
     }
 
+    /**
+     * 获取category对应的CategoryReceiver，不存在时返回null
+     *
+     * @param category
+     * @return
+     */
+    CategoryReceiver getCategoryReceiver(CategoryKey category) {
+        return mCategoryToReceivers.get(category);
+    }
+
+    /**
+     * 设置优先级分段的边界，必须在注册Listener之前调用。默认不分段，receiver的优先级是所有Listener优先级的最大值。
+     *
+     * 不同分段的Listener不会合并到同一个receiver中，receiver的优先级固定为所在分段的优先级 :
+     * 最低的分段为0和第一个边界减1中较小的值，其他分段为分段的下边界。
+     * 比如边界{1, 100}，默认优先级的Listener在优先级0的receiver中，
+     * 优先级100的Listener不会提升其他Listener所在receiver的优先级，分段内优先级的变化也不需要重新注册。
+     * 注意分段会改变有序广播中的顺序 : 优先级999的Listener在优先级100的receiver中，
+     * 优先级-100的Listener在优先级0的receiver中；分段也会增加receiver的数量。
+     * 只有在App不依赖分段内的精确优先级时才使用。
+     *
+     * 不传入边界时不分段
+     *
+     * @param edges 升序排列的边界
+     */
+    public synchronized void setPriorityBandEdges(int... edges) {
+        for (int i = 1; i < edges.length; i++) {
+            if (edges[i] <= edges[i - 1]) {
+                throw new IllegalArgumentException("Priority band edges must be ascending : " +
+                        Arrays.toString(edges));
+            }
+        }
+        if (!mCategoryToReceivers.isEmpty()) {
+            throw new IllegalStateException("Priority band edges can not change after " +
+                    "listeners registered");
+        }
+        mPriorityBandEdges = edges.clone();
+    }
+
+    /**
+     * 声明只在App进程内发送的action，必须在注册Listener之前调用。
+     *
+     * 这些action不会加入receiver的IntentFilter，只有这些action的receiver不会注册到系统中，
+     * 广播只能通过sendLocal发送，不经过系统，也不会被其他App收到
+     *
+     * @param actions
+     */
+    public synchronized void setLocalActions(String... actions) {
+        if (!mCategoryToReceivers.isEmpty()) {
+            throw new IllegalStateException("Local actions can not change after " +
+                    "listeners registered");
+        }
+        mLocalActions = actions.length == 0 ? Collections.<String>emptySet() :
+                Collections.unmodifiableSet(new HashSet<>(Arrays.asList(actions)));
+    }
+
+    /**
+     * @param action
+     * @return action是否通过setLocalActions声明为只在进程内发送
+     */
+    public boolean isLocalAction(String action) {
+        return mLocalActions.contains(action);
+    }
+
+    /**
+     * 在当前进程中把intent分发给匹配的Listener，不经过系统，没有binder调用。
+     *
+     * 按照系统匹配IntentFilter的规则选择Listener : action、data的scheme、MIME type和permission，
+     * 带有category的intent不会匹配任何Listener。Listener声明的authority和path前缀也会检查。
+     * 回调的线程和系统投递时一样由Listener的ThreadMode决定，
+     * 其中ThreadMode.POSTING在调用sendLocal的线程中直接回调。
+     * 可以在任意线程调用，只有Listener变化之后的第一次调用需要加锁重建索引，
+     * 不会更新sticky广播的缓存
+     *
+     * @param intent
+     * @return 回调的Listener数量
+     */
+    public int sendLocal(Intent intent) {
+        String action = intent.getAction();
+        if (action == null ||
+                (intent.getCategories() != null && !intent.getCategories().isEmpty())) {
+            return 0;
+        }
+        long sendNanos = System.nanoTime();
+        DispatchStats.onBroadcast(action);
+        ArrayMap<String, CategoryReceiver[]> index = mLocalIndex;
+        if (index == null) {
+            index = buildLocalIndex();
+        }
+        CategoryReceiver[] receivers = index.get(action);
+        if (receivers == null) {
+            return 0;
+        }
+        String scheme = intent.getScheme();
+        int delivered = 0;
+        for (int i = 0; i < receivers.length; i++) {
+            delivered += receivers[i].dispatchLocal(intent, action, scheme, sendNanos);
+        }
+        return delivered;
+    }
+
+    /**
+     * receiver收到广播时更新sticky广播的缓存。
+     * 投递可能晚于releaseFilterAction，只替换已有的缓存，第一次缓存时在锁内检查action仍然被监听，
+     * 否则getLastIntent会返回已经不再监听的action的旧广播
+     */
+    void cacheSticky(String action, Intent intent, boolean initialSticky) {
+        if (mStickyIntents.replace(action, intent) != null || !initialSticky) {
+            return;
+        }
+        synchronized (this) {
+            if (mFilterActions.hasAction(action)) {
+                mStickyIntents.put(action, intent);
+            }
+        }
+    }
+
+    /**
+     * 一个receiver的IntentFilter删除action之后调用，只在持有锁时调用
+     */
+    private void releaseFilterAction(String action) {
+        if (mFilterActions.removeAction(action)) {
+            mStickyIntents.remove(action);
+        }
+    }
+
+    /**
+     * receiver要求permission时，只有当前进程持有该permission才能在进程内分发，和系统的检查一致
+     */
+    private boolean holdsPermission(String permission) {
+        if (permission == null || mApplicationContext == null) {
+            return true;
+        }
+        Boolean held = mHeldPermissions.get(permission);
+        if (held == null) {
+            held = mApplicationContext.checkPermission(permission, Process.myPid(),
+                    Process.myUid()) == PackageManager.PERMISSION_GRANTED;
+            mHeldPermissions.put(permission, held);
+        }
+        return held;
+    }
+
+    /**
+     * 根据当前所有receiver重新构建进程内分发的索引
+     */
+    private synchronized ArrayMap<String, CategoryReceiver[]> buildLocalIndex() {
+        ArrayMap<String, CategoryReceiver[]> index = mLocalIndex;
+        if (index != null) {
+            return index;
+        }
+        ArrayMap<String, ArrayList<CategoryReceiver>> actionToReceivers = new ArrayMap<>();
+        for (int i = 0; i < mCategoryToReceivers.size(); i++) {
+            CategoryReceiver receiver = mCategoryToReceivers.valueAt(i);
+            for (BroadcastBridge.Listener listener : receiver.mListeners) {
+                for (String action : listener.getActionList()) {
+                    ArrayList<CategoryReceiver> list = actionToReceivers.get(action);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        actionToReceivers.put(action, list);
+                    }
+                    if (list.isEmpty() || list.get(list.size() - 1) != receiver) {
+                        list.add(receiver);
+                    }
+                }
+            }
+        }
+        index = new ArrayMap<>(actionToReceivers.size());
+        for (int i = 0; i < actionToReceivers.size(); i++) {
+            ArrayList<CategoryReceiver> list = actionToReceivers.valueAt(i);
+            index.put(actionToReceivers.keyAt(i), list.toArray(new CategoryReceiver[list.size()]));
+        }
+        mLocalIndex = index;
+        return index;
+    }
+
+    /**
+     * 设置receiver数量的上限，默认为DEFAULT_RECEIVER_BUDGET。
+     *
+     * receiver数量达到上限的80%之后，需要新receiver的Listener不再使用自己的category，
+     * 而是按照IntentFilter的约束(scheme、permission和优先级分段)合并到共用的overflow receiver中，
+     * 已经注册的receiver不受影响，所以不会产生额外的重新注册
+     *
+     * @param budget 大于0
+     */
+    public synchronized void setReceiverBudget(int budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Receiver budget must be positive : " + budget);
+        }
+        mReceiverBudget = budget;
+        mBudgetWarned = false;
+    }
+
+    public synchronized int getReceiverBudget() {
+        return mReceiverBudget;
+    }
+
+    /**
+     * @return 当前使用的receiver数量，和getReceiverBudget比较可以知道离上限还有多远
+     */
+    public synchronized int getReceiverCount() {
+        return mCategoryToReceivers.size();
+    }
+
+    /**
+     * receiver数量是否已经达到合并的阈值，只在持有锁时调用
+     */
+    private boolean isNearBudget() {
+        int count = mCategoryToReceivers.size();
+        if (count < mReceiverBudget * MERGE_THRESHOLD_PERCENT / 100) {
+            return false;
+        }
+        if (!mBudgetWarned) {
+            mBudgetWarned = true;
+            BroadcastBridgeLog.w(mName, "%d of %d receivers used, merging new categories",
+                    count, mReceiverBudget);
+        }
+        return true;
+    }
+
+    /**
+     * 接近上限时Listener合并到的category，只包含影响IntentFilter的约束
+     */
+    private CategoryKey overflowCategoryOf(BroadcastBridge.Listener listener,
+                                           CategoryKey category) {
+        CategoryKey overflow = CategoryKey.of(OVERFLOW_CATEGORY,
+                isSchemeSupported() ? listener.getDataSchemes() : null,
+                isPermissionSupported() ? listener.getBroadcastPermission() : null);
+        overflow = overflow.withDataTypes(category.getDataTypes());
+        return isPriorityBanded() ? overflow.withPriorityBand(category.getPriorityBand()) :
+                overflow;
+    }
+
+    /**
+     * 暂停或恢复Listener，由ListenerScope在所属对象停止和启动时调用。
+     *
+     * 暂停的Listener仍然处于注册状态，但不再回调，包括已经投递到其他线程还没有回调的广播。
+     * 如果一个action的所有Listener都已经暂停，在PAUSED_ACTION_DEBOUNCE_MILLIS之后把该action从IntentFilter中删除，
+     * 在这之前恢复不会重新注册。没有注册的Listener只设置状态，注册时不会加入它的action
+     *
+     * @param listeners
+     * @param paused
+     */
+    synchronized void setListenersPaused(Collection<? extends BroadcastBridge.Listener> listeners,
+                                         boolean paused) {
+        boolean pendingRemoval = false;
+        beginBatch();
+        try {
+            for (BroadcastBridge.Listener listener : listeners) {
+                CategoryReceiver receiver = mCategoryToReceivers.get(registeredCategoryOf(listener));
+                if (receiver == null || !receiver.mListeners.contains(listener)) {
+                    if (paused) {
+                        listener.mPauseFlags |= BroadcastBridge.Listener.PAUSED_BY_SCOPE;
+                    } else {
+                        listener.mPauseFlags &= ~BroadcastBridge.Listener.PAUSED_BY_SCOPE;
+                    }
+                } else if (receiver.setPaused(listener, BroadcastBridge.Listener.PAUSED_BY_SCOPE,
+                        paused)) {
+                    pendingRemoval = true;
+                }
+            }
+        } finally {
+            commitBatch();
+        }
+        if (pendingRemoval) {
+            // 每次有新的Listener暂停都重新计时
+            Handler handler = BroadcastDispatcher.timerHandler();
+            handler.removeCallbacks(mRemovePausedActionsRunnable);
+            handler.postDelayed(mRemovePausedActionsRunnable, PAUSED_ACTION_DEBOUNCE_MILLIS);
+        }
+    }
+
+    /**
+     * 设置App是否在后台。
+     *
+     * 进入后台时暂停所有Listener.Criticality.NORMAL的Listener，每个receiver的IntentFilter只保留
+     * CRITICAL的Listener监听的action，没有这些action的receiver被反注册，系统不会再为其他广播唤醒进程。
+     * ListenerScope停止之后等待删除的action也一起删除。回到前台时恢复所有action。
+     * 切换时每个receiver最多重新注册一次，后台注册的NORMAL Listener直接处于暂停状态
+     *
+     * @param background
+     */
+    public synchronized void setBackground(boolean background) {
+        if (mBackground == background) {
+            return;
+        }
+        mBackground = background;
+        BroadcastBridgeLog.i(mName, "setBackground : %b", background);
+        beginBatch();
+        try {
+            for (int i = mCategoryToReceivers.size() - 1; i >= 0; i--) {
+                CategoryReceiver receiver = mCategoryToReceivers.valueAt(i);
+                receiver.setBackground(background);
+                if (!background) {
+                    continue;
+                }
+                if (receiver.mLingering) {
+                    receiver.release();
+                    mCategoryToReceivers.removeAt(i);
+                } else {
+                    receiver.removePausedActions();
+                }
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    public synchronized boolean isBackground() {
+        return mBackground;
+    }
+
+    /**
+     * 把暂停之后仍然没有活动Listener的action从IntentFilter中删除，每个receiver最多重新注册一次
+     */
+    synchronized void removePausedActions() {
+        beginBatch();
+        try {
+            for (int i = mCategoryToReceivers.size() - 1; i >= 0; i--) {
+                CategoryReceiver receiver = mCategoryToReceivers.valueAt(i);
+                if (receiver.mLingering) {
+                    // 等待期间没有添加新的Listener
+                    receiver.release();
+                    mCategoryToReceivers.removeAt(i);
+                } else {
+                    receiver.removePausedActions();
+                }
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Listener注册时所在的category
+     */
+    private CategoryKey registeredCategoryOf(BroadcastBridge.Listener listener) {
+        CategoryKey category = mOverflowListeners.get(listener);
+        return category != null ? category : categoryOf(listener);
+    }
+
+    final boolean isPriorityBanded() {
+        return mPriorityBandEdges.length > 0;
+    }
+
+    /**
+     * @param priority Listener的优先级
+     * @return 优先级所在的分段，不分段时为0
+     */
+    final int bandOf(int priority) {
+        int[] edges = mPriorityBandEdges;
+        int band = 0;
+        while (band < edges.length && priority >= edges[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    /**
+     * @param band
+     * @return 分段中receiver的优先级
+     */
+    final int bandPriority(int band) {
+        int[] edges = mPriorityBandEdges;
+        return band == 0 ? Math.min(0, edges[0] - 1) : edges[band - 1];
+    }
+
+    /**
+     * Listener所属的category加上优先级分段
+     */
+    private CategoryKey keyOf(BroadcastBridge.Listener listener) {
+        CategoryKey category = getActionCategory(listener);
+        if (category == null) {
+            return null;
+        }
+        if (isSchemeSupported()) {
+            category = category.withDataTypes(listener.getDataTypes());
+        }
+        if (!isPriorityBanded()) {
+            return category;
+        }
+        return category.withPriorityBand(bandOf(listener.getPriority()));
+    }
+
+    /**
+     * @param category
+     * @param maxListenerPriority category中Listener的最大优先级
+     * @return receiver注册时使用的优先级
+     */
+    final int receiverPriority(CategoryKey category, int maxListenerPriority) {
+        return isPriorityBanded() ? bandPriority(category.getPriorityBand()) : maxListenerPriority;
+    }
+
+    /**
+     * Listener缓存的category，记录计算该category的Policy和优先级分段，
+     * 同一个Listener注册到其他Policy或者分段变化之后重新计算
+     */
+    static final class CachedCategory {
+        final MergePolicyBase mPolicy;
+        final int[] mPriorityBandEdges;
+        final CategoryKey mCategory;
+
+        CachedCategory(MergePolicyBase policy, int[] priorityBandEdges, CategoryKey category) {
+            mPolicy = policy;
+            mPriorityBandEdges = priorityBandEdges;
+            mCategory = category;
+        }
+    }
+
+    /**
+     * 获取Listener所属的category，只在第一次调用时执行getActionCategory，之后使用Listener中缓存的结果。
+     * Listener的action, scheme, permission和priority在注册之后不应再改变
+     *
+     * @param listener
+     * @return
+     */
+    final CategoryKey categoryOf(BroadcastBridge.Listener listener) {
+        CachedCategory cached = listener.mCachedCategory;
+        int[] edges = mPriorityBandEdges;
+        if (cached != null && cached.mPolicy == this && cached.mPriorityBandEdges == edges) {
+            return cached.mCategory;
+        }
+        CategoryKey category = keyOf(listener);
+        listener.mCachedCategory = new CachedCategory(this, edges, category);
+        return category;
+    }
+
     @Override
-    public boolean registerListener(BroadcastBridge.Listener listener) {
+    public synchronized boolean registerListener(BroadcastBridge.Listener listener) {
 
         if (listener.getActionList() == null || listener.getActionList().size() == 0) {
             throw new IllegalArgumentException("Listener " + listener + " has no actions");
         }
+        // 和IntentFilter一样，authority和path只在有scheme时才有意义
+        List<String> schemes = listener.getDataSchemes();
+        List<String> authorities = listener.getDataAuthorities();
+        List<String> paths = listener.getDataPathPrefixes();
+        if ((schemes == null || schemes.isEmpty()) &&
+                ((authorities != null && !authorities.isEmpty()) ||
+                        (paths != null && !paths.isEmpty()))) {
+            throw new IllegalArgumentException("Listener " + listener +
+                    " has data authorities or paths but no schemes");
+        }
+        if (authorities != null) {
+            for (int i = 0; i < authorities.size(); i++) {
+                if (!UriTrie.isValidAuthority(authorities.get(i))) {
+                    throw new IllegalArgumentException("Listener " + listener +
+                            " has invalid data authority " + authorities.get(i));
+                }
+            }
+        }
+
+        CategoryKey category = mOverflowListeners.get(listener);
+        boolean overflow = category != null;
+        if (category == null) {
+            category = categoryOf(listener);
+            if (!mCategoryToReceivers.containsKey(category) && isNearBudget()) {
+                // 接近receiver数量的上限，不再为新的category注册receiver
+                category = overflowCategoryOf(listener, category);
+                overflow = true;
+            }
+        }
 
-        String category = getActionCategory(listener);
         if (!mCategoryToReceivers.containsKey(category)) {
             //需要新注册一个receiver
+            if (mCategoryToReceivers.size() >= mReceiverBudget) {
+                BroadcastBridgeLog.e(mName, "registerListener : %s exceeds receiver budget %d",
+                        listener, mReceiverBudget);
+            }
             CategoryReceiver receiver = new CategoryReceiver(category);
             receiver.addListener(listener); // add listener will register the receiver
             mCategoryToReceivers.put(category, receiver);
+            if (overflow) {
+                mOverflowListeners.put(listener, category);
+            }
             return true;
         }
 
         CategoryReceiver receiver = mCategoryToReceivers.get(category);
-        return receiver.addListener(listener);
+        boolean added = receiver.addListener(listener);
+        if (added && overflow) {
+            mOverflowListeners.put(listener, category);
+        }
+        return added;
+    }
+
+    /**
+     * @param listener
+     * @return Listener已经注册，并且所在的receiver已经注册到系统中或者不需要注册
+     */
+    synchronized boolean isListenerLive(BroadcastBridge.Listener listener) {
+        CategoryReceiver receiver = mCategoryToReceivers.get(registeredCategoryOf(listener));
+        return receiver != null && receiver.mListeners.contains(listener) &&
+                (receiver.mRegistered || receiver.mFilter.countActions() == 0);
+    }
+
+    /**
+     * 当前已注册的Listener合并成的receiver
+     *
+     * @return
+     */
+    public synchronized ReceiverPlan getPlan() {
+        ArrayMap<CategoryKey, List<BroadcastBridge.Listener>> categoryToListeners =
+                new ArrayMap<>(mCategoryToReceivers.size());
+        for (int i = 0; i < mCategoryToReceivers.size(); i++) {
+            categoryToListeners.put(mCategoryToReceivers.keyAt(i),
+                    mCategoryToReceivers.valueAt(i).mListeners);
+        }
+        return ReceiverPlan.build(this, categoryToListeners, Collections.<String>emptyList());
+    }
+
+    /**
+     * 计算一组Listener在当前Policy中会合并成哪些receiver。
+     * 只调用getActionCategory，不注册receiver，不使用Context，也不影响当前已注册的Listener
+     *
+     * @param listeners 按注册顺序排列
+     * @return
+     */
+    public ReceiverPlan dryRun(Collection<? extends BroadcastBridge.Listener> listeners) {
+        ArrayMap<CategoryKey, List<BroadcastBridge.Listener>> categoryToListeners =
+                new ArrayMap<>();
+        ArrayList<String> rejected = new ArrayList<>();
+        HashSet<BroadcastBridge.Listener> seen = new HashSet<>();
+        for (BroadcastBridge.Listener listener : listeners) {
+            List<String> schemes = listener.getDataSchemes();
+            if (!seen.add(listener) ||
+                    (schemes != null && schemes.size() > 0 && !isSchemeSupported()) ||
+                    (!TextUtils.isEmpty(listener.getBroadcastPermission()) &&
+                            !isPermissionSupported())) {
+                rejected.add(listener.getName());
+                continue;
+            }
+            CategoryKey category;
+            try {
+                category = keyOf(listener);
+            } catch (IllegalArgumentException e) {
+                rejected.add(listener.getName());
+                continue;
+            }
+            List<BroadcastBridge.Listener> list = categoryToListeners.get(category);
+            if (list == null) {
+                list = new ArrayList<>();
+                categoryToListeners.put(category, list);
+            }
+            list.add(listener);
+        }
+        return ReceiverPlan.build(this, categoryToListeners, rejected);
+    }
+
+    @Override
+    public Intent getLastIntent(String action) {
+        if (action == null) {
+            return null;
+        }
+        return mStickyIntents.get(action);
+    }
+
+    @Override
+    public synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    @Override
+    public synchronized void commitBatch() {
+        if (mBatchDepth == 0) {
+            BroadcastBridgeLog.w(mName, "commitBatch : not in batch");
+            return;
+        }
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        if (BroadcastBridgeLog.isLoggable(Log.INFO)) {
+            BroadcastBridgeLog.i(mName, "commitBatch : " + mPendingReceivers.size() +
+                    " receivers changed");
+        }
+        for (CategoryReceiver receiver : mPendingReceivers) {
+            boolean register = receiver.mPendingRegister;
+            receiver.mPendingRegister = false;
+            if (mCategoryToReceivers.get(receiver.mCategory) != receiver) {
+                // 批量过程中已经释放，比如进入后台时等待删除暂停action的receiver
+                receiver.mPendingSnapshot = false;
+                continue;
+            }
+            if (receiver.mPendingSnapshot) {
+                receiver.mPendingSnapshot = false;
+                receiver.publishSnapshot();
+            }
+            if (!register) {
+                continue;
+            }
+            if (receiver.mListeners.isEmpty() && !receiver.mLingering) {
+                // 批量过程中最后一个Listener被删除，并且没有再添加新的Listener
+                receiver.release();
+                mCategoryToReceivers.remove(receiver.mCategory);
+            } else {
+                receiver.registerAgain();
+            }
+        }
+        mPendingReceivers.clear();
     }
 
     @Override
-    public boolean unregisterListener(BroadcastBridge.Listener listener) {
-        String category = getActionCategory(listener);
+    public synchronized boolean unregisterListener(BroadcastBridge.Listener listener) {
+        CategoryKey category = mOverflowListeners.remove(listener);
+        if (category == null) {
+            category = categoryOf(listener);
+        }
         if (!mCategoryToReceivers.containsKey(category)) {
             return false;
         }
@@ -283,8 +1490,13 @@ public abstract class MergePolicyBase implements IMergePolicy {
             //由于在当前CategoryReceiver中删除了一个Listener,导致当前CategoryReceiver不再使用
             //这种情况通常发生在删除的Listener是CategoryReceiver中最后一个Listener
             //这时要unregister当前CategoryReceiver,并从mCategoryToReceivers中删除
-            receiver.unregisterSelf();
-            mCategoryToReceivers.remove(category);
+            //批量注册过程中先保留该receiver，在commitBatch时再决定是否反注册
+            if (mBatchDepth > 0) {
+                receiver.markPending();
+            } else {
+                receiver.release();
+                mCategoryToReceivers.remove(category);
+            }
         }
         return true;
     }
@@ -11,18 +11,24 @@ import android.content.Context;
  */
 public class MergePolicyGlobal extends MergePolicyBase {
 
+    private static final CategoryKey GLOBAL = CategoryKey.of("global");
+
     MergePolicyGlobal(Context context, String name) {
         super(context, name);
     }
 
+    MergePolicyGlobal(Context context, ReceiverRegistrar registrar, String name) {
+        super(context, registrar, name);
+    }
+
     /**
      * 所有Listener公用一个category, 所有Listener中的所有action合并到一个全局的receiver中监听
      * @param listener
      * @return
      */
     @Override
-    public String getActionCategory(BroadcastBridge.Listener listener) {
-        return "global";
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
+        return GLOBAL;
     }
 
     /**
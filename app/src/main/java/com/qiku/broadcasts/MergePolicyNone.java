@@ -12,7 +12,7 @@ public class MergePolicyNone extends MergePolicyBase {
     }
 
     @Override
-    public String getActionCategory(BroadcastBridge.Listener listener) {
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
         return null;
     }
 
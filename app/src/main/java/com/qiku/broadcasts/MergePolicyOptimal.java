@@ -0,0 +1,70 @@
+package com.qiku.broadcasts;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.util.List;
+
+/**
+ * 使用最少的receiver注册所有Listener，同时支持scheme和permission。
+ *
+ * 两个Listener能否共用一个receiver只取决于以下约束:
+ * 1. permission : 每次registerReceiver只能指定一个permission，不同permission(包括不需要permission)不能合并；
+ * 2. 是否有data : IntentFilter中有scheme时只匹配带data的广播，没有scheme时只匹配不带data的广播，
+ *    所以需要scheme和不需要scheme的Listener不能合并。
+ *    需要不同scheme的Listener可以合并，IntentFilter中包含所有scheme，分发时再按照每个Listener的scheme过滤。
+ * 3. 优先级分段 : 由MergePolicyBase处理，不同分段的Listener不会合并，见setPriorityBandEdges。
+ *
+ * 除此之外的Listener都可以合并，并且"可以合并"是等价关系，所以每个等价类对应一个receiver就是最少的receiver数量，
+ * 不需要搜索。每个Listener只按照自己的约束确定所属的receiver，注册和反注册只影响这一个receiver，
+ * 整个方案随注册/反注册增量更新。
+ *
+ * 通过dryRun可以在不注册receiver的情况下查看方案，getPlan返回当前已注册的方案。
+ */
+public class MergePolicyOptimal extends MergePolicyBase {
+
+    /**
+     * 不需要scheme和permission的Listener共用的category
+     */
+    private static final CategoryKey NO_DATA = CategoryKey.of("optimal");
+
+    /**
+     * 需要scheme，不需要permission的Listener共用的category
+     */
+    private static final CategoryKey WITH_DATA = CategoryKey.of("optimal-data");
+
+    public MergePolicyOptimal(Context context, String name) {
+        super(context, name);
+    }
+
+    public MergePolicyOptimal(Context context, ReceiverRegistrar registrar, String name) {
+        super(context, registrar, name);
+    }
+
+    /**
+     * 按照是否需要data和permission分类，scheme不属于category，由分发时过滤
+     *
+     * @param listener
+     * @return
+     */
+    @Override
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
+        List<String> schemes = listener.getDataSchemes();
+        boolean withData = schemes != null && schemes.size() > 0;
+        String permission = listener.getBroadcastPermission();
+        if (TextUtils.isEmpty(permission)) {
+            return withData ? WITH_DATA : NO_DATA;
+        }
+        return CategoryKey.of(withData ? WITH_DATA.getName() : NO_DATA.getName(), null, permission);
+    }
+
+    @Override
+    public boolean isSchemeSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isPermissionSupported() {
+        return true;
+    }
+}
@@ -12,10 +12,17 @@ import android.text.TextUtils;
  * 如果该类不能满足App的要求，建议App参考该类实现自己的Policy
  */
 public class MergePolicyPermission extends MergePolicyBase {
+
+    private static final CategoryKey PERMISSION_NONE = CategoryKey.of("permission:non");
+
     public MergePolicyPermission(Context context, String name) {
         super(context, name);
     }
 
+    public MergePolicyPermission(Context context, ReceiverRegistrar registrar, String name) {
+        super(context, registrar, name);
+    }
+
     @Override
     public boolean isSchemeSupported() {
         return false;
@@ -31,13 +38,13 @@ public class MergePolicyPermission extends MergePolicyBase {
     }
 
     @Override
-    public String getActionCategory(BroadcastBridge.Listener listener) {
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
 
         String permission = listener.getBroadcastPermission();
         if (TextUtils.isEmpty(permission)) {
-            return "permission:non";
+            return PERMISSION_NONE;
         } else {
-            return "permission:" + permission;
+            return CategoryKey.of("permission", null, permission);
         }
     }
 }
@@ -14,10 +14,16 @@ import java.util.List;
  */
 public class MergePolicyScheme extends MergePolicyBase {
 
+    private static final CategoryKey SCHEME_NONE = CategoryKey.of("scheme:non");
+
     MergePolicyScheme(Context context, String name) {
         super(context, name);
     }
 
+    MergePolicyScheme(Context context, ReceiverRegistrar registrar, String name) {
+        super(context, registrar, name);
+    }
+
     /**
      * 在该方法中按照scheme为Listener分类
      *
@@ -25,18 +31,13 @@ public class MergePolicyScheme extends MergePolicyBase {
      * @return
      */
     @Override
-    public String getActionCategory(BroadcastBridge.Listener listener) {
+    public CategoryKey getActionCategory(BroadcastBridge.Listener listener) {
         List<String> schemes = listener.getDataSchemes();
         if (schemes == null || schemes.size() == 0) {
-            return "scheme:non";
+            return SCHEME_NONE;
         } else {
-            //将listener指定的所有scheme拼接，作为Listener的category
-            StringBuilder sb = new StringBuilder("scheme:");
-            for (String scheme : schemes) {
-                sb.append(scheme).append("_");
-            }
-            sb.deleteCharAt(sb.length() - 1);
-            return sb.toString();
+            //listener指定的所有scheme作为Listener的category，scheme的顺序不影响分类
+            return CategoryKey.of("scheme", schemes, null);
         }
     }
 
@@ -0,0 +1,147 @@
+package com.qiku.broadcasts;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * CONNECTIVITY_ACTION广播解码后的网络状态，每次投递只解码一次，见BroadcastPayloads。
+ *
+ * isConnected、getType是广播中的EXTRA_NO_CONNECTIVITY和EXTRA_NETWORK_TYPE，和系统投递时一致；
+ * 广播中的网络不一定是当前的默认网络，需要当前网络时使用getActiveNetwork，
+ * 第一次调用时查询一次ConnectivityManager，收到同一个广播的Listener共用查询结果
+ */
+public final class NetworkState {
+
+    private static final String TAG = "NetworkState";
+
+    static final BroadcastPayloads.Decoder<NetworkState> DECODER =
+            new BroadcastPayloads.Decoder<NetworkState>() {
+                @Override
+                public NetworkState decode(Context context, Intent intent) {
+                    return new NetworkState(context, intent);
+                }
+            };
+
+    /**
+     * 解码时查询到的当前默认网络
+     */
+    public static final class ActiveNetwork {
+        private final boolean mConnected;
+        private final int mType;
+        private final String mTypeName;
+        private final boolean mMetered;
+
+        private ActiveNetwork(boolean connected, int type, String typeName, boolean metered) {
+            mConnected = connected;
+            mType = type;
+            mTypeName = typeName;
+            mMetered = metered;
+        }
+
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        /**
+         * @return ConnectivityManager.TYPE_*，没有默认网络时为-1
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return 比如"WIFI"、"MOBILE"，没有默认网络时为null
+         */
+        public String getTypeName() {
+            return mTypeName;
+        }
+
+        /**
+         * @return 当前网络是否按流量计费
+         */
+        public boolean isMetered() {
+            return mMetered;
+        }
+
+        @Override
+        public String toString() {
+            return "ActiveNetwork : connected=" + mConnected + ", type=" + mType +
+                    ", metered=" + mMetered;
+        }
+    }
+
+    private final Context mContext;
+    private final boolean mConnected;
+    private final int mType;
+
+    private boolean mActiveQueried;
+    private ActiveNetwork mActive;
+
+    private NetworkState(Context context, Intent intent) {
+        mContext = context;
+        mConnected = !intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false);
+        mType = intent.getIntExtra(ConnectivityManager.EXTRA_NETWORK_TYPE, -1);
+    }
+
+    /**
+     * @param intent Listener收到的CONNECTIVITY_ACTION广播
+     * @return 其他广播返回null
+     */
+    public static NetworkState from(Intent intent) {
+        return BroadcastPayloads.get(intent, NetworkState.class);
+    }
+
+    /**
+     * @return 广播中的EXTRA_NO_CONNECTIVITY取反，为true时表示设备仍然有可用的网络
+     */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * @return 广播中的EXTRA_NETWORK_TYPE，也就是状态发生变化的网络，没有该extra时为-1
+     */
+    public int getType() {
+        return mType;
+    }
+
+    @SuppressWarnings("deprecation")
+    public boolean isWifi() {
+        return mType == ConnectivityManager.TYPE_WIFI;
+    }
+
+    /**
+     * 查询当前的默认网络，只在第一次调用时查询ConnectivityManager
+     *
+     * @return 没有ACCESS_NETWORK_STATE权限或者BroadcastBridge没有初始化时为null
+     */
+    @SuppressWarnings("deprecation")
+    public synchronized ActiveNetwork getActiveNetwork() {
+        if (mActiveQueried) {
+            return mActive;
+        }
+        mActiveQueried = true;
+        ConnectivityManager cm = mContext == null ? null :
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return null;
+        }
+        try {
+            NetworkInfo active = cm.getActiveNetworkInfo();
+            boolean connected = active != null && active.isConnected();
+            mActive = new ActiveNetwork(connected, active == null ? -1 : active.getType(),
+                    active == null ? null : active.getTypeName(),
+                    connected && cm.isActiveNetworkMetered());
+        } catch (SecurityException e) {
+            BroadcastBridgeLog.w(TAG, "getActiveNetwork : %s", e);
+        }
+        return mActive;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkState : connected=" + mConnected + ", type=" + mType;
+    }
+}
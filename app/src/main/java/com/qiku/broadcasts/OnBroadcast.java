@@ -0,0 +1,57 @@
+package com.qiku.broadcasts;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记接收广播的方法，编译时由bridge-compiler为每个宿主类生成一个 宿主类名_BroadcastBinding，
+ * 其中包含需要的Listener和分发代码，不使用反射:
+ *
+ * <pre>
+ *     &#64;OnBroadcast(actions = {Intent.ACTION_SCREEN_ON, Intent.ACTION_SCREEN_OFF})
+ *     void onScreenChanged(Intent intent) {...}
+ *
+ *     mBinding = new TestService_BroadcastBinding(this);
+ *     BroadcastBridge.getInstance().bind(mBinding);
+ * </pre>
+ *
+ * 方法不能是private或static，参数为空或者只有一个Intent。
+ * scheme、permission、priority、threadMode和critical相同，并且在MERGE_AUTO中属于同一category的方法合并到一个Listener中，
+ * 收到广播时按action直接调用对应的方法。
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface OnBroadcast {
+
+    /**
+     * 监听的action，不能为空
+     */
+    String[] actions();
+
+    /**
+     * 见BroadcastBridge.Listener.getDataSchemes
+     */
+    String[] schemes() default {};
+
+    /**
+     * 见BroadcastBridge.Listener.getBroadcastPermission，空字符串表示不需要permission
+     */
+    String permission() default "";
+
+    /**
+     * 见BroadcastBridge.Listener.getPriority
+     */
+    int priority() default 0;
+
+    /**
+     * 见BroadcastBridge.Listener.getThreadMode
+     */
+    BroadcastBridge.Listener.ThreadMode threadMode() default BroadcastBridge.Listener.ThreadMode.MAIN;
+
+    /**
+     * 为true时App在后台也回调，见BroadcastBridge.Listener.getCriticality
+     */
+    boolean critical() default false;
+}
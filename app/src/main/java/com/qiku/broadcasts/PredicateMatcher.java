@@ -0,0 +1,185 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个action的所有Listener的BroadcastPredicate编译成的匹配器，由DispatchSnapshot构建，创建之后不再修改。
+ *
+ * 相等的条件合并为一个，每次广播只检查需要回调的Listener用到的条件，每个条件最多检查一次，
+ * extra只在第一个需要extra的条件之前取出一次(Intent.getExtras每次调用都会复制Bundle)。
+ * 条件不超过64个时，检查结果放在long的各个位中，分发广播时不需要分配内存
+ */
+final class PredicateMatcher {
+
+    private static final String TAG = "PredicateMatcher";
+
+    /**
+     * 检查结果可以放在一个long中的条件数量
+     */
+    private static final int MAX_MASKED_PREDICATES = 64;
+
+    /**
+     * 去重之后的条件
+     */
+    private final BroadcastPredicate[] mPredicates;
+
+    /**
+     * 和listenersOf返回的数组一一对应，每个Listener的条件在mPredicates中的下标，没有条件的Listener为null
+     */
+    private final int[][] mListenerPredicates;
+
+    /**
+     * 和listenersOf返回的数组一一对应，每个Listener的条件在mPredicates中的下标组成的位，
+     * 条件超过MAX_MASKED_PREDICATES个时为null，这时每个Listener单独检查自己的条件
+     */
+    private final long[] mListenerMasks;
+
+    private PredicateMatcher(BroadcastPredicate[] predicates, int[][] listenerPredicates) {
+        mPredicates = predicates;
+        mListenerPredicates = listenerPredicates;
+        if (predicates.length > MAX_MASKED_PREDICATES) {
+            BroadcastBridgeLog.w(TAG, "%d predicates for one action, matched one by one",
+                    predicates.length);
+            mListenerMasks = null;
+            return;
+        }
+        mListenerMasks = new long[listenerPredicates.length];
+        for (int i = 0; i < listenerPredicates.length; i++) {
+            if (listenerPredicates[i] != null) {
+                for (int index : listenerPredicates[i]) {
+                    mListenerMasks[i] |= 1L << index;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param listeners 监听同一个action的Listener
+     * @return 所有Listener都没有条件时返回null
+     */
+    static PredicateMatcher build(BroadcastBridge.Listener[] listeners) {
+        ArrayList<BroadcastPredicate> predicates = null;
+        int[][] listenerPredicates = new int[listeners.length][];
+        for (int i = 0; i < listeners.length; i++) {
+            List<BroadcastPredicate> own = listeners[i].getPredicates();
+            if (own == null || own.isEmpty()) {
+                continue;
+            }
+            if (predicates == null) {
+                predicates = new ArrayList<>();
+            }
+            int[] indexes = new int[own.size()];
+            for (int j = 0; j < indexes.length; j++) {
+                BroadcastPredicate predicate = own.get(j);
+                int index = predicates.indexOf(predicate);
+                if (index < 0) {
+                    index = predicates.size();
+                    predicates.add(predicate);
+                }
+                indexes[j] = index;
+            }
+            listenerPredicates[i] = indexes;
+        }
+        if (predicates == null) {
+            return null;
+        }
+        return new PredicateMatcher(predicates.toArray(new BroadcastPredicate[predicates.size()]),
+                listenerPredicates);
+    }
+
+    /**
+     * @param listener 在listenersOf返回的数组中的下标
+     * @return 该Listener用到的条件，作为match的参数
+     */
+    long maskOf(int listener) {
+        return mListenerMasks == null ? 0 : mListenerMasks[listener];
+    }
+
+    /**
+     * 检查needed中的条件，每个条件只检查一次
+     *
+     * @param intent
+     * @param needed 需要回调的Listener的maskOf的并集
+     * @return 满足的条件，作为accepts的参数
+     */
+    long match(Intent intent, long needed) {
+        if (needed == 0) {
+            return 0;
+        }
+        long passed = 0;
+        Bundle extras = null;
+        boolean extrasLoaded = false;
+        Uri data = intent.getData();
+        for (int i = 0; i < mPredicates.length; i++) {
+            if ((needed & (1L << i)) == 0) {
+                continue;
+            }
+            BroadcastPredicate predicate = mPredicates[i];
+            if (!extrasLoaded && predicate.needsExtras()) {
+                extrasLoaded = true;
+                extras = intent.getExtras();
+            }
+            if (matches(predicate, extras, data)) {
+                passed |= 1L << i;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @param listener 在listenersOf返回的数组中的下标
+     * @param passed match返回的满足的条件
+     * @param intent
+     * @return Listener的所有条件都满足
+     */
+    boolean accepts(int listener, long passed, Intent intent) {
+        if (mListenerMasks != null) {
+            long mask = mListenerMasks[listener];
+            return (passed & mask) == mask;
+        }
+        int[] indexes = mListenerPredicates[listener];
+        if (indexes == null) {
+            return true;
+        }
+        Bundle extras = null;
+        boolean extrasLoaded = false;
+        Uri data = intent.getData();
+        for (int index : indexes) {
+            BroadcastPredicate predicate = mPredicates[index];
+            if (!extrasLoaded && predicate.needsExtras()) {
+                extrasLoaded = true;
+                extras = intent.getExtras();
+            }
+            if (!matches(predicate, extras, data)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只检查一个Listener的条件，比如补发sticky广播时
+     *
+     * @param listener 在listenersOf返回的数组中的下标
+     * @param intent
+     * @return Listener的所有条件都满足
+     */
+    boolean accepts(int listener, Intent intent) {
+        return accepts(listener, match(intent, maskOf(listener)), intent);
+    }
+
+    private static boolean matches(BroadcastPredicate predicate, Bundle extras, Uri data) {
+        try {
+            return predicate.matches(extras, data);
+        } catch (RuntimeException e) {
+            // 其他App发送的extra可能无法反序列化，这时Listener自己读取也会失败
+            BroadcastBridgeLog.w(TAG, "match : %s failed, %s", predicate, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.qiku.broadcasts;
+
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * MergePolicy把一组Listener合并成的receiver，由MergePolicyBase.getPlan和dryRun返回，创建之后不再改变
+ */
+public final class ReceiverPlan {
+
+    /**
+     * 一个receiver，以及注册时使用的IntentFilter的内容
+     */
+    public static final class Receiver {
+        private final CategoryKey mCategory;
+        private final List<String> mActions;
+        private final List<String> mSchemes;
+        private final String mPermission;
+        private final int mPriority;
+        private final List<String> mListeners;
+
+        Receiver(CategoryKey category, List<String> actions, List<String> schemes,
+                 String permission, int priority, List<String> listeners) {
+            mCategory = category;
+            mActions = actions;
+            mSchemes = schemes;
+            mPermission = permission;
+            mPriority = priority;
+            mListeners = listeners;
+        }
+
+        public CategoryKey getCategory() {
+            return mCategory;
+        }
+
+        /**
+         * @return 排序之后的action
+         */
+        public List<String> getActions() {
+            return mActions;
+        }
+
+        /**
+         * @return 排序之后的scheme，不需要scheme时为空列表
+         */
+        public List<String> getSchemes() {
+            return mSchemes;
+        }
+
+        /**
+         * @return 不需要permission时为null
+         */
+        public String getPermission() {
+            return mPermission;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * @return 合并到该receiver中的Listener的名字，按注册顺序排列
+         */
+        public List<String> getListeners() {
+            return mListeners;
+        }
+
+        @Override
+        public String toString() {
+            return mCategory + " : priority=" + mPriority + ", actions=" + mActions +
+                    (mSchemes.isEmpty() ? "" : ", schemes=" + mSchemes) +
+                    (mPermission == null ? "" : ", permission=" + mPermission) +
+                    ", listeners=" + mListeners.size();
+        }
+    }
+
+    private final List<Receiver> mReceivers;
+
+    private final List<String> mRejected;
+
+    private ReceiverPlan(List<Receiver> receivers, List<String> rejected) {
+        mReceivers = receivers;
+        mRejected = rejected;
+    }
+
+    /**
+     * @param policy 计算receiver优先级的Policy
+     * @param categoryToListeners 每个category中的Listener，按注册顺序排列
+     * @param rejected 不能注册的Listener的名字
+     * @return
+     */
+    static ReceiverPlan build(MergePolicyBase policy,
+                              ArrayMap<CategoryKey, List<BroadcastBridge.Listener>> categoryToListeners,
+                              List<String> rejected) {
+        ArrayList<Receiver> receivers = new ArrayList<>(categoryToListeners.size());
+        for (int i = 0; i < categoryToListeners.size(); i++) {
+            List<BroadcastBridge.Listener> listeners = categoryToListeners.valueAt(i);
+            if (listeners.isEmpty()) {
+                continue;
+            }
+            TreeSet<String> actions = new TreeSet<>();
+            TreeSet<String> schemes = new TreeSet<>();
+            String permission = null;
+            int priority = Integer.MIN_VALUE;
+            ArrayList<String> names = new ArrayList<>(listeners.size());
+            for (int j = 0; j < listeners.size(); j++) {
+                BroadcastBridge.Listener listener = listeners.get(j);
+                actions.addAll(listener.getActionList());
+                List<String> listenerSchemes = listener.getDataSchemes();
+                if (listenerSchemes != null) {
+                    schemes.addAll(listenerSchemes);
+                }
+                if (!TextUtils.isEmpty(listener.getBroadcastPermission())) {
+                    permission = listener.getBroadcastPermission();
+                }
+                priority = Math.max(priority, listener.getPriority());
+                names.add(listener.getName());
+            }
+            CategoryKey category = categoryToListeners.keyAt(i);
+            receivers.add(new Receiver(category,
+                    Collections.unmodifiableList(new ArrayList<>(actions)),
+                    Collections.unmodifiableList(new ArrayList<>(schemes)),
+                    permission, policy.receiverPriority(category, priority),
+                    Collections.unmodifiableList(names)));
+        }
+        return new ReceiverPlan(Collections.unmodifiableList(receivers),
+                Collections.unmodifiableList(new ArrayList<>(rejected)));
+    }
+
+    public List<Receiver> getReceivers() {
+        return mReceivers;
+    }
+
+    /**
+     * @return 需要注册到系统中的receiver数量
+     */
+    public int getReceiverCount() {
+        return mReceivers.size();
+    }
+
+    /**
+     * @return 当前Policy不能注册的Listener的名字，比如Policy不支持Listener要求的scheme，或者名字重复
+     */
+    public List<String> getRejected() {
+        return mRejected;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mReceivers.size()).append(" receivers");
+        for (int i = 0; i < mReceivers.size(); i++) {
+            sb.append("\n  ").append(mReceivers.get(i));
+        }
+        if (!mRejected.isEmpty()) {
+            sb.append("\n  rejected : ").append(mRejected);
+        }
+        return sb.toString();
+    }
+}
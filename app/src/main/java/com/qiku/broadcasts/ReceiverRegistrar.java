@@ -0,0 +1,44 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+/**
+ * CategoryReceiver对平台的依赖，包括注册/反注册receiver、创建category的线程和共用的接收线程。
+ *
+ * 默认的实现通过Context注册到系统中；在JVM上运行benchmark或者单元测试时，
+ * 可以替换为不依赖系统服务的实现，合并和分发的逻辑保持不变。
+ */
+public interface ReceiverRegistrar {
+
+    /**
+     * 注册receiver，参数和Context.registerReceiver相同
+     *
+     * @param receiver
+     * @param filter
+     * @param permission 为null时不要求发送方的权限
+     * @param scheduler 为null时在主线程接收广播
+     * @return 匹配的sticky广播，没有时返回null
+     */
+    Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter, String permission,
+                            Handler scheduler);
+
+    void unregisterReceiver(BroadcastReceiver receiver);
+
+    /**
+     * 为category创建独立的线程
+     *
+     * @param category
+     * @return 线程对应的Handler，返回null时ThreadMode.CATEGORY_THREAD的Listener在接收广播的线程中回调
+     */
+    Handler newCategoryHandler(String category);
+
+    /**
+     * 所有Listener都不在主线程回调的receiver共用的接收线程
+     *
+     * @return 线程对应的Handler，返回null时这些receiver也在主线程接收广播
+     */
+    Handler receiverHandler();
+}
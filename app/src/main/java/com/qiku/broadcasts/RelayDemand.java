@@ -0,0 +1,154 @@
+package com.qiku.broadcasts;
+
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 中继模式下secondary进程需要的一个receiver，由primary进程代为注册到系统中。
+ *
+ * 内容和secondary进程中CategoryReceiver注册时使用的IntentFilter一致，创建之后不再改变。
+ * RelayTransport可以通过toBundle和fromBundle在进程之间传递
+ */
+public final class RelayDemand {
+
+    private static final String KEY_NAME = "name";
+    private static final String KEY_ACTIONS = "actions";
+    private static final String KEY_SCHEMES = "schemes";
+    private static final String KEY_TYPES = "types";
+    private static final String KEY_PERMISSION = "permission";
+    private static final String KEY_PRIORITY = "priority";
+
+    private final String mName;
+    private final List<String> mActions;
+    private final List<String> mSchemes;
+    private final List<String> mDataTypes;
+    private final String mPermission;
+    private final int mPriority;
+
+    /**
+     * @param name 在secondary进程中唯一的名字
+     * @param actions
+     * @param schemes 不需要scheme时为空列表
+     * @param permission 不需要permission时为null
+     * @param priority
+     */
+    public RelayDemand(String name, List<String> actions, List<String> schemes,
+                       String permission, int priority) {
+        this(name, actions, schemes, null, permission, priority);
+    }
+
+    /**
+     * @param name 在secondary进程中唯一的名字
+     * @param actions
+     * @param schemes 不需要scheme时为空列表
+     * @param dataTypes 不需要MIME type时为空列表
+     * @param permission 不需要permission时为null
+     * @param priority
+     */
+    public RelayDemand(String name, List<String> actions, List<String> schemes,
+                       List<String> dataTypes, String permission, int priority) {
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("RelayDemand must has a name");
+        }
+        if (actions == null || actions.isEmpty()) {
+            throw new IllegalArgumentException("RelayDemand " + name + " has no actions");
+        }
+        mName = name;
+        mActions = Collections.unmodifiableList(new ArrayList<>(actions));
+        mSchemes = schemes == null ? Collections.<String>emptyList() :
+                Collections.unmodifiableList(new ArrayList<>(schemes));
+        mDataTypes = dataTypes == null ? Collections.<String>emptyList() :
+                Collections.unmodifiableList(new ArrayList<>(dataTypes));
+        mPermission = TextUtils.isEmpty(permission) ? null : permission;
+        mPriority = priority;
+    }
+
+    /**
+     * 根据secondary进程中receiver注册时使用的IntentFilter创建
+     */
+    static RelayDemand of(String name, IntentFilter filter, String permission) {
+        ArrayList<String> schemes = new ArrayList<>(filter.countDataSchemes());
+        for (int i = 0; i < filter.countDataSchemes(); i++) {
+            schemes.add(filter.getDataScheme(i));
+        }
+        return new RelayDemand(name, BroadcastBridgeUtil.actionsOf(filter), schemes,
+                BroadcastBridgeUtil.dataTypesOf(filter), permission, filter.getPriority());
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<String> getActions() {
+        return mActions;
+    }
+
+    public List<String> getSchemes() {
+        return mSchemes;
+    }
+
+    public List<String> getDataTypes() {
+        return mDataTypes;
+    }
+
+    public String getPermission() {
+        return mPermission;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_NAME, mName);
+        bundle.putStringArrayList(KEY_ACTIONS, new ArrayList<>(mActions));
+        bundle.putStringArrayList(KEY_SCHEMES, new ArrayList<>(mSchemes));
+        bundle.putStringArrayList(KEY_TYPES, new ArrayList<>(mDataTypes));
+        bundle.putString(KEY_PERMISSION, mPermission);
+        bundle.putInt(KEY_PRIORITY, mPriority);
+        return bundle;
+    }
+
+    public static RelayDemand fromBundle(Bundle bundle) {
+        return new RelayDemand(bundle.getString(KEY_NAME),
+                bundle.getStringArrayList(KEY_ACTIONS), bundle.getStringArrayList(KEY_SCHEMES),
+                bundle.getStringArrayList(KEY_TYPES), bundle.getString(KEY_PERMISSION),
+                bundle.getInt(KEY_PRIORITY));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RelayDemand)) return false;
+        RelayDemand that = (RelayDemand) o;
+        return mPriority == that.mPriority && mName.equals(that.mName) &&
+                mActions.equals(that.mActions) && mSchemes.equals(that.mSchemes) &&
+                mDataTypes.equals(that.mDataTypes) &&
+                TextUtils.equals(mPermission, that.mPermission);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mName.hashCode();
+        hash = 31 * hash + mActions.hashCode();
+        hash = 31 * hash + mSchemes.hashCode();
+        hash = 31 * hash + mDataTypes.hashCode();
+        hash = 31 * hash + (mPermission == null ? 0 : mPermission.hashCode());
+        hash = 31 * hash + mPriority;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " : priority=" + mPriority + ", actions=" + mActions +
+                (mSchemes.isEmpty() ? "" : ", schemes=" + mSchemes) +
+                (mDataTypes.isEmpty() ? "" : ", types=" + mDataTypes) +
+                (mPermission == null ? "" : ", permission=" + mPermission);
+    }
+}
@@ -0,0 +1,84 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+
+/**
+ * 中继模式下secondary进程使用的ReceiverRegistrar，不注册到系统中，
+ * 只记录每个receiver的IntentFilter，作为需求发送给primary进程。
+ *
+ * CategoryReceiver重新注册时会先反注册再注册，所以只有注册时立即发送需求，
+ * 反注册之后在主线程中延后发送，紧接着的注册会合并这一次发送，primary进程不会先删除再添加同一个receiver。
+ */
+final class RelayReceiverRegistrar implements ReceiverRegistrar {
+
+    private final RelayTransport mTransport;
+
+    /**
+     * 当前所有receiver的需求
+     */
+    private final ArrayMap<BroadcastReceiver, RelayDemand> mDemands = new ArrayMap<>();
+
+    /**
+     * 反注册之后还没有发送需求
+     */
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RelayReceiverRegistrar.this) {
+                if (!mFlushScheduled) {
+                    return;
+                }
+                sendDemand();
+            }
+        }
+    };
+
+    RelayReceiverRegistrar(RelayTransport transport) {
+        mTransport = transport;
+    }
+
+    @Override
+    public synchronized Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                                String permission, Handler scheduler) {
+        String name = receiver instanceof MergePolicyBase.CategoryReceiver ?
+                ((MergePolicyBase.CategoryReceiver) receiver).getTag() : String.valueOf(receiver);
+        mDemands.put(receiver, RelayDemand.of(name, filter, permission));
+        sendDemand();
+        // 广播由primary进程转发，secondary进程没有sticky广播的缓存
+        return null;
+    }
+
+    @Override
+    public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+        if (mDemands.remove(receiver) != null && !mFlushScheduled) {
+            mFlushScheduled = true;
+            BroadcastDispatcher.mainHandler().post(mFlushRunnable);
+        }
+    }
+
+    @Override
+    public Handler newCategoryHandler(String category) {
+        return BroadcastDispatcher.newCategoryHandler(category);
+    }
+
+    @Override
+    public Handler receiverHandler() {
+        return BroadcastDispatcher.receiverHandler();
+    }
+
+    /**
+     * 把当前所有需求发送给primary进程，也在和primary进程重新建立连接之后调用
+     */
+    synchronized void sendDemand() {
+        mFlushScheduled = false;
+        mTransport.sendDemand(new ArrayList<>(mDemands.values()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import java.util.List;
+
+/**
+ * 中继模式下进程之间的通信方式，由App实现，比如基于Messenger、ContentProvider或者LocalSocket。
+ *
+ * 同一个App的多个进程中只有一个primary进程，由RelayTransport负责选举(比如固定为主进程)。
+ * primary进程把所有进程需要的receiver注册到系统中，收到广播后转发给需要该广播的secondary进程；
+ * secondary进程不注册任何receiver，只把自己需要的receiver(RelayDemand)发送给primary进程。
+ *
+ * 回调可以在任意线程中执行。
+ */
+public interface RelayTransport {
+
+    interface Callback {
+
+        /**
+         * primary进程收到secondary进程的需求，替换该进程之前的所有需求。
+         * secondary进程退出或者断开连接时，RelayTransport应该传入空列表
+         *
+         * @param process secondary进程的名字
+         * @param demands
+         */
+        void onDemandChanged(String process, List<RelayDemand> demands);
+
+        /**
+         * secondary进程收到primary进程转发的广播
+         *
+         * @param intent
+         */
+        void onRelayedBroadcast(Intent intent);
+
+        /**
+         * secondary进程和primary进程建立连接(包括primary进程重启之后)，secondary进程会重新发送所有需求
+         */
+        void onPrimaryConnected();
+    }
+
+    /**
+     * @return 当前进程的名字，在App的所有进程中唯一
+     */
+    String getProcessName();
+
+    /**
+     * @return 当前进程是否是primary进程，初始化之后不能改变
+     */
+    boolean isPrimary();
+
+    void setCallback(Callback callback);
+
+    /**
+     * secondary进程调用，把当前进程的所有需求发送给primary进程
+     *
+     * @param demands 为空时表示当前进程不需要任何广播
+     */
+    void sendDemand(List<RelayDemand> demands);
+
+    /**
+     * primary进程调用，把广播转发给secondary进程。不能阻塞调用线程
+     *
+     * @param process secondary进程的名字
+     * @param intent
+     */
+    void relayBroadcast(String process, Intent intent);
+}
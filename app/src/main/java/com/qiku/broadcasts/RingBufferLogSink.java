@@ -0,0 +1,356 @@
+package com.qiku.broadcasts;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 把日志以二进制记录写入固定大小的环形缓冲区的LogSink。
+ *
+ * 写日志的线程只做内存拷贝，不做任何I/O；缓冲区满时覆盖最旧的记录。
+ * 如果指定了Drain，后台线程定期把新的记录读出来交给Drain处理(比如输出到logcat)，
+ * 这样在主线程上打开诊断日志也不会有I/O开销。
+ *
+ * 缓冲区可以放在内存中，也可以映射到文件(memory-mapped)，映射到文件时即使进程崩溃，
+ * 最近的日志也保留在文件中。文件格式:
+ *     header : magic(int) | capacity(int) | head(long) | tail(long)
+ *     data   : 环形区域，每条记录为 length(int) | time(long) | level(byte) | tagLength(short) | tag | message
+ * head/tail是写入和读取位置的累计值，在data中的偏移为 位置 % capacity，字符串使用UTF-8编码。
+ */
+public final class RingBufferLogSink implements BroadcastBridge.LogSink {
+
+    /**
+     * 后台线程读出的日志记录的处理方式
+     */
+    public interface Drain {
+
+        /**
+         * 在后台线程中回调
+         *
+         * @param timeMillis 写入日志时的System.currentTimeMillis()
+         * @param level android.util.Log中定义的级别
+         * @param tag 日志的子标签
+         * @param message 日志内容
+         */
+        void onRecord(long timeMillis, int level, String tag, String message);
+    }
+
+    /**
+     * 在后台线程中把日志输出到logcat
+     */
+    public static final Drain LOGCAT = (timeMillis, level, tag, message) ->
+            Log.println(level, "BroadcastBridge", "[" + tag + "] => " + message);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x42424C47;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final int HEADER_HEAD_OFFSET = 8;
+    private static final int HEADER_TAIL_OFFSET = 16;
+
+    /**
+     * 记录中除length, tag, message之外的固定部分 : time(8) | level(1) | tagLength(2)
+     */
+    private static final int RECORD_FIXED_SIZE = 8 + 1 + 2;
+
+    private static final long DRAIN_INTERVAL_MILLIS = 500;
+
+    private static final String LEVELS = "??VDIWEA";
+
+    private final Object mLock = new Object();
+
+    private final ByteBuffer mBuffer;
+
+    private final int mCapacity;
+
+    private final Drain mDrain;
+
+    /**
+     * 写入位置和读取位置，head - tail 是还没有读出的数据长度
+     */
+    private long mHead;
+    private long mTail;
+
+    /**
+     * 由于缓冲区满而被覆盖的记录数
+     */
+    private long mDropped;
+
+    private volatile boolean mClosed;
+
+    /**
+     * 在内存中创建环形缓冲区
+     *
+     * @param capacityBytes 缓冲区大小
+     * @param drain 后台线程读出日志后的处理方式，为null时日志只保留在缓冲区中，可以通过dump读取
+     */
+    public RingBufferLogSink(int capacityBytes, Drain drain) {
+        this(ByteBuffer.allocateDirect(HEADER_SIZE + capacityBytes), capacityBytes, drain);
+    }
+
+    /**
+     * 把环形缓冲区映射到文件，文件中原有的内容会被覆盖
+     *
+     * @param file 映射的文件，建议放在App私有目录中
+     * @param capacityBytes 缓冲区大小
+     * @param drain 后台线程读出日志后的处理方式，为null时日志只保留在文件中
+     * @throws IOException
+     */
+    public RingBufferLogSink(File file, int capacityBytes, Drain drain) throws IOException {
+        this(mapFile(file, capacityBytes), capacityBytes, drain);
+    }
+
+    private RingBufferLogSink(ByteBuffer buffer, int capacityBytes, Drain drain) {
+        if (capacityBytes <= 4 + RECORD_FIXED_SIZE) {
+            throw new IllegalArgumentException("capacity too small : " + capacityBytes);
+        }
+        mBuffer = buffer;
+        mCapacity = capacityBytes;
+        mDrain = drain;
+
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, mCapacity);
+        writeHeader();
+
+        if (mDrain != null) {
+            Thread thread = new Thread(this::drainLoop, "BroadcastBridge-log");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private static ByteBuffer mapFile(File file, int capacityBytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // 关闭文件之后映射仍然有效
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + capacityBytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public void write(int level, String tag, String message) {
+        if (mClosed) {
+            return;
+        }
+        byte[] tagBytes = tag == null ? new byte[0] : tag.getBytes(UTF_8);
+        byte[] messageBytes = message == null ? new byte[0] : message.getBytes(UTF_8);
+
+        int tagLength = truncate(tagBytes, Short.MAX_VALUE);
+        int maxMessageLength = mCapacity - 4 - RECORD_FIXED_SIZE - tagLength;
+        if (maxMessageLength < 0) {
+            return;
+        }
+        // 单条记录不能超过缓冲区大小，截断消息
+        int messageLength = truncate(messageBytes, maxMessageLength);
+        int bodyLength = RECORD_FIXED_SIZE + tagLength + messageLength;
+        long time = System.currentTimeMillis();
+
+        synchronized (mLock) {
+            // 空间不够时丢弃最旧的记录
+            while (mHead + 4 + bodyLength - mTail > mCapacity) {
+                mTail += 4 + getInt(mTail);
+                mDropped++;
+            }
+
+            long pos = mHead;
+            putInt(pos, bodyLength);
+            pos += 4;
+            putLong(pos, time);
+            pos += 8;
+            putByte(pos, (byte) level);
+            pos += 1;
+            putShort(pos, (short) tagLength);
+            pos += 2;
+            putBytes(pos, tagBytes, tagLength);
+            pos += tagLength;
+            putBytes(pos, messageBytes, messageLength);
+            pos += messageLength;
+
+            mHead = pos;
+            writeHeader();
+        }
+    }
+
+    /**
+     * 由于缓冲区满而被覆盖的记录数
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /**
+     * 把缓冲区中还没有被读出的日志以文本形式输出，不会影响后台线程的读取。
+     * 可以在dumpsys或者问题反馈时调用
+     *
+     * @param writer
+     */
+    public void dump(final PrintWriter writer) {
+        byte[] data;
+        synchronized (mLock) {
+            data = copyUnread();
+            writer.println("BroadcastBridge log : " + mDropped + " records dropped");
+        }
+        decode(data, (timeMillis, level, tag, message) ->
+                writer.println(timeMillis + " " + levelChar(level) + " [" + tag + "] => " +
+                        message));
+    }
+
+    /**
+     * 停止后台线程，之后的日志会被丢弃
+     */
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            byte[] data;
+            synchronized (mLock) {
+                // 写日志的线程不会唤醒后台线程，后台线程定期读取，避免每条日志都产生线程切换
+                while (!mClosed && mHead == mTail) {
+                    try {
+                        mLock.wait(DRAIN_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mClosed) {
+                    return;
+                }
+                data = copyUnread();
+                mTail = mHead;
+                writeHeader();
+            }
+
+            try {
+                decode(data, mDrain);
+            } catch (RuntimeException e) {
+                Log.w("BroadcastBridge", "drain log failed", e);
+            }
+
+            try {
+                Thread.sleep(DRAIN_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private byte[] copyUnread() {
+        int length = (int) (mHead - mTail);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = getByte(mTail + i);
+        }
+        return data;
+    }
+
+    private static void decode(byte[] data, Drain drain) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.remaining() >= 4 + RECORD_FIXED_SIZE) {
+            int bodyLength = buffer.getInt();
+            int start = buffer.position();
+            long time = buffer.getLong();
+            int level = buffer.get();
+            int tagLength = buffer.getShort();
+            String tag = new String(data, buffer.position(), tagLength, UTF_8);
+            int messageOffset = buffer.position() + tagLength;
+            int messageLength = bodyLength - RECORD_FIXED_SIZE - tagLength;
+            String message = new String(data, messageOffset, messageLength, UTF_8);
+            buffer.position(start + bodyLength);
+            drain.onRecord(time, level, tag, message);
+        }
+    }
+
+    /**
+     * 在字符的边界截断UTF-8编码的字符串，不会把一个多字节字符(比如中文)拆开
+     *
+     * @return 截断之后的长度，不超过maxLength
+     */
+    private static int truncate(byte[] utf8, int maxLength) {
+        if (utf8.length <= maxLength) {
+            return utf8.length;
+        }
+        int length = maxLength;
+        // 10xxxxxx是多字节字符的后续字节，说明length处于字符中间
+        while (length > 0 && (utf8[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    private static char levelChar(int level) {
+        return level >= 0 && level < LEVELS.length() ? LEVELS.charAt(level) : '?';
+    }
+
+    private void writeHeader() {
+        mBuffer.putLong(HEADER_HEAD_OFFSET, mHead);
+        mBuffer.putLong(HEADER_TAIL_OFFSET, mTail);
+    }
+
+    private int offsetOf(long pos) {
+        return HEADER_SIZE + (int) (pos % mCapacity);
+    }
+
+    private byte getByte(long pos) {
+        return mBuffer.get(offsetOf(pos));
+    }
+
+    private void putByte(long pos, byte value) {
+        mBuffer.put(offsetOf(pos), value);
+    }
+
+    private int getInt(long pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (getByte(pos + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void putInt(long pos, int value) {
+        for (int i = 3; i >= 0; i--) {
+            putByte(pos + 3 - i, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    private void putShort(long pos, short value) {
+        putByte(pos, (byte) (value >>> 8));
+        putByte(pos + 1, (byte) value);
+    }
+
+    private void putLong(long pos, long value) {
+        for (int i = 7; i >= 0; i--) {
+            putByte(pos + 7 - i, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    private void putBytes(long pos, byte[] src, int length) {
+        int offset = (int) (pos % mCapacity);
+        int first = Math.min(length, mCapacity - offset);
+        for (int i = 0; i < first; i++) {
+            mBuffer.put(HEADER_SIZE + offset + i, src[i]);
+        }
+        for (int i = first; i < length; i++) {
+            mBuffer.put(HEADER_SIZE + i - first, src[i]);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.qiku.broadcasts;
+
+import android.net.Uri;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一个action的所有Listener声明的authority和path前缀编译成的前缀树，由DispatchSnapshot构建，创建之后不再修改。
+ *
+ * 第一层按authority(host或者host:port)查找，第二层按path的字符逐个向下查找，
+ * 经过的每个节点上的Listener都满足条件。匹配的代价只和path的长度有关，和Listener的数量无关，
+ * 上千个Listener合并到同一个receiver中时，不需要逐个比较uri。
+ *
+ * 匹配规则和IntentFilter一致 : host不区分大小写，不带端口的authority匹配所有端口，path前缀按字符串前缀比较。
+ * 以*开头的host匹配以其余部分结尾的host，比如*.example.com匹配a.example.com，单独的*匹配所有host，
+ * 这样的host很少，收到广播时逐个比较。只声明path前缀的Listener匹配所有authority
+ */
+final class UriTrie {
+
+    private static final char[] EMPTY_KEYS = new char[0];
+
+    private static final int[] EMPTY_LISTENERS = new int[0];
+
+    private static final WildcardHost[] EMPTY_WILDCARD_HOSTS = new WildcardHost[0];
+
+    private static final class Node {
+        /**
+         * 构建过程中使用，freeze之后为null
+         */
+        private TreeMap<Character, Node> mBuilding = new TreeMap<>();
+
+        private final ArrayList<Integer> mBuildingListeners = new ArrayList<>(1);
+
+        /**
+         * 排序之后的下一个字符，和mChildren一一对应
+         */
+        private char[] mKeys = EMPTY_KEYS;
+
+        private Node[] mChildren;
+
+        /**
+         * path前缀在当前节点结束的Listener的下标
+         */
+        private int[] mListeners = EMPTY_LISTENERS;
+
+        Node child(char c, boolean create) {
+            if (mBuilding == null) {
+                int index = Arrays.binarySearch(mKeys, c);
+                return index < 0 ? null : mChildren[index];
+            }
+            Node child = mBuilding.get(c);
+            if (child == null && create) {
+                child = new Node();
+                mBuilding.put(c, child);
+            }
+            return child;
+        }
+
+        void add(String path, int listener) {
+            Node node = this;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.child(path.charAt(i), true);
+            }
+            node.mBuildingListeners.add(listener);
+        }
+
+        void freeze() {
+            mKeys = new char[mBuilding.size()];
+            mChildren = new Node[mBuilding.size()];
+            int i = 0;
+            for (Map.Entry<Character, Node> entry : mBuilding.entrySet()) {
+                mKeys[i] = entry.getKey();
+                mChildren[i] = entry.getValue();
+                mChildren[i].freeze();
+                i++;
+            }
+            mBuilding = null;
+            if (!mBuildingListeners.isEmpty()) {
+                mListeners = new int[mBuildingListeners.size()];
+                for (int j = 0; j < mListeners.length; j++) {
+                    mListeners[j] = mBuildingListeners.get(j);
+                }
+            }
+            mBuildingListeners.clear();
+        }
+
+        /**
+         * 沿着path向下查找，标记经过的所有节点上的Listener
+         */
+        void collect(String path, boolean[] accepted) {
+            Node node = this;
+            int i = 0;
+            while (true) {
+                for (int listener : node.mListeners) {
+                    accepted[listener] = true;
+                }
+                if (i == path.length()) {
+                    return;
+                }
+                node = node.child(path.charAt(i++), false);
+                if (node == null) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 以*开头的host，和IntentFilter.AuthorityEntry一样匹配以mSuffix结尾的host
+     */
+    private static final class WildcardHost {
+        final String mSuffix;
+        final int mPort;
+        final Node mRoot = new Node();
+
+        /**
+         * @param authority 小写的*host或者*host:port
+         */
+        WildcardHost(String authority) {
+            int colon = portSeparatorOf(authority);
+            if (colon < 0) {
+                mSuffix = authority.substring(1);
+                mPort = -1;
+            } else {
+                mSuffix = authority.substring(1, colon);
+                mPort = Integer.parseInt(authority.substring(colon + 1));
+            }
+        }
+
+        boolean matches(String host, int port) {
+            return host.endsWith(mSuffix) && (mPort < 0 || mPort == port);
+        }
+    }
+
+    /**
+     * 没有声明authority和path前缀的Listener，总是满足条件
+     */
+    private final boolean[] mUnconstrained;
+
+    private final ArrayMap<String, Node> mAuthorities;
+
+    private final WildcardHost[] mWildcardHosts;
+
+    /**
+     * 只声明了path前缀的Listener，没有时为null
+     */
+    private final Node mAnyAuthority;
+
+    private UriTrie(boolean[] unconstrained, ArrayMap<String, Node> authorities,
+                    WildcardHost[] wildcardHosts, Node anyAuthority) {
+        mUnconstrained = unconstrained;
+        mAuthorities = authorities;
+        mWildcardHosts = wildcardHosts;
+        mAnyAuthority = anyAuthority;
+    }
+
+    /**
+     * @param listeners 监听同一个action的Listener
+     * @return 所有Listener都没有声明authority和path前缀时返回null
+     */
+    static UriTrie build(BroadcastBridge.Listener[] listeners) {
+        boolean[] unconstrained = new boolean[listeners.length];
+        ArrayMap<String, Node> authorities = new ArrayMap<>();
+        ArrayMap<String, WildcardHost> wildcardHosts = new ArrayMap<>();
+        Node anyAuthority = null;
+        boolean constrained = false;
+        for (int i = 0; i < listeners.length; i++) {
+            List<String> hosts = listeners[i].getDataAuthorities();
+            List<String> paths = listeners[i].getDataPathPrefixes();
+            boolean hasHosts = hosts != null && !hosts.isEmpty();
+            boolean hasPaths = paths != null && !paths.isEmpty();
+            if (!hasHosts && !hasPaths) {
+                unconstrained[i] = true;
+                continue;
+            }
+            constrained = true;
+            if (!hasHosts) {
+                if (anyAuthority == null) {
+                    anyAuthority = new Node();
+                }
+                addPaths(anyAuthority, paths, i);
+                continue;
+            }
+            for (String host : hosts) {
+                host = host.toLowerCase(Locale.ROOT);
+                Node root;
+                if (host.startsWith("*")) {
+                    WildcardHost wildcard = wildcardHosts.get(host);
+                    if (wildcard == null) {
+                        wildcard = new WildcardHost(host);
+                        wildcardHosts.put(host, wildcard);
+                    }
+                    root = wildcard.mRoot;
+                } else {
+                    root = authorities.get(host);
+                    if (root == null) {
+                        root = new Node();
+                        authorities.put(host, root);
+                    }
+                }
+                if (hasPaths) {
+                    addPaths(root, paths, i);
+                } else {
+                    root.add("", i);
+                }
+            }
+        }
+        if (!constrained) {
+            return null;
+        }
+        for (int i = 0; i < authorities.size(); i++) {
+            authorities.valueAt(i).freeze();
+        }
+        WildcardHost[] wildcards = EMPTY_WILDCARD_HOSTS;
+        if (!wildcardHosts.isEmpty()) {
+            wildcards = new WildcardHost[wildcardHosts.size()];
+            for (int i = 0; i < wildcards.length; i++) {
+                wildcards[i] = wildcardHosts.valueAt(i);
+                wildcards[i].mRoot.freeze();
+            }
+        }
+        if (anyAuthority != null) {
+            anyAuthority.freeze();
+        }
+        return new UriTrie(unconstrained, authorities, wildcards, anyAuthority);
+    }
+
+    /**
+     * @param authority host或者host:port，host可以以*开头
+     * @return authority的格式是否正确，端口必须是数字
+     */
+    static boolean isValidAuthority(String authority) {
+        if (authority == null || authority.isEmpty()) {
+            return false;
+        }
+        int colon = portSeparatorOf(authority);
+        if (colon < 0) {
+            return true;
+        }
+        if (colon == 0 || colon == authority.length() - 1) {
+            return false;
+        }
+        for (int i = colon + 1; i < authority.length(); i++) {
+            if (authority.charAt(i) < '0' || authority.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return host和port之间的冒号的位置，没有端口时为-1。IPv6地址用[]括起来，其中的冒号不是分隔符
+     */
+    private static int portSeparatorOf(String authority) {
+        int colon = authority.lastIndexOf(':');
+        return colon < authority.lastIndexOf(']') ? -1 : colon;
+    }
+
+    private static void addPaths(Node root, List<String> paths, int listener) {
+        for (String path : paths) {
+            root.add(path, listener);
+        }
+    }
+
+    /**
+     * @param data 广播中的data
+     * @return 和listenersOf返回的数组一一对应，Listener的authority和path前缀满足条件时为true
+     */
+    boolean[] match(Uri data) {
+        boolean[] accepted = mUnconstrained.clone();
+        if (data == null) {
+            return accepted;
+        }
+        String path = data.getPath();
+        if (path == null) {
+            path = "";
+        }
+        String host = data.getHost();
+        if (host != null) {
+            // host已经是小写时toLowerCase不会创建新的字符串
+            host = host.toLowerCase(Locale.ROOT);
+            Node root = mAuthorities.get(host);
+            if (root != null) {
+                root.collect(path, accepted);
+            }
+            int port = data.getPort();
+            if (port >= 0) {
+                root = mAuthorities.get(host + ":" + port);
+                if (root != null) {
+                    root.collect(path, accepted);
+                }
+            }
+            for (WildcardHost wildcard : mWildcardHosts) {
+                if (wildcard.matches(host, port)) {
+                    wildcard.mRoot.collect(path, accepted);
+                }
+            }
+        }
+        if (mAnyAuthority != null) {
+            mAnyAuthority.collect(path, accepted);
+        }
+        return accepted;
+    }
+}
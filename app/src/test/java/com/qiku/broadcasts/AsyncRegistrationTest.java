@@ -0,0 +1,117 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class AsyncRegistrationTest {
+
+    /**
+     * 注册监听TIME_TICK的receiver时失败，模拟超过系统的receiver数量上限
+     */
+    static final class FailingContext extends RecordingContext {
+
+        FailingContext() {
+            super(RuntimeEnvironment.application);
+        }
+
+        @Override
+        public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                       String permission, Handler scheduler) {
+            if (filter.hasAction(Intent.ACTION_TIME_TICK)) {
+                throw new IllegalStateException("Too many receivers");
+            }
+            return super.registerReceiver(receiver, filter, permission, scheduler);
+        }
+    }
+
+    @Test
+    public void failuresAreReportedPerListener() throws Exception {
+        FailingContext context = new FailingContext();
+        BroadcastBridge bridge = new BroadcastBridge();
+        bridge.init(context, new MergePolicyAuto(context, BroadcastBridge.MERGE_AUTO));
+
+        BroadcastBridge.Listener broken = new TestListeners.TestListener("broken", 0,
+                Intent.ACTION_SCREEN_ON) {
+            @Override
+            public List<String> getDataSchemes() {
+                throw new IllegalStateException("broken listener");
+            }
+        };
+        Future<Boolean> brokenResult = bridge.registerListenerAsync(broken);
+        Future<Boolean> timeResult = bridge.registerListenerAsync(
+                new TestListeners.TestListener("time", 0, Intent.ACTION_TIME_TICK));
+        Future<Boolean> batteryResult = bridge.registerListenerAsync(
+                new TestListeners.TestListener("battery", 0, Intent.ACTION_BATTERY_LOW));
+
+        assertFalse(brokenResult.get(5, TimeUnit.SECONDS));
+        assertFalse(timeResult.get(5, TimeUnit.SECONDS));
+        assertTrue(batteryResult.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unregisterCancelsDrainingRegistration() throws Exception {
+        RecordingContext context = new RecordingContext(RuntimeEnvironment.application);
+        MergePolicyAuto policy = new MergePolicyAuto(context, BroadcastBridge.MERGE_AUTO);
+        BroadcastBridge bridge = new BroadcastBridge();
+        bridge.init(context, policy);
+        BroadcastBridge.Listener listener = new TestListeners.TestListener("screen", 0,
+                Intent.ACTION_SCREEN_ON);
+
+        Future<Boolean> result;
+        synchronized (policy) {
+            result = bridge.registerListenerAsync(listener);
+            // 注册线程已经取出等待队列，在Policy的锁上等待
+            awaitBlockedThread("BroadcastBridge-register");
+            assertTrue(bridge.unregisterListener(listener));
+        }
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("registration should be cancelled");
+        } catch (CancellationException expected) {
+        }
+        // 等待注册线程处理完这一批Listener
+        bridge.registerListenerAsync(new TestListeners.TestListener("battery", 0,
+                Intent.ACTION_BATTERY_LOW)).get(5, TimeUnit.SECONDS);
+        assertFalse(policy.isListenerLive(listener));
+        // 只剩下battery的receiver
+        assertEquals(1, context.getLiveReceiverCount());
+    }
+
+    /**
+     * 其他测试中的BroadcastBridge也有同名的注册线程，等待其中一个在锁上阻塞
+     */
+    private static void awaitBlockedThread(String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (name.equals(thread.getName()) &&
+                        thread.getState() == Thread.State.BLOCKED) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail(name + " is not blocked");
+    }
+}
@@ -0,0 +1,129 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class BackgroundModeTest {
+
+    static final class CriticalListener extends CountingListener {
+
+        CriticalListener(String name, String... actions) {
+            super(name, actions);
+        }
+
+        @Override
+        public Criticality getCriticality() {
+            return Criticality.CRITICAL;
+        }
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    private CriticalListener mBatteryLow;
+    private CountingListener mBatteryChanged;
+    private CountingListener mTimeTick;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+        mBatteryLow = new CriticalListener("battery-low", Intent.ACTION_BATTERY_LOW);
+        mBatteryChanged = new CountingListener("battery-changed", Intent.ACTION_BATTERY_CHANGED);
+        mTimeTick = new CountingListener("time-tick", Intent.ACTION_TIME_TICK);
+        mPolicy.registerListener(mBatteryLow);
+        mPolicy.registerListener(mBatteryChanged);
+        mPolicy.registerListener(mTimeTick);
+    }
+
+    @After
+    public void tearDown() {
+        assertEquals(0, mContext.getMismatchCount());
+    }
+
+    private MergePolicyBase.CategoryReceiver receiverOf(String category) {
+        return mPolicy.getCategoryReceiver(CategoryKey.of(category));
+    }
+
+    @Test
+    public void backgroundKeepsOnlyCriticalActions() {
+        mContext.resetCounts();
+
+        mPolicy.setBackground(true);
+        // battery重新注册一次，time只剩下NORMAL的action，直接反注册
+        assertEquals(1, mContext.getRegisterCount());
+        assertEquals(2, mContext.getUnregisterCount());
+        assertEquals(1, mContext.getLiveReceiverCount());
+        assertTrue(receiverOf("battery").getFilter().hasAction(Intent.ACTION_BATTERY_LOW));
+        assertFalse(receiverOf("battery").getFilter().hasAction(Intent.ACTION_BATTERY_CHANGED));
+
+        receiverOf("battery").onReceive(mContext, new Intent(Intent.ACTION_BATTERY_LOW));
+        receiverOf("battery").onReceive(mContext, new Intent(Intent.ACTION_BATTERY_CHANGED));
+        assertEquals(1, mBatteryLow.mReceived);
+        assertEquals(0, mBatteryChanged.mReceived);
+
+        mContext.resetCounts();
+        mPolicy.setBackground(false);
+        assertEquals(2, mContext.getRegisterCount());
+        assertEquals(2, mContext.getLiveReceiverCount());
+        assertTrue(receiverOf("battery").getFilter().hasAction(Intent.ACTION_BATTERY_CHANGED));
+        assertTrue(receiverOf("time").getFilter().hasAction(Intent.ACTION_TIME_TICK));
+
+        receiverOf("time").onReceive(mContext, new Intent(Intent.ACTION_TIME_TICK));
+        assertEquals(1, mTimeTick.mReceived);
+    }
+
+    @Test
+    public void registerInBackgroundIsPaused() {
+        mPolicy.setBackground(true);
+        mContext.resetCounts();
+
+        CountingListener screen = new CountingListener("screen-off", Intent.ACTION_SCREEN_OFF);
+        mPolicy.registerListener(screen);
+        assertEquals(0, mContext.getRegisterCount());
+
+        mPolicy.setBackground(false);
+        assertTrue(receiverOf("keyguard").getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+        receiverOf("keyguard").onReceive(mContext, new Intent(Intent.ACTION_SCREEN_OFF));
+        assertEquals(1, screen.mReceived);
+    }
+
+    @Test
+    public void backgroundRemovesScopePausedActionsImmediately() {
+        BroadcastBridge bridge = new BroadcastBridge();
+        bridge.init(mContext, mPolicy);
+        ListenerScope scope = new ListenerScope(bridge);
+        CriticalListener scoped = new CriticalListener("scoped", Intent.ACTION_SCREEN_OFF);
+        scope.add(scoped);
+        scope.start();
+        scope.stop();
+        assertTrue(receiverOf("keyguard").getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+
+        // 不等待ListenerScope的延迟删除
+        bridge.setInBackground(true);
+        assertFalse(receiverOf("keyguard").getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+        assertEquals(1, mContext.getLiveReceiverCount());
+
+        // 回到前台时停止的ListenerScope仍然暂停
+        bridge.setInBackground(false);
+        assertFalse(receiverOf("keyguard").getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+        assertEquals(2, mContext.getLiveReceiverCount());
+        scope.start();
+        assertTrue(receiverOf("keyguard").getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+    }
+}
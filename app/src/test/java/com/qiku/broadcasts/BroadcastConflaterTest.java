@@ -0,0 +1,162 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class BroadcastConflaterTest {
+
+    private static final String ACTION = "com.qiku.test.ACTION_CONFLATE";
+    private static final String EXTRA_SEQ = "seq";
+    private static final long WINDOW = 100;
+
+    /**
+     * 在调用线程中回调，记录收到的广播序号，窗口结束时在timer线程中回调
+     */
+    private static final class SeqListener extends BroadcastBridge.Listener {
+        private final List<Integer> mReceived = new ArrayList<>();
+
+        SeqListener() {
+            super("conflate", 0, ACTION);
+        }
+
+        @Override
+        public ThreadMode getThreadMode() {
+            return ThreadMode.POSTING;
+        }
+
+        @Override
+        public long getConflateWindowMillis() {
+            return WINDOW;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            synchronized (mReceived) {
+                mReceived.add(intent.getIntExtra(EXTRA_SEQ, -1));
+            }
+        }
+
+        List<Integer> received() {
+            synchronized (mReceived) {
+                return new ArrayList<>(mReceived);
+            }
+        }
+    }
+
+    private SeqListener mListener;
+    private BroadcastConflater mConflater;
+
+    @Before
+    public void setUp() {
+        mListener = new SeqListener();
+        mConflater = new BroadcastConflater(mListener, WINDOW);
+        mListener.mConflater = mConflater;
+    }
+
+    @After
+    public void tearDown() {
+        mConflater.cancel();
+    }
+
+    private void send(int seq) {
+        BroadcastDispatcher.deliver(mListener, new Intent(ACTION).putExtra(EXTRA_SEQ, seq),
+                null, null, System.nanoTime());
+    }
+
+    /**
+     * 推进Robolectric的时钟，等待timer线程处理完已经到期的消息
+     */
+    private static void advance(long millis) throws InterruptedException {
+        ShadowSystemClock.advanceBy(Duration.ofMillis(millis));
+        CountDownLatch latch = new CountDownLatch(1);
+        BroadcastDispatcher.timerHandler().post(latch::countDown);
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("timer thread is busy");
+        }
+    }
+
+    @Test
+    public void leadingEdgeDeliveredImmediately() {
+        // 第一个广播在send中直接回调，窗口内的广播被合并
+        send(1);
+        assertEquals(Arrays.asList(1), mListener.received());
+        send(2);
+        assertEquals(Arrays.asList(1), mListener.received());
+        assertFalse(mConflater.offer(new Intent(ACTION), null, null, 0));
+    }
+
+    @Test
+    public void trailingDeliversOnlyNewest() throws InterruptedException {
+        send(1);
+        send(2);
+        send(3);
+        send(4);
+        assertEquals(Arrays.asList(1), mListener.received());
+
+        advance(WINDOW - 1);
+        assertEquals(Arrays.asList(1), mListener.received());
+
+        advance(1);
+        assertEquals(Arrays.asList(1, 4), mListener.received());
+
+        // 没有新的广播时不会再次投递
+        advance(WINDOW * 3);
+        assertEquals(Arrays.asList(1, 4), mListener.received());
+    }
+
+    @Test
+    public void windowRestartsAfterTrailingDelivery() throws InterruptedException {
+        send(1);
+        send(2);
+        advance(WINDOW);
+        assertEquals(Arrays.asList(1, 2), mListener.received());
+
+        // trailing投递开始了新的窗口，窗口内的广播仍然被合并
+        advance(WINDOW / 2);
+        send(3);
+        assertEquals(Arrays.asList(1, 2), mListener.received());
+        advance(WINDOW / 2);
+        assertEquals(Arrays.asList(1, 2, 3), mListener.received());
+
+        // 窗口结束之后没有pending的广播，下一个广播立即投递
+        advance(WINDOW);
+        send(4);
+        assertEquals(Arrays.asList(1, 2, 3, 4), mListener.received());
+    }
+
+    @Test
+    public void idleWindowDeliversNextImmediately() throws InterruptedException {
+        send(1);
+        advance(WINDOW);
+        send(2);
+        assertEquals(Arrays.asList(1, 2), mListener.received());
+    }
+
+    @Test
+    public void cancelDropsPending() throws InterruptedException {
+        send(1);
+        send(2);
+        mConflater.cancel();
+        advance(WINDOW * 2);
+        assertEquals(Arrays.asList(1), mListener.received());
+    }
+}
@@ -0,0 +1,139 @@
+package com.qiku.broadcasts;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class BroadcastPayloadsTest {
+
+    private static final String ACTION_PAYLOAD = "com.qiku.test.ACTION_PAYLOAD";
+
+    static final class PayloadListener extends TestListeners.TestListener {
+        final List<Object> mPayloads = new ArrayList<>();
+
+        PayloadListener(String name) {
+            super(name, 0, null, null, ThreadMode.POSTING, ACTION_PAYLOAD);
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mPayloads.add(BroadcastPayloads.get(intent, StringBuilder.class));
+        }
+    }
+
+    @Test
+    public void decodedOncePerDelivery() {
+        final int[] decodes = new int[1];
+        BroadcastPayloads.register(ACTION_PAYLOAD, StringBuilder.class,
+                new BroadcastPayloads.Decoder<StringBuilder>() {
+                    @Override
+                    public StringBuilder decode(Context context, Intent intent) {
+                        decodes[0]++;
+                        return new StringBuilder(intent.getStringExtra("value"));
+                    }
+                });
+        RecordingContext context = new RecordingContext(RuntimeEnvironment.application);
+        MergePolicyAuto policy = new MergePolicyAuto(context, BroadcastBridge.MERGE_AUTO);
+        PayloadListener[] listeners = new PayloadListener[5];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new PayloadListener("payload-" + i);
+            policy.registerListener(listeners[i]);
+        }
+        MergePolicyBase.CategoryReceiver receiver =
+                policy.getCategoryReceiver(policy.categoryOf(listeners[0]));
+
+        receiver.onReceive(context, new Intent(ACTION_PAYLOAD).putExtra("value", "a"));
+        assertEquals(1, decodes[0]);
+        receiver.onReceive(context, new Intent(ACTION_PAYLOAD).putExtra("value", "b"));
+        assertEquals(2, decodes[0]);
+
+        for (PayloadListener listener : listeners) {
+            assertSame(listeners[0].mPayloads.get(0), listener.mPayloads.get(0));
+            assertEquals("b", listener.mPayloads.get(1).toString());
+        }
+        // 类型不匹配时不解码
+        assertNull(BroadcastPayloads.get(new Intent(ACTION_PAYLOAD), Integer.class));
+        assertEquals(2, decodes[0]);
+
+        // 复用同一个Intent再次分发时重新解码，不会拿到上一次的结果
+        Intent reused = new Intent(ACTION_PAYLOAD).putExtra("value", "c");
+        assertEquals(5, policy.sendLocal(reused));
+        reused.putExtra("value", "d");
+        assertEquals(5, policy.sendLocal(reused));
+        assertEquals(4, decodes[0]);
+        for (PayloadListener listener : listeners) {
+            assertEquals("c", listener.mPayloads.get(2).toString());
+            assertEquals("d", listener.mPayloads.get(3).toString());
+        }
+    }
+
+    @Test
+    public void batteryState() {
+        Intent intent = new Intent(Intent.ACTION_BATTERY_CHANGED)
+                .putExtra(BatteryManager.EXTRA_LEVEL, 30)
+                .putExtra(BatteryManager.EXTRA_SCALE, 60)
+                .putExtra(BatteryManager.EXTRA_STATUS, BatteryManager.BATTERY_STATUS_CHARGING)
+                .putExtra(BatteryManager.EXTRA_PLUGGED, BatteryManager.BATTERY_PLUGGED_AC);
+        BatteryState state = BatteryState.from(intent);
+
+        assertEquals(50, state.getPercent());
+        assertTrue(state.isCharging());
+        assertTrue(state.isPlugged());
+        assertNull(BatteryState.from(new Intent(Intent.ACTION_SCREEN_ON)));
+    }
+
+    @Test
+    public void networkStateWithoutContextUsesExtras() {
+        BroadcastPayloads.setContext(null);
+        NetworkState state = NetworkState.from(new Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+                .putExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, true)
+                .putExtra(ConnectivityManager.EXTRA_NETWORK_TYPE, ConnectivityManager.TYPE_WIFI));
+
+        // extra和广播中一致，不会被当前网络的查询结果覆盖
+        assertFalse(state.isConnected());
+        assertEquals(ConnectivityManager.TYPE_WIFI, state.getType());
+        assertTrue(state.isWifi());
+        assertNull(state.getActiveNetwork());
+    }
+
+    @Test
+    public void activeNetworkQueriedOnlyWhenAsked() {
+        final int[] queries = new int[1];
+        BroadcastPayloads.setContext(new ContextWrapper(RuntimeEnvironment.application) {
+            @Override
+            public Object getSystemService(String name) {
+                queries[0]++;
+                return null;
+            }
+        });
+        NetworkState state = NetworkState.from(new Intent(ConnectivityManager.CONNECTIVITY_ACTION)
+                .putExtra(ConnectivityManager.EXTRA_NETWORK_TYPE, ConnectivityManager.TYPE_MOBILE));
+
+        assertTrue(state.isConnected());
+        assertEquals(ConnectivityManager.TYPE_MOBILE, state.getType());
+        assertEquals(0, queries[0]);
+        assertNull(state.getActiveNetwork());
+        assertNull(state.getActiveNetwork());
+        assertEquals(1, queries[0]);
+        BroadcastPayloads.setContext(null);
+    }
+}
@@ -0,0 +1,180 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class BroadcastPredicateTest {
+
+    private static final String ACTION_TYPED = "com.qiku.test.ACTION_TYPED";
+
+    private static final String EXTRA_TYPE = "type";
+
+    static final class PredicateListener extends TestListeners.TestListener {
+        private final List<BroadcastPredicate> mPredicates;
+        int mReceived;
+
+        PredicateListener(String name, List<String> schemes, List<BroadcastPredicate> predicates,
+                          String... actions) {
+            super(name, 0, schemes, null, ThreadMode.POSTING, actions);
+            mPredicates = predicates;
+        }
+
+        @Override
+        public List<BroadcastPredicate> getPredicates() {
+            return mPredicates;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mReceived++;
+        }
+    }
+
+    /**
+     * 记录getExtras的调用次数，每次调用都会复制Bundle
+     */
+    static final class CountingIntent extends Intent {
+        int mGetExtras;
+
+        CountingIntent(String action) {
+            super(action);
+        }
+
+        @Override
+        public Bundle getExtras() {
+            mGetExtras++;
+            return super.getExtras();
+        }
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+    }
+
+    @Test
+    public void nonMatchingListenersAreNotCalled() {
+        PredicateListener wifi = new PredicateListener("wifi", null,
+                Collections.singletonList(BroadcastPredicate.extraEquals(EXTRA_TYPE, 1)),
+                ACTION_TYPED);
+        PredicateListener wifiAgain = new PredicateListener("wifi-again", null,
+                Collections.singletonList(BroadcastPredicate.extraEquals(EXTRA_TYPE, 1)),
+                ACTION_TYPED);
+        PredicateListener mobileOrWifi = new PredicateListener("mobile-or-wifi", null,
+                Arrays.asList(BroadcastPredicate.extraIn(EXTRA_TYPE, 0, 1),
+                        BroadcastPredicate.hasExtra("reason")), ACTION_TYPED);
+        PredicateListener all = new PredicateListener("all", null, null, ACTION_TYPED);
+        mPolicy.registerListener(wifi);
+        mPolicy.registerListener(wifiAgain);
+        mPolicy.registerListener(mobileOrWifi);
+        mPolicy.registerListener(all);
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(CategoryKey.of(ACTION_TYPED));
+
+        CountingIntent intent = new CountingIntent(ACTION_TYPED);
+        intent.putExtra(EXTRA_TYPE, 1);
+        receiver.onReceive(mContext, intent);
+        // 相同的extra只取出一次
+        assertEquals(1, intent.mGetExtras);
+
+        receiver.onReceive(mContext, new Intent(ACTION_TYPED).putExtra(EXTRA_TYPE, 0)
+                .putExtra("reason", "test"));
+        receiver.onReceive(mContext, new Intent(ACTION_TYPED));
+
+        assertEquals(1, wifi.mReceived);
+        assertEquals(1, wifiAgain.mReceived);
+        assertEquals(1, mobileOrWifi.mReceived);
+        assertEquals(3, all.mReceived);
+    }
+
+    @Test
+    public void schemeSpecificPartSelectsPackage() {
+        List<String> schemes = Collections.singletonList("package");
+        PredicateListener own = new PredicateListener("own-package", schemes,
+                Collections.singletonList(
+                        BroadcastPredicate.schemeSpecificPart("com.qiku.app")),
+                Intent.ACTION_PACKAGE_ADDED);
+        PredicateListener any = new PredicateListener("any-package", schemes, null,
+                Intent.ACTION_PACKAGE_ADDED);
+        mPolicy.registerListener(own);
+        mPolicy.registerListener(any);
+
+        assertEquals(2, mPolicy.sendLocal(new Intent(Intent.ACTION_PACKAGE_ADDED,
+                Uri.parse("package:com.qiku.app"))));
+        assertEquals(1, mPolicy.sendLocal(new Intent(Intent.ACTION_PACKAGE_ADDED,
+                Uri.parse("package:com.other.app"))));
+        assertEquals(1, own.mReceived);
+        assertEquals(2, any.mReceived);
+    }
+
+    @Test
+    public void filteredListenersSkipPredicates() {
+        PredicateListener typed = new PredicateListener("package-typed",
+                Collections.singletonList("package"),
+                Collections.singletonList(BroadcastPredicate.extraEquals(EXTRA_TYPE, 1)),
+                ACTION_TYPED);
+        PredicateListener content = new PredicateListener("content",
+                Collections.singletonList("content"), null, ACTION_TYPED);
+        mPolicy.registerListener(typed);
+        mPolicy.registerListener(content);
+
+        CountingIntent intent = new CountingIntent(ACTION_TYPED);
+        intent.setData(Uri.parse("content://a.b.c/d"));
+        intent.putExtra(EXTRA_TYPE, 1);
+        assertEquals(1, mPolicy.sendLocal(intent));
+        // scheme不匹配的Listener不会被回调，不需要检查它的条件
+        assertEquals(0, intent.mGetExtras);
+        assertEquals(0, typed.mReceived);
+        assertEquals(1, content.mReceived);
+    }
+
+    @Test
+    public void manyPredicatesMatchedOneByOne() {
+        PredicateListener[] listeners = new PredicateListener[70];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new PredicateListener("typed-" + i, null,
+                    Collections.singletonList(BroadcastPredicate.extraEquals(EXTRA_TYPE, i)),
+                    ACTION_TYPED);
+            mPolicy.registerListener(listeners[i]);
+        }
+
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_TYPED).putExtra(EXTRA_TYPE, 3)));
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_TYPED).putExtra(EXTRA_TYPE, 66)));
+        assertEquals(1, listeners[3].mReceived);
+        assertEquals(1, listeners[66].mReceived);
+        assertEquals(0, listeners[4].mReceived);
+    }
+
+    @Test
+    public void equalPredicatesAreShared() {
+        assertEquals(BroadcastPredicate.extraEquals(EXTRA_TYPE, 1),
+                BroadcastPredicate.extraIn(EXTRA_TYPE, 1));
+        assertEquals(BroadcastPredicate.hasExtra(EXTRA_TYPE).hashCode(),
+                BroadcastPredicate.hasExtra(EXTRA_TYPE).hashCode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void extraInNeedsValues() {
+        BroadcastPredicate.extraIn(EXTRA_TYPE);
+    }
+}
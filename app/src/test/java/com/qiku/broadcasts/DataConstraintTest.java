@@ -0,0 +1,174 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class DataConstraintTest {
+
+    private static final String ACTION_DATA = "com.qiku.test.ACTION_DATA";
+
+    private static final List<String> CONTENT = Collections.singletonList("content");
+
+    static final class DataListener extends TestListeners.TestListener {
+        private final List<String> mAuthorities;
+        private final List<String> mPaths;
+        private final List<String> mTypes;
+        int mReceived;
+
+        DataListener(String name, List<String> schemes, List<String> authorities,
+                     List<String> paths, List<String> types) {
+            super(name, 0, schemes, null, ThreadMode.POSTING, ACTION_DATA);
+            mAuthorities = authorities;
+            mPaths = paths;
+            mTypes = types;
+        }
+
+        @Override
+        public List<String> getDataAuthorities() {
+            return mAuthorities;
+        }
+
+        @Override
+        public List<String> getDataPathPrefixes() {
+            return mPaths;
+        }
+
+        @Override
+        public List<String> getDataTypes() {
+            return mTypes;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mReceived++;
+        }
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+    }
+
+    @Test
+    public void onlyMatchingListenersAreCalled() {
+        DataListener[] hosts = new DataListener[1000];
+        mPolicy.beginBatch();
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = new DataListener("host-" + i, CONTENT,
+                    Collections.singletonList("a" + i + ".b.c"),
+                    Collections.singletonList("/d" + i), null);
+            mPolicy.registerListener(hosts[i]);
+        }
+        DataListener anyPath = new DataListener("any-path", CONTENT,
+                Collections.singletonList("a5.b.c"), null, null);
+        DataListener port = new DataListener("port", CONTENT,
+                Collections.singletonList("a5.b.c:8080"), null, null);
+        DataListener anyHost = new DataListener("any-host", CONTENT, null,
+                Collections.singletonList("/d5/"), null);
+        DataListener all = new DataListener("all", CONTENT, null, null, null);
+        mPolicy.registerListener(anyPath);
+        mPolicy.registerListener(port);
+        mPolicy.registerListener(anyHost);
+        mPolicy.registerListener(all);
+        mPolicy.commitBatch();
+        // authority和path不加入IntentFilter，所有Listener仍然共用一个receiver
+        assertEquals(1, mContext.getLiveReceiverCount());
+
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(mPolicy.categoryOf(all));
+        receiver.onReceive(mContext, new Intent(ACTION_DATA,
+                Uri.parse("content://a5.b.c/d5/x")));
+        receiver.onReceive(mContext, new Intent(ACTION_DATA,
+                Uri.parse("content://a5.b.c:8080/e")));
+        receiver.onReceive(mContext, new Intent(ACTION_DATA,
+                Uri.parse("content://a6.b.c/d5")));
+
+        assertEquals(1, hosts[5].mReceived);
+        assertEquals(0, hosts[6].mReceived);
+        assertEquals(0, hosts[50].mReceived);
+        assertEquals(2, anyPath.mReceived);
+        assertEquals(1, port.mReceived);
+        assertEquals(1, anyHost.mReceived);
+        assertEquals(3, all.mReceived);
+    }
+
+    @Test
+    public void typedListenersUseOwnReceiver() {
+        DataListener images = new DataListener("images", CONTENT, null, null,
+                Collections.singletonList("image/*"));
+        DataListener plain = new DataListener("plain", CONTENT, null, null, null);
+        mPolicy.registerListener(images);
+        mPolicy.registerListener(plain);
+
+        assertEquals(2, mPolicy.getReceiverCount());
+        CategoryKey typed = mPolicy.categoryOf(images);
+        assertEquals(Collections.singletonList("image/*"), typed.getDataTypes());
+        assertTrue(mPolicy.getCategoryReceiver(typed).getFilter().hasDataType("image/png"));
+
+        Uri uri = Uri.parse("content://a.b.c/d");
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA).setDataAndType(uri,
+                "image/png")));
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_DATA).setDataAndType(uri,
+                "text/plain")));
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA, uri)));
+        assertEquals(1, images.mReceived);
+        assertEquals(1, plain.mReceived);
+    }
+
+    @Test
+    public void wildcardHostsMatchLikeIntentFilter() {
+        DataListener subdomains = new DataListener("subdomains", CONTENT,
+                Collections.singletonList("*.example.com"), null, null);
+        DataListener anyHost = new DataListener("any-host", CONTENT,
+                Collections.singletonList("*:8080"), Collections.singletonList("/d"), null);
+        DataListener exact = new DataListener("exact", CONTENT,
+                Collections.singletonList("Example.com"), null, null);
+        mPolicy.registerListener(subdomains);
+        mPolicy.registerListener(anyHost);
+        mPolicy.registerListener(exact);
+
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA,
+                Uri.parse("content://a.Example.COM/x"))));
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA,
+                Uri.parse("content://example.com/x"))));
+        assertEquals(2, mPolicy.sendLocal(new Intent(ACTION_DATA,
+                Uri.parse("content://b.example.com:8080/d"))));
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_DATA,
+                Uri.parse("content://other.com:80/d"))));
+
+        assertEquals(2, subdomains.mReceived);
+        assertEquals(1, anyHost.mReceived);
+        assertEquals(1, exact.mReceived);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void authorityPortMustBeNumber() {
+        mPolicy.registerListener(new DataListener("bad-port", CONTENT,
+                Collections.singletonList("*.example.com:http"), null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void authoritiesNeedSchemes() {
+        mPolicy.registerListener(new DataListener("no-scheme", null,
+                Collections.singletonList("a.b.c"), null, null));
+    }
+}
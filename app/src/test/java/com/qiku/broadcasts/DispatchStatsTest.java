@@ -0,0 +1,145 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class DispatchStatsTest {
+
+    private static final String ACTION_STATS = "com.qiku.test.ACTION_STATS";
+
+    /**
+     * 和OnBroadcast生成的Listener一样，名字带宿主对象的序号，统计使用宿主类的名字
+     */
+    static final class HostListener extends TestListeners.CountingListener {
+        private final String mStatsName;
+
+        HostListener(String statsName, int id) {
+            super(statsName + "@" + id, ACTION_STATS);
+            mStatsName = statsName;
+        }
+
+        @Override
+        public String getStatsName() {
+            return mStatsName;
+        }
+    }
+
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        DispatchStats.setEnabled(true);
+        mPolicy = new MergePolicyAuto(new RecordingContext(RuntimeEnvironment.application),
+                BroadcastBridge.MERGE_AUTO);
+    }
+
+    @After
+    public void tearDown() {
+        BroadcastBridge.setSlowListenerCallback(0, null);
+    }
+
+    private static BroadcastBridgeStats.ActionEntry findAction(String action) {
+        for (BroadcastBridgeStats.ActionEntry entry :
+                BroadcastBridge.getStats().getActionStats()) {
+            if (entry.getAction().equals(action)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static BroadcastBridgeStats.ListenerEntry findListener(String name) {
+        for (BroadcastBridgeStats.ListenerEntry entry :
+                BroadcastBridge.getStats().getListenerStats()) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void hostInstancesShareStatsUntilUnregistered() {
+        String statsName = "com.qiku.test.Host#0";
+        HostListener first = new HostListener(statsName, 0);
+        HostListener second = new HostListener(statsName, 1);
+        mPolicy.registerListener(first);
+        mPolicy.registerListener(second);
+
+        assertEquals(2, mPolicy.sendLocal(new Intent(ACTION_STATS)));
+        assertEquals(2, findListener(statsName).getCallbackLatency().getCount());
+
+        mPolicy.unregisterListener(first);
+        assertEquals(2, findListener(statsName).getCallbackLatency().getCount());
+        // 最后一个Listener反注册之后删除统计，重建的宿主不会累积新的统计对象
+        mPolicy.unregisterListener(second);
+        assertNull(findListener(statsName));
+    }
+
+    @Test
+    public void queueDelayAndCallbackRecorded() {
+        String action = "com.qiku.test.ACTION_QUEUE";
+        TestListeners.CountingListener listener = new TestListeners.CountingListener("queue",
+                action);
+        mPolicy.registerListener(listener);
+
+        DispatchStats.onBroadcast(action);
+        DispatchStats.onCallback(listener, action, TimeUnit.MILLISECONDS.toNanos(5),
+                TimeUnit.MICROSECONDS.toNanos(300));
+
+        BroadcastBridgeStats.ListenerEntry entry = findListener("queue");
+        assertEquals(1, entry.getQueueDelay().getCount());
+        assertEquals(5000, entry.getQueueDelay().getMaxMicros());
+        assertEquals(300, entry.getCallbackLatency().getMaxMicros());
+        BroadcastBridgeStats.ActionEntry actionEntry = findAction(action);
+        assertEquals(1, actionEntry.getDeliveryCount());
+        assertEquals(1, actionEntry.getCallbackLatency().getCount());
+        mPolicy.unregisterListener(listener);
+    }
+
+    @Test
+    public void slowListenerReportedOnlyOnMainThread() throws Exception {
+        String action = "com.qiku.test.ACTION_SLOW";
+        final TestListeners.CountingListener listener = new TestListeners.CountingListener(
+                "slow", action);
+        mPolicy.registerListener(listener);
+        final List<String> reported = new ArrayList<>();
+        BroadcastBridge.setSlowListenerCallback(10,
+                (slow, slowAction, durationNanos) -> reported.add(slowAction));
+        final long slowNanos = TimeUnit.MILLISECONDS.toNanos(20);
+
+        // 预算之内不通知
+        DispatchStats.onCallback(listener, action, 0, TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(reported.isEmpty());
+
+        // 后台线程中的回调不会卡住界面，不通知
+        Thread background = new Thread(() -> DispatchStats.onCallback(listener, action, 0,
+                slowNanos));
+        background.start();
+        background.join();
+        assertTrue(reported.isEmpty());
+
+        DispatchStats.onCallback(listener, action, 0, slowNanos);
+        assertEquals(Collections.singletonList(action), reported);
+        assertEquals(1, findListener("slow").getSlowCount());
+        mPolicy.unregisterListener(listener);
+    }
+}
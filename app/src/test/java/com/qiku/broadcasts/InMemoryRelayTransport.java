@@ -0,0 +1,99 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在同一个JVM中代替进程之间通信的RelayTransport，需求在调用线程中直接回调，
+ * 转发的广播和跨进程一样异步到达，在主线程中回调。
+ *
+ * 同一个Hub中的transport相当于同一个App的不同进程，第一个primary为选举出的primary进程
+ */
+final class InMemoryRelayTransport implements RelayTransport {
+
+    static final class Hub {
+        private final ArrayMap<String, InMemoryRelayTransport> mProcesses = new ArrayMap<>();
+        private InMemoryRelayTransport mPrimary;
+        private int mDemandCount;
+        private int mRelayCount;
+
+        InMemoryRelayTransport newTransport(String process, boolean primary) {
+            InMemoryRelayTransport transport = new InMemoryRelayTransport(this, process, primary);
+            mProcesses.put(process, transport);
+            return transport;
+        }
+
+        int getDemandCount() {
+            return mDemandCount;
+        }
+
+        int getRelayCount() {
+            return mRelayCount;
+        }
+    }
+
+    private final Hub mHub;
+    private final String mProcess;
+    private final boolean mPrimary;
+    private Callback mCallback;
+
+    private InMemoryRelayTransport(Hub hub, String process, boolean primary) {
+        mHub = hub;
+        mProcess = process;
+        mPrimary = primary;
+    }
+
+    @Override
+    public String getProcessName() {
+        return mProcess;
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return mPrimary;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+        if (mPrimary) {
+            // primary进程启动，所有secondary进程重新发送需求
+            mHub.mPrimary = this;
+            for (int i = 0; i < mHub.mProcesses.size(); i++) {
+                InMemoryRelayTransport transport = mHub.mProcesses.valueAt(i);
+                if (!transport.mPrimary && transport.mCallback != null) {
+                    transport.mCallback.onPrimaryConnected();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void sendDemand(List<RelayDemand> demands) {
+        InMemoryRelayTransport primary = mHub.mPrimary;
+        if (primary == null) {
+            return;
+        }
+        mHub.mDemandCount++;
+        // 模拟跨进程传递
+        ArrayList<RelayDemand> copy = new ArrayList<>(demands.size());
+        for (RelayDemand demand : demands) {
+            copy.add(RelayDemand.fromBundle(demand.toBundle()));
+        }
+        primary.mCallback.onDemandChanged(mProcess, copy);
+    }
+
+    @Override
+    public void relayBroadcast(String process, Intent intent) {
+        InMemoryRelayTransport transport = mHub.mProcesses.get(process);
+        if (transport != null && transport.mCallback != null) {
+            mHub.mRelayCount++;
+            final Callback callback = transport.mCallback;
+            final Intent copy = new Intent(intent);
+            BroadcastDispatcher.mainHandler().post(() -> callback.onRelayedBroadcast(copy));
+        }
+    }
+}
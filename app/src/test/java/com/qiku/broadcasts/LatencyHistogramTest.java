@@ -0,0 +1,70 @@
+package com.qiku.broadcasts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void linearBucketsBelowSixteenMicros() {
+        for (int micros = 0; micros < 16; micros++) {
+            assertEquals(micros, LatencyHistogram.bucketOf(micros));
+            assertEquals(micros + 1, LatencyHistogram.upperBoundOf(micros));
+        }
+        // 16us开始每个2的幂区间分为8个桶
+        assertEquals(16, LatencyHistogram.bucketOf(16));
+        assertEquals(16, LatencyHistogram.bucketOf(17));
+        assertEquals(17, LatencyHistogram.bucketOf(18));
+        assertEquals(23, LatencyHistogram.bucketOf(31));
+        assertEquals(24, LatencyHistogram.bucketOf(32));
+        assertEquals(18, LatencyHistogram.upperBoundOf(16));
+    }
+
+    @Test
+    public void upperBoundIsNextBucketStart() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper - 1));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(upper));
+        }
+    }
+
+    @Test
+    public void hugeValuesUseLastBucket() {
+        int last = LatencyHistogram.BUCKET_COUNT - 1;
+        assertEquals(last, LatencyHistogram.bucketOf(1L << 41));
+        assertEquals(last, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 100; micros++) {
+            histogram.recordNanos(micros * 1000L);
+        }
+        // 负数按0记录
+        histogram.recordNanos(-5);
+        BroadcastBridgeStats.Latency latency = histogram.snapshot();
+
+        assertEquals(101, latency.getCount());
+        assertEquals(50, latency.getMeanMicros());
+        assertEquals(100, latency.getMaxMicros());
+        long p50 = latency.getPercentileMicros(50);
+        assertTrue("p50=" + p50, p50 >= 50 && p50 <= 50 * 9 / 8 + 1);
+        long p99 = latency.getPercentileMicros(99);
+        assertTrue("p99=" + p99, p99 >= 99 && p99 <= 100);
+        // 不超过记录到的最大值
+        assertEquals(100, latency.getPercentileMicros(100));
+        assertEquals(1, latency.getPercentileMicros(0));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        BroadcastBridgeStats.Latency latency = new LatencyHistogram().snapshot();
+        assertEquals(0, latency.getCount());
+        assertEquals(0, latency.getMeanMicros());
+        assertEquals(0, latency.getPercentileMicros(99));
+    }
+}
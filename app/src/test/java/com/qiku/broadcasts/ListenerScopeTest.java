@@ -0,0 +1,122 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class ListenerScopeTest {
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+    private BroadcastBridge mBridge;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+        mBridge = new BroadcastBridge();
+        mBridge.init(mContext, mPolicy);
+    }
+
+    @After
+    public void tearDown() {
+        assertEquals(0, mContext.getMismatchCount());
+    }
+
+    private MergePolicyBase.CategoryReceiver keyguardReceiver() {
+        return mPolicy.getCategoryReceiver(CategoryKey.of("keyguard"));
+    }
+
+    @Test
+    public void stoppedScopePausesAndShrinksFilter() {
+        CountingListener scoped = new CountingListener("scoped", Intent.ACTION_SCREEN_OFF);
+        CountingListener unscoped = new CountingListener("unscoped", Intent.ACTION_SCREEN_ON);
+        ListenerScope scope = new ListenerScope(mBridge);
+        scope.add(scoped);
+        scope.start();
+        mBridge.registerListener(unscoped);
+        mContext.resetCounts();
+
+        scope.stop();
+        keyguardReceiver().onReceive(mContext, new Intent(Intent.ACTION_SCREEN_OFF));
+        assertEquals(0, scoped.mReceived);
+        // 等待删除action期间不重新注册
+        assertEquals(0, mContext.getRegisterCount());
+        assertTrue(keyguardReceiver().getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+
+        mPolicy.removePausedActions();
+        assertEquals(1, mContext.getRegisterCount());
+        assertFalse(keyguardReceiver().getFilter().hasAction(Intent.ACTION_SCREEN_OFF));
+
+        scope.start();
+        assertEquals(2, mContext.getRegisterCount());
+        keyguardReceiver().onReceive(mContext, new Intent(Intent.ACTION_SCREEN_OFF));
+        assertEquals(1, scoped.mReceived);
+    }
+
+    @Test
+    public void restartBeforeDebounceDoesNotRegisterAgain() {
+        ListenerScope scope = new ListenerScope(mBridge);
+        scope.add(new CountingListener("scoped", Intent.ACTION_SCREEN_OFF));
+        scope.start();
+        mContext.resetCounts();
+
+        scope.stop();
+        scope.start();
+        mPolicy.removePausedActions();
+
+        assertEquals(0, mContext.getRegisterCount());
+        assertEquals(0, mContext.getUnregisterCount());
+    }
+
+    @Test
+    public void rotationKeepsReceivers() {
+        // MainActivity中有优先级100的Listener，不分段时反注册它会降低receiver的优先级并重新注册
+        mPolicy.setPriorityBandEdges(1, 100);
+        ListenerScope scope = new ListenerScope(mBridge);
+        scope.addAll(TestListeners.mainActivity());
+        scope.start();
+        int live = mContext.getLiveReceiverCount();
+        mContext.resetCounts();
+
+        // 旋转屏幕 : 旧的Activity停止并销毁，新的Activity创建并启动
+        scope.stop();
+        scope.destroy();
+        ListenerScope rotated = new ListenerScope(mBridge);
+        rotated.addAll(TestListeners.mainActivity());
+        rotated.start();
+        mPolicy.removePausedActions();
+
+        assertEquals(0, mContext.getRegisterCount());
+        assertEquals(0, mContext.getUnregisterCount());
+        assertEquals(live, mContext.getLiveReceiverCount());
+    }
+
+    @Test
+    public void destroyedScopeReleasesReceiversAfterDebounce() {
+        ListenerScope scope = new ListenerScope(mBridge);
+        scope.addAll(TestListeners.mainActivity());
+        scope.start();
+
+        scope.stop();
+        scope.destroy();
+        mPolicy.removePausedActions();
+
+        assertEquals(0, mContext.getLiveReceiverCount());
+        assertEquals(0, mPolicy.getReceiverCount());
+    }
+}
@@ -0,0 +1,116 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.Uri;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class LocalDispatchTest {
+
+    private static final String ACTION_LOCAL = "com.qiku.test.ACTION_LOCAL";
+
+    private static final String ACTION_DATA = "com.qiku.test.ACTION_DATA";
+
+    private RecordingContext mContext;
+    private MergePolicyOptimal mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyOptimal(mContext, BroadcastBridge.MERGE_OPTIMAL);
+    }
+
+    @Test
+    public void sendLocalMatchesLikeIntentFilter() {
+        CountingListener plain = new CountingListener("plain", ACTION_DATA);
+        CountingListener content = new CountingListener("content", 0,
+                Collections.singletonList("content"), null, ACTION_DATA);
+        mPolicy.registerListener(plain);
+        mPolicy.registerListener(content);
+
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA)));
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA, Uri.parse("content://a.b.c/d"))));
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_DATA, Uri.parse("package:a.b.c"))));
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_DATA).addCategory("a.b.c")));
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_LOCAL)));
+
+        assertEquals(1, plain.mReceived);
+        assertEquals(1, content.mReceived);
+        // POSTING的Listener在调用sendLocal的线程中回调
+        assertEquals(Thread.currentThread(), plain.mThread);
+    }
+
+    @Test
+    public void localActionsAreNotRegistered() {
+        mPolicy.setLocalActions(ACTION_LOCAL);
+        CountingListener local = new CountingListener("local", ACTION_LOCAL);
+        mPolicy.registerListener(local);
+        assertEquals(0, mContext.getRegisterCount());
+
+        CountingListener mixed = new CountingListener("mixed",
+                ACTION_LOCAL, Intent.ACTION_SCREEN_OFF);
+        mPolicy.registerListener(mixed);
+        assertEquals(1, mContext.getLiveReceiverCount());
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(mPolicy.categoryOf(mixed));
+        assertEquals(Arrays.asList(Intent.ACTION_SCREEN_OFF),
+                BroadcastBridgeUtil.actionsOf(receiver.getFilter()));
+
+        assertEquals(2, mPolicy.sendLocal(new Intent(ACTION_LOCAL)));
+
+        // 只剩下进程内的action时反注册receiver
+        mPolicy.unregisterListener(mixed);
+        assertEquals(0, mContext.getLiveReceiverCount());
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_LOCAL)));
+        assertEquals(2, local.mReceived);
+    }
+
+    @Test
+    public void permissionNotHeldIsNotDelivered() {
+        CountingListener guarded = new CountingListener("guarded", 0, null,
+                "com.qiku.test.permission.NOT_HELD", ACTION_LOCAL);
+        mPolicy.registerListener(guarded);
+
+        assertEquals(0, mPolicy.sendLocal(new Intent(ACTION_LOCAL)));
+        assertEquals(0, guarded.mReceived);
+    }
+
+    @Test
+    public void batchPublishesSnapshotOnCommit() {
+        CountingListener first = new CountingListener("first", ACTION_DATA);
+        mPolicy.registerListener(first);
+
+        mPolicy.beginBatch();
+        CountingListener second = new CountingListener("second", ACTION_DATA);
+        mPolicy.registerListener(second);
+        mPolicy.unregisterListener(first);
+        // 批量过程中仍然使用开始之前的快照
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA)));
+        assertEquals(1, first.mReceived);
+
+        mPolicy.commitBatch();
+        assertEquals(1, mPolicy.sendLocal(new Intent(ACTION_DATA)));
+        assertEquals(1, first.mReceived);
+        assertEquals(1, second.mReceived);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void localActionsMustBeSetBeforeRegister() {
+        mPolicy.registerListener(new CountingListener("plain", ACTION_DATA));
+        mPolicy.setLocalActions(ACTION_LOCAL);
+    }
+}
@@ -0,0 +1,88 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.Uri;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class MergePolicyOptimalTest {
+
+    private static final String ACTION = "com.qiku.test.ACTION_DATA";
+
+    private static CountingListener schemeListener(String name, String scheme) {
+        return new CountingListener(name, 0, Collections.singletonList(scheme), null, ACTION);
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyOptimal mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyOptimal(mContext, BroadcastBridge.MERGE_OPTIMAL);
+    }
+
+    @Test
+    public void dryRunDoesNotRegister() {
+        List<BroadcastBridge.Listener> listeners = TestListeners.synthetic(
+                BroadcastBridge.MERGE_OPTIMAL, 500);
+        ReceiverPlan plan = mPolicy.dryRun(listeners);
+
+        // 不需要data、需要scheme、需要permission各一个receiver
+        assertEquals(plan.toString(), 3, plan.getReceiverCount());
+        assertEquals(0, mContext.getRegisterCount());
+        assertEquals(0, mPolicy.getPlan().getReceiverCount());
+
+        mPolicy.beginBatch();
+        for (BroadcastBridge.Listener listener : listeners) {
+            mPolicy.registerListener(listener);
+        }
+        mPolicy.commitBatch();
+        assertEquals(plan.toString(), mPolicy.getPlan().toString());
+        assertEquals(3, mContext.getLiveReceiverCount());
+    }
+
+    @Test
+    public void dryRunReportsRejectedListeners() {
+        ReceiverPlan plan = new MergePolicyGlobal(null, BroadcastBridge.MERGE_GLOBAL)
+                .dryRun(TestListeners.mainActivity());
+        // package和content scheme的Listener，以及同名的Listener
+        assertEquals(Arrays.asList("screen-listener2", "screen-listener5", "screen-listener5"),
+                plan.getRejected());
+        // 不分段时所有Listener在同一个receiver中
+        assertEquals(1, plan.getReceiverCount());
+    }
+
+    @Test
+    public void differentSchemesShareReceiver() {
+        CountingListener packageListener = schemeListener("package-listener", "package");
+        CountingListener contentListener = schemeListener("content-listener", "content");
+        mPolicy.registerListener(packageListener);
+        mPolicy.registerListener(contentListener);
+        assertEquals(1, mContext.getLiveReceiverCount());
+
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(mPolicy.categoryOf(packageListener));
+        receiver.onReceive(mContext, new Intent(ACTION, Uri.parse("content://a.b.c/d")));
+        receiver.onReceive(mContext, new Intent(ACTION, Uri.parse("package:com.qiku.test")));
+        receiver.onReceive(mContext, new Intent(ACTION, Uri.parse("package:com.qiku.test1")));
+
+        assertEquals(2, packageListener.mReceived);
+        assertEquals(1, contentListener.mReceived);
+    }
+}
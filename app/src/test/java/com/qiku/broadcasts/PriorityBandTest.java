@@ -0,0 +1,97 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class PriorityBandTest {
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+    }
+
+    @Test
+    public void highPriorityListenerDoesNotPromoteCategory() {
+        mPolicy.setPriorityBandEdges(1, 100);
+        mPolicy.registerListener(new TestListeners.TestListener("screen", 0,
+                Intent.ACTION_SCREEN_ON, Intent.ACTION_SCREEN_OFF));
+        mPolicy.registerListener(new TestListeners.TestListener("screen-high", 100,
+                Intent.ACTION_SCREEN_OFF));
+
+        // getPlan中receiver的顺序不固定
+        List<ReceiverPlan.Receiver> receivers = mPolicy.getPlan().getReceivers();
+        assertEquals(2, receivers.size());
+        assertEquals(100, receivers.get(0).getPriority() + receivers.get(1).getPriority());
+        assertEquals(0, Math.min(receivers.get(0).getPriority(), receivers.get(1).getPriority()));
+    }
+
+    @Test
+    public void priorityInsideBandDoesNotRegisterAgain() {
+        mPolicy.setPriorityBandEdges(1, 100);
+        mPolicy.registerListener(new TestListeners.TestListener("screen-10", 10,
+                Intent.ACTION_SCREEN_ON));
+        mContext.resetCounts();
+        mPolicy.registerListener(new TestListeners.TestListener("screen-50", 50,
+                Intent.ACTION_SCREEN_ON));
+        mPolicy.unregisterListener(new TestListeners.TestListener("screen-10", 10,
+                Intent.ACTION_SCREEN_ON));
+
+        assertEquals(0, mContext.getRegisterCount());
+        assertEquals(0, mContext.getUnregisterCount());
+        assertEquals(1, mPolicy.getPlan().getReceivers().get(0).getPriority());
+    }
+
+    @Test
+    public void noEdgesUsesMaxPriority() {
+        // 默认不分段
+        mPolicy.registerListener(new TestListeners.TestListener("screen", 0,
+                Intent.ACTION_SCREEN_ON, Intent.ACTION_SCREEN_OFF));
+        mPolicy.registerListener(new TestListeners.TestListener("screen-high", 100,
+                Intent.ACTION_SCREEN_OFF));
+
+        List<ReceiverPlan.Receiver> receivers = mPolicy.getPlan().getReceivers();
+        assertEquals(1, receivers.size());
+        assertEquals(100, receivers.get(0).getPriority());
+    }
+
+    @Test
+    public void noEdgesRemovingLowerPriorityKeepsMax() {
+        mPolicy.registerListener(new TestListeners.TestListener("screen", 0,
+                Intent.ACTION_SCREEN_OFF));
+        mPolicy.registerListener(new TestListeners.TestListener("screen-high", 100,
+                Intent.ACTION_SCREEN_OFF));
+        mContext.resetCounts();
+        mPolicy.unregisterListener(new TestListeners.TestListener("screen", 0,
+                Intent.ACTION_SCREEN_OFF));
+
+        assertEquals(0, mContext.getRegisterCount());
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(CategoryKey.of("keyguard"));
+        assertEquals(100, receiver.getFilter().getPriority());
+
+        mPolicy.unregisterListener(new TestListeners.TestListener("screen-high", 100,
+                Intent.ACTION_SCREEN_OFF));
+        assertEquals(0, mContext.getLiveReceiverCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void edgesMustBeAscending() {
+        mPolicy.setPriorityBandEdges(100, 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class ReceiverBudgetTest {
+
+    private static final String ACTION_PREFIX = "com.qiku.test.ACTION_";
+
+    private static CountingListener budgetListener(int index) {
+        return new CountingListener("budget-" + index, ACTION_PREFIX + index);
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+        mPolicy.setReceiverBudget(10);
+    }
+
+    @Test
+    public void newCategoriesMergeNearBudget() {
+        CountingListener[] listeners = new CountingListener[20];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = budgetListener(i);
+            mPolicy.registerListener(listeners[i]);
+        }
+        // 8个自定义action各自一个receiver，之后的12个合并到一个overflow receiver中
+        assertEquals(9, mPolicy.getReceiverCount());
+        assertEquals(9, mContext.getLiveReceiverCount());
+
+        MergePolicyBase.CategoryReceiver receiver =
+                mPolicy.getCategoryReceiver(CategoryKey.of("overflow"));
+        receiver.onReceive(mContext, new Intent(ACTION_PREFIX + 15));
+        receiver.onReceive(mContext, new Intent(ACTION_PREFIX + 3));
+        assertEquals(1, listeners[15].mReceived);
+        assertEquals(0, listeners[3].mReceived);
+
+        // 用新的对象反注册，模拟Activity重建
+        for (int i = 0; i < 20; i++) {
+            mPolicy.unregisterListener(budgetListener(i));
+        }
+        assertEquals(0, mPolicy.getReceiverCount());
+        assertEquals(0, mContext.getLiveReceiverCount());
+        assertEquals(0, mContext.getMismatchCount());
+    }
+
+    @Test
+    public void existingCategoryIsNotMerged() {
+        for (int i = 0; i < 8; i++) {
+            mPolicy.registerListener(budgetListener(i));
+        }
+        mContext.resetCounts();
+        mPolicy.registerListener(new TestListeners.TestListener("budget-0-again", 0, null, null,
+                BroadcastBridge.Listener.ThreadMode.POSTING, ACTION_PREFIX + 0));
+
+        assertEquals(8, mPolicy.getReceiverCount());
+        assertEquals(0, mContext.getRegisterCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetMustBePositive() {
+        mPolicy.setReceiverBudget(0);
+    }
+}
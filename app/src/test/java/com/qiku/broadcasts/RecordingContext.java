@@ -0,0 +1,101 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 记录registerReceiver/unregisterReceiver调用的Context，调用仍然转发给Robolectric的Context。
+ *
+ * 每次调用在真实设备上都是一次binder调用，测试用这里的计数作为注册开销的预算。
+ */
+class RecordingContext extends ContextWrapper {
+
+    private final ArrayList<BroadcastReceiver> mLiveReceivers = new ArrayList<>();
+
+    /**
+     * 每个receiver最近一次注册时的scheduler
+     */
+    private final HashMap<BroadcastReceiver, Handler> mSchedulers = new HashMap<>();
+
+    private int mRegisterCount;
+    private int mUnregisterCount;
+
+    /**
+     * 同一个receiver没有反注册就再次注册，或者反注册没有注册的receiver
+     */
+    private int mMismatchCount;
+
+    RecordingContext(Context base) {
+        super(base);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return registerReceiver(receiver, filter, null, null);
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                   String permission, Handler scheduler) {
+        mRegisterCount++;
+        if (mLiveReceivers.contains(receiver)) {
+            mMismatchCount++;
+        } else {
+            mLiveReceivers.add(receiver);
+        }
+        mSchedulers.put(receiver, scheduler);
+        return super.registerReceiver(receiver, filter, permission, scheduler);
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        mUnregisterCount++;
+        if (!mLiveReceivers.remove(receiver)) {
+            mMismatchCount++;
+        }
+        super.unregisterReceiver(receiver);
+    }
+
+    int getRegisterCount() {
+        return mRegisterCount;
+    }
+
+    int getUnregisterCount() {
+        return mUnregisterCount;
+    }
+
+    int getLiveReceiverCount() {
+        return mLiveReceivers.size();
+    }
+
+    /**
+     * @return receiver最近一次注册时的scheduler，在主线程接收时为null
+     */
+    Handler getScheduler(BroadcastReceiver receiver) {
+        return mSchedulers.get(receiver);
+    }
+
+    int getMismatchCount() {
+        return mMismatchCount;
+    }
+
+    /**
+     * 清空计数，已经注册的receiver保留
+     */
+    void resetCounts() {
+        mRegisterCount = 0;
+        mUnregisterCount = 0;
+    }
+}
@@ -0,0 +1,172 @@
+package com.qiku.broadcasts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 注册开销的回归测试。
+ *
+ * 每个预置Policy重放几组真实的Listener集合，统计registerReceiver/unregisterReceiver的调用次数
+ * (在设备上都是binder调用)和最终注册在系统中的receiver数量，和预算完全相等才能通过。
+ * 修改MergePolicyBase导致注册次数变化时，需要确认变化是预期的，再更新这里的预算。
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class RegistrationBudgetTest {
+
+    /**
+     * 一个阶段的预算
+     */
+    static final class Budget {
+        final int mRegisters;
+        final int mUnregisters;
+        final int mLiveReceivers;
+
+        Budget(int registers, int unregisters, int liveReceivers) {
+            mRegisters = registers;
+            mUnregisters = unregisters;
+            mLiveReceivers = liveReceivers;
+        }
+
+        @Override
+        public String toString() {
+            return "register=" + mRegisters + ", unregister=" + mUnregisters +
+                    ", live=" + mLiveReceivers;
+        }
+    }
+
+    private static final int SYNTHETIC_LISTENERS = 500;
+
+    private static final int ROTATIONS = 10;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> budgets() {
+        return Arrays.asList(new Object[][] {
+                // policy, MainActivity批量注册, 500个Listener批量注册,
+                // 500个Listener逐个注册, 500个Listener逐个反注册, Activity重建ROTATIONS次
+                {BroadcastBridge.MERGE_AUTO, new Budget(6, 0, 6), new Budget(16, 0, 16),
+                        new Budget(43, 27, 16), new Budget(31, 47, 0), new Budget(70, 70, 19)},
+                {BroadcastBridge.MERGE_GLOBAL, new Budget(1, 0, 1), new Budget(1, 0, 1),
+                        new Budget(12, 11, 1), new Budget(9, 10, 0), new Budget(20, 20, 1)},
+                {BroadcastBridge.MERGE_SCHEME, new Budget(2, 0, 2), new Budget(2, 0, 2),
+                        new Budget(19, 17, 2), new Budget(10, 12, 0), new Budget(40, 40, 2)},
+                {BroadcastBridge.MERGE_PERMISSION, new Budget(2, 0, 2), new Budget(2, 0, 2),
+                        new Budget(17, 15, 2), new Budget(14, 16, 0), new Budget(40, 40, 2)},
+                {BroadcastBridge.MERGE_OPTIMAL, new Budget(4, 0, 4), new Budget(3, 0, 3),
+                        new Budget(24, 21, 3), new Budget(15, 18, 0), new Budget(70, 70, 4)},
+        });
+    }
+
+    private final String mPolicy;
+    private final Budget mMainActivity;
+    private final Budget mSyntheticBatched;
+    private final Budget mSyntheticRegister;
+    private final Budget mSyntheticUnregister;
+    private final Budget mRotation;
+
+    private RecordingContext mContext;
+    private BroadcastBridge mBridge;
+
+    public RegistrationBudgetTest(String policy, Budget mainActivity, Budget syntheticBatched,
+                                  Budget syntheticRegister, Budget syntheticUnregister,
+                                  Budget rotation) {
+        mPolicy = policy;
+        mMainActivity = mainActivity;
+        mSyntheticBatched = syntheticBatched;
+        mSyntheticRegister = syntheticRegister;
+        mSyntheticUnregister = syntheticUnregister;
+        mRotation = rotation;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mBridge = new BroadcastBridge();
+        mBridge.init(mContext, mPolicy);
+    }
+
+    @After
+    public void tearDown() {
+        assertEquals("receiver registered twice or unregistered without registering",
+                0, mContext.getMismatchCount());
+    }
+
+    @Test
+    public void mainActivity() {
+        mBridge.registerListeners(TestListeners.mainActivity());
+        assertBudget("register MainActivity", mMainActivity);
+
+        // Listener按名字判断是否相等，用新创建的对象反注册
+        mContext.resetCounts();
+        mBridge.unregisterListeners(TestListeners.mainActivity());
+        assertBudget("unregister MainActivity", new Budget(0, mMainActivity.mLiveReceivers, 0));
+    }
+
+    @Test
+    public void syntheticAppBatched() {
+        List<BroadcastBridge.Listener> listeners =
+                TestListeners.synthetic(mPolicy, SYNTHETIC_LISTENERS);
+        mBridge.registerListeners(listeners);
+        assertBudget("register " + SYNTHETIC_LISTENERS + " listeners in batch",
+                mSyntheticBatched);
+
+        // 批量反注册所有Listener时，每个receiver只反注册一次
+        mContext.resetCounts();
+        mBridge.unregisterListeners(listeners);
+        assertBudget("unregister " + SYNTHETIC_LISTENERS + " listeners in batch",
+                new Budget(0, mSyntheticBatched.mLiveReceivers, 0));
+    }
+
+    @Test
+    public void syntheticAppOneByOne() {
+        List<BroadcastBridge.Listener> listeners =
+                TestListeners.synthetic(mPolicy, SYNTHETIC_LISTENERS);
+        for (BroadcastBridge.Listener listener : listeners) {
+            mBridge.registerListener(listener);
+        }
+        assertBudget("register " + SYNTHETIC_LISTENERS + " listeners one by one",
+                mSyntheticRegister);
+
+        mContext.resetCounts();
+        for (BroadcastBridge.Listener listener : listeners) {
+            mBridge.unregisterListener(listener);
+        }
+        assertBudget("unregister " + SYNTHETIC_LISTENERS + " listeners one by one",
+                mSyntheticUnregister);
+    }
+
+    /**
+     * App常驻100个Listener，MainActivity重建ROTATIONS次，每次反注册旧的Listener并注册新的Listener
+     */
+    @Test
+    public void activityRotation() {
+        mBridge.registerListeners(TestListeners.synthetic(mPolicy, 100));
+        mBridge.registerListeners(TestListeners.mainActivity());
+
+        mContext.resetCounts();
+        List<BroadcastBridge.Listener> activityListeners = TestListeners.mainActivity();
+        for (int i = 0; i < ROTATIONS; i++) {
+            mBridge.unregisterListeners(activityListeners);
+            activityListeners = TestListeners.mainActivity();
+            mBridge.registerListeners(activityListeners);
+        }
+        assertBudget(ROTATIONS + " activity rotations", mRotation);
+    }
+
+    private void assertBudget(String phase, Budget expected) {
+        Budget actual = new Budget(mContext.getRegisterCount(), mContext.getUnregisterCount(),
+                mContext.getLiveReceiverCount());
+        assertEquals(mPolicy + " : " + phase, expected.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,163 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+
+import com.qiku.broadcasts.TestListeners.CountingListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static com.qiku.broadcasts.TestListeners.idleReceiverThreads;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class RelayModeTest {
+
+    private InMemoryRelayTransport.Hub mHub;
+    private RecordingContext mPrimaryContext;
+    private RecordingContext mSecondaryContext;
+    private MergePolicyAuto mPrimary;
+    private MergePolicyAuto mSecondary;
+
+    @Before
+    public void setUp() {
+        mHub = new InMemoryRelayTransport.Hub();
+        mPrimaryContext = new RecordingContext(RuntimeEnvironment.application);
+        mSecondaryContext = new RecordingContext(RuntimeEnvironment.application);
+
+        InMemoryRelayTransport secondaryTransport = mHub.newTransport(":push", false);
+        RelayReceiverRegistrar registrar =
+                BroadcastRelay.newSecondaryRegistrar(secondaryTransport);
+        mSecondary = new MergePolicyAuto(mSecondaryContext, registrar,
+                BroadcastBridge.MERGE_AUTO);
+        BroadcastRelay.attachSecondary(secondaryTransport, mSecondary, registrar);
+
+        InMemoryRelayTransport primaryTransport = mHub.newTransport("main", true);
+        mPrimary = new MergePolicyAuto(mPrimaryContext, BroadcastBridge.MERGE_AUTO);
+        BroadcastRelay.attachPrimary(primaryTransport, mPrimary);
+    }
+
+    private void sendSystemBroadcast(Intent intent) {
+        ReceiverPlan plan = mPrimary.getPlan();
+        for (ReceiverPlan.Receiver receiver : plan.getReceivers()) {
+            if (receiver.getActions().contains(intent.getAction())) {
+                mPrimary.getCategoryReceiver(receiver.getCategory())
+                        .onReceive(mPrimaryContext, intent);
+            }
+        }
+    }
+
+    @Test
+    public void primaryRegistersForBothProcesses() {
+        CountingListener secondary = new CountingListener("push-screen", Intent.ACTION_SCREEN_OFF);
+        CountingListener primary = new CountingListener("main-screen", Intent.ACTION_SCREEN_OFF);
+        mSecondary.registerListener(secondary);
+        mPrimary.registerListener(primary);
+
+        assertEquals(0, mSecondaryContext.getRegisterCount());
+        assertEquals(1, mPrimaryContext.getLiveReceiverCount());
+
+        sendSystemBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        ShadowLooper.idleMainLooper();
+        assertEquals(1, primary.mReceived);
+        assertEquals(1, secondary.mReceived);
+        assertEquals(1, mHub.getRelayCount());
+
+        // 反注册之后在主线程中发送需求
+        mSecondary.unregisterListener(secondary);
+        ShadowLooper.idleMainLooper();
+        sendSystemBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        assertEquals(2, primary.mReceived);
+        assertEquals(1, mHub.getRelayCount());
+
+        mPrimary.unregisterListener(primary);
+        assertEquals(0, mPrimaryContext.getLiveReceiverCount());
+    }
+
+    @Test
+    public void secondaryRegisterAgainSendsOneDemand() {
+        mSecondary.registerListener(new CountingListener("push-screen-off",
+                Intent.ACTION_SCREEN_OFF));
+        int demands = mHub.getDemandCount();
+        mPrimaryContext.resetCounts();
+
+        // secondary进程的receiver增加action，先反注册再注册，只发送一次需求
+        mSecondary.registerListener(new CountingListener("push-screen-on",
+                Intent.ACTION_SCREEN_ON));
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(demands + 1, mHub.getDemandCount());
+        assertEquals(1, mPrimaryContext.getRegisterCount());
+        assertEquals(1, mPrimaryContext.getLiveReceiverCount());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void stickyIsRelayedWhenPrimaryAlreadyListens() throws Exception {
+        RuntimeEnvironment.application.sendStickyBroadcast(
+                new Intent(Intent.ACTION_BATTERY_CHANGED)
+                        .putExtra(BatteryManager.EXTRA_LEVEL, 50));
+        mPrimary.registerListener(new CountingListener("main-battery",
+                Intent.ACTION_BATTERY_CHANGED));
+        mPrimaryContext.resetCounts();
+
+        // primary进程的receiver已经在监听，系统不会再投递sticky广播，由缓存转发给secondary进程
+        CountingListener secondary = new CountingListener("push-battery",
+                Intent.ACTION_BATTERY_CHANGED);
+        mSecondary.registerListener(secondary);
+        ShadowLooper.idleMainLooper();
+        // primary进程在接收线程中补发，转发之后在主线程分发给secondary进程
+        idleReceiverThreads();
+
+        assertEquals(0, mPrimaryContext.getRegisterCount());
+        assertEquals(1, secondary.mReceived);
+    }
+
+    @Test
+    public void overflowDemandWithSeveralCategories() {
+        // 第2个category开始合并到overflow receiver中
+        mSecondary.setReceiverBudget(2);
+        mSecondary.registerListener(new CountingListener("push-screen", Intent.ACTION_SCREEN_OFF));
+        CountingListener battery = new CountingListener("push-battery",
+                Intent.ACTION_BATTERY_LOW);
+        CountingListener timezone = new CountingListener("push-timezone",
+                Intent.ACTION_TIMEZONE_CHANGED);
+        mSecondary.registerListener(battery);
+        mSecondary.registerListener(timezone);
+        ShadowLooper.idleMainLooper();
+        assertEquals(2, mSecondary.getReceiverCount());
+
+        // primary进程为overflow需求单独注册一个receiver
+        assertEquals(2, mPrimaryContext.getLiveReceiverCount());
+        sendSystemBroadcast(new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+        ShadowLooper.idleMainLooper();
+        assertEquals(0, battery.mReceived);
+        assertEquals(1, timezone.mReceived);
+    }
+
+    @Test
+    public void demandIsResentWhenPrimaryConnects() {
+        InMemoryRelayTransport.Hub hub = new InMemoryRelayTransport.Hub();
+        InMemoryRelayTransport secondaryTransport = hub.newTransport(":service", false);
+        RelayReceiverRegistrar registrar =
+                BroadcastRelay.newSecondaryRegistrar(secondaryTransport);
+        MergePolicyAuto secondary = new MergePolicyAuto(null, registrar,
+                BroadcastBridge.MERGE_AUTO);
+        BroadcastRelay.attachSecondary(secondaryTransport, secondary, registrar);
+        secondary.registerListener(new CountingListener("service-screen",
+                Intent.ACTION_SCREEN_OFF));
+
+        RecordingContext primaryContext = new RecordingContext(RuntimeEnvironment.application);
+        BroadcastRelay.attachPrimary(hub.newTransport("main", true),
+                new MergePolicyAuto(primaryContext, BroadcastBridge.MERGE_AUTO));
+
+        assertEquals(1, primaryContext.getLiveReceiverCount());
+    }
+}
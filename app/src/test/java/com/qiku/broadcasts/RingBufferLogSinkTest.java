@@ -0,0 +1,95 @@
+package com.qiku.broadcasts;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 不需要Android环境，只测试环形缓冲区的读写
+ */
+public class RingBufferLogSinkTest {
+
+    /**
+     * tag和message各1个和2个字节时一条记录的大小 : length(4) | time(8) | level(1) | tagLength(2) | tag | message
+     */
+    private static final int RECORD_SIZE = 4 + 8 + 1 + 2 + 1 + 2;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * @return dump输出的第一行和每条记录的message
+     */
+    private static List<String> dump(RingBufferLogSink sink) {
+        StringWriter out = new StringWriter();
+        sink.dump(new PrintWriter(out, true));
+        List<String> lines = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            int index = line.indexOf(" => ");
+            lines.add(index < 0 ? line : line.substring(index + 4));
+        }
+        return lines;
+    }
+
+    @Test
+    public void wrapDropsOldestRecords() {
+        // 可以放下3条记录，第9条记录跨过缓冲区的末尾
+        RingBufferLogSink sink = new RingBufferLogSink(RECORD_SIZE * 3 + 10, null);
+        for (int i = 0; i < 10; i++) {
+            sink.write(Log.INFO, "t", "m" + i);
+        }
+
+        assertEquals(7, sink.getDroppedCount());
+        assertEquals(Arrays.asList("BroadcastBridge log : 7 records dropped", "m7", "m8", "m9"),
+                dump(sink));
+        // dump不影响之后的读取
+        assertEquals(4, dump(sink).size());
+    }
+
+    @Test
+    public void truncateOnCharacterBoundary() {
+        // message最多10个字节，每个中文字符3个字节
+        RingBufferLogSink sink = new RingBufferLogSink(RECORD_SIZE - 2 + 10, null);
+        sink.write(Log.WARN, "t", "中文日志");
+
+        assertEquals(Arrays.asList("BroadcastBridge log : 0 records dropped", "中文日"),
+                dump(sink));
+    }
+
+    @Test
+    public void mappedFileKeepsRecords() throws Exception {
+        File file = mFolder.newFile("log");
+        RingBufferLogSink sink = new RingBufferLogSink(file, 64, null);
+        sink.write(Log.ERROR, "t", "m0");
+
+        // 和另一个进程(比如崩溃之后的下一次启动)一样直接读取文件
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(0x42424C47, raf.readInt());
+            assertEquals(64, raf.readInt());
+            assertEquals(RECORD_SIZE, raf.readLong());
+            assertEquals(0, raf.readLong());
+            assertEquals(RECORD_SIZE - 4, raf.readInt());
+            raf.skipBytes(8);
+            assertEquals(Log.ERROR, raf.readByte());
+            assertEquals(1, raf.readShort());
+            byte[] text = new byte[3];
+            raf.readFully(text);
+            assertEquals("tm0", new String(text, "UTF-8"));
+        } finally {
+            raf.close();
+        }
+    }
+}
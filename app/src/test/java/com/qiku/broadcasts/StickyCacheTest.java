@@ -0,0 +1,122 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static com.qiku.broadcasts.TestListeners.holdReceiverThread;
+import static com.qiku.broadcasts.TestListeners.idleReceiverThreads;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class StickyCacheTest {
+
+    static final class StickyListener extends TestListeners.CountingListener {
+
+        StickyListener(String name, int priority, String... actions) {
+            super(name, priority, null, null, actions);
+        }
+
+        @Override
+        public boolean isStickyReplayEnabled() {
+            return true;
+        }
+    }
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    @SuppressWarnings("deprecation")
+    public void setUp() {
+        RuntimeEnvironment.application.sendStickyBroadcast(
+                new Intent(Intent.ACTION_BATTERY_CHANGED)
+                        .putExtra(BatteryManager.EXTRA_LEVEL, 50));
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+    }
+
+    @Test
+    public void cacheKeptUntilLastReceiverDropsAction() {
+        mPolicy.setPriorityBandEdges(1, 100);
+        StickyListener low = new StickyListener("low", 0, Intent.ACTION_BATTERY_CHANGED);
+        StickyListener high = new StickyListener("high", 100, Intent.ACTION_BATTERY_CHANGED);
+        mPolicy.registerListener(low);
+        mPolicy.registerListener(high);
+        assertEquals(2, mPolicy.getReceiverCount());
+        assertNotNull(mPolicy.getLastIntent(Intent.ACTION_BATTERY_CHANGED));
+
+        // 另一个分段的receiver仍然在监听BATTERY_CHANGED
+        mPolicy.unregisterListener(low);
+        assertNotNull(mPolicy.getLastIntent(Intent.ACTION_BATTERY_CHANGED));
+
+        mPolicy.unregisterListener(high);
+        assertNull(mPolicy.getLastIntent(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    @Test
+    public void replayedOnlyWithoutRegisteringAgain() throws Exception {
+        mPolicy.registerListener(new StickyListener("first", 0, Intent.ACTION_BATTERY_CHANGED));
+
+        StickyListener same = new StickyListener("same", 0, Intent.ACTION_BATTERY_CHANGED);
+        CountDownLatch hold = holdReceiverThread();
+        mPolicy.registerListener(same);
+        // 补发不在注册时持有锁的线程中执行，而是在接收广播的线程中
+        assertEquals(0, same.mReceived);
+        hold.countDown();
+        idleReceiverThreads();
+        assertEquals(1, same.mReceived);
+
+        // 新的action使receiver重新注册，只收到系统重新投递的sticky广播
+        StickyListener newAction = new StickyListener("new-action", 0,
+                Intent.ACTION_BATTERY_CHANGED, Intent.ACTION_BATTERY_LOW);
+        mPolicy.registerListener(newAction);
+        idleReceiverThreads();
+        assertEquals(1, newAction.mReceived);
+
+        mPolicy.beginBatch();
+        mPolicy.registerListener(new StickyListener("okay", 0, Intent.ACTION_BATTERY_OKAY));
+        StickyListener batched = new StickyListener("batched", 0, Intent.ACTION_BATTERY_CHANGED);
+        mPolicy.registerListener(batched);
+        assertEquals(0, batched.mReceived);
+        mPolicy.commitBatch();
+        idleReceiverThreads();
+        assertEquals(1, batched.mReceived);
+    }
+
+    @Test
+    public void replaySkippedAfterUnregister() throws Exception {
+        mPolicy.registerListener(new StickyListener("first", 0, Intent.ACTION_BATTERY_CHANGED));
+        StickyListener late = new StickyListener("late", 0, Intent.ACTION_BATTERY_CHANGED);
+        CountDownLatch hold = holdReceiverThread();
+        mPolicy.registerListener(late);
+        mPolicy.unregisterListener(late);
+        hold.countDown();
+        idleReceiverThreads();
+        assertEquals(0, late.mReceived);
+    }
+
+    @Test
+    public void lateDeliveryDoesNotRestoreDroppedAction() {
+        StickyListener listener = new StickyListener("battery", 0, Intent.ACTION_BATTERY_CHANGED);
+        mPolicy.registerListener(listener);
+        mPolicy.unregisterListener(listener);
+        assertNull(mPolicy.getLastIntent(Intent.ACTION_BATTERY_CHANGED));
+
+        // 删除action之前已经在投递中的初始sticky广播
+        mPolicy.cacheSticky(Intent.ACTION_BATTERY_CHANGED,
+                new Intent(Intent.ACTION_BATTERY_CHANGED), true);
+        assertNull(mPolicy.getLastIntent(Intent.ACTION_BATTERY_CHANGED));
+    }
+}
@@ -0,0 +1,194 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.net.ConnectivityManager;
+
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注册开销测试中使用的Listener集合
+ */
+final class TestListeners {
+    private TestListeners() {}
+
+    static final String PERMISSION = "com.qiku.permission.BROADCAST_BRIDGE";
+
+    static class TestListener extends BroadcastBridge.Listener {
+        private final List<String> mSchemes;
+        private final String mPermission;
+        private final ThreadMode mThreadMode;
+
+        TestListener(String name, int priority, List<String> schemes, String permission,
+                     ThreadMode threadMode, String... actions) {
+            super(name, priority, actions);
+            mSchemes = schemes;
+            mPermission = permission;
+            mThreadMode = threadMode;
+        }
+
+        TestListener(String name, int priority, String... actions) {
+            this(name, priority, null, null, ThreadMode.MAIN, actions);
+        }
+
+        @Override
+        public List<String> getDataSchemes() {
+            return mSchemes;
+        }
+
+        @Override
+        public String getBroadcastPermission() {
+            return mPermission;
+        }
+
+        @Override
+        public ThreadMode getThreadMode() {
+            return mThreadMode;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+        }
+    }
+
+    /**
+     * 在调用线程中回调，记录收到广播的次数和最近一次回调的线程
+     */
+    static class CountingListener extends TestListener {
+        int mReceived;
+        Thread mThread;
+
+        CountingListener(String name, int priority, List<String> schemes, String permission,
+                         String... actions) {
+            super(name, priority, schemes, permission, ThreadMode.POSTING, actions);
+        }
+
+        CountingListener(String name, String... actions) {
+            this(name, 0, null, null, actions);
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mReceived++;
+            mThread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * 和MainActivity中相同的Listener，每次调用都创建新的对象，模拟Activity重建
+     *
+     * @return
+     */
+    static List<BroadcastBridge.Listener> mainActivity() {
+        return Arrays.<BroadcastBridge.Listener>asList(
+                new TestListener("screen-listener", 0,
+                        Intent.ACTION_SCREEN_OFF, Intent.ACTION_SCREEN_ON),
+                new TestListener("screen-listener1", 0,
+                        Intent.ACTION_SCREEN_ON, Intent.ACTION_USER_PRESENT),
+                new TestListener("screen-listener2", 0, Collections.singletonList("package"),
+                        null, BroadcastBridge.Listener.ThreadMode.MAIN,
+                        Intent.ACTION_PACKAGE_ADDED, Intent.ACTION_PACKAGE_CHANGED,
+                        Intent.ACTION_PACKAGE_REMOVED),
+                new TestListener("screen-listener3", 0, ConnectivityManager.CONNECTIVITY_ACTION),
+                new TestListener("screen-listener4", 0, "com.qiku.ACTION_BROADCAST_BRIDGE_TEST"),
+                new TestListener("screen-listener5", 0, null, PERMISSION,
+                        BroadcastBridge.Listener.ThreadMode.MAIN,
+                        "com.qiku.ACTION_BROADCAST_BRIDGE_TEST1"),
+                new TestListener("screen-listener6", 100, Intent.ACTION_SCREEN_OFF),
+                // MainActivity中该Listener和上一个permission Listener同名
+                new TestListener("screen-listener5", 0, Collections.singletonList("content"),
+                        PERMISSION, BroadcastBridge.Listener.ThreadMode.MAIN,
+                        "com.qiku.ACTION_BROADCAST_BRIDGE_TEST2"));
+    }
+
+    /**
+     * 等待共用的接收线程处理完已经投递的消息，再执行主线程中等待的消息。
+     * 所有Listener都不在主线程回调的receiver在接收线程中收到广播和补发sticky广播
+     */
+    static void idleReceiverThreads() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        BroadcastDispatcher.receiverHandler().post(latch::countDown);
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("receiver thread is busy");
+        }
+        ShadowLooper.idleMainLooper();
+    }
+
+    /**
+     * 阻塞共用的接收线程，之后投递到该线程的消息在countDown之后才执行
+     */
+    static CountDownLatch holdReceiverThread() {
+        final CountDownLatch hold = new CountDownLatch(1);
+        BroadcastDispatcher.receiverHandler().post(() -> {
+            try {
+                hold.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return hold;
+    }
+
+    private static final String[][] SYSTEM_ACTION_GROUPS = {
+            {Intent.ACTION_SCREEN_ON, Intent.ACTION_SCREEN_OFF},
+            {Intent.ACTION_BATTERY_CHANGED, Intent.ACTION_BATTERY_LOW},
+            {Intent.ACTION_TIME_TICK, Intent.ACTION_TIME_CHANGED},
+            {ConnectivityManager.CONNECTIVITY_ACTION},
+            {Intent.ACTION_POWER_CONNECTED, Intent.ACTION_POWER_DISCONNECTED},
+    };
+
+    private static final int CUSTOM_ACTION_COUNT = 20;
+
+    /**
+     * 生成policy可以接受的count个Listener，模拟一个大型App：
+     * 大部分Listener监听系统预置category中的action，1/4监听App自定义的action，
+     * 支持scheme或permission的policy中还有1/8的Listener需要scheme或permission，
+     * 1/10的Listener不在主线程回调。相同的参数每次生成的结果相同
+     *
+     * @param policy
+     * @param count
+     * @return
+     */
+    static List<BroadcastBridge.Listener> synthetic(String policy, int count) {
+        boolean schemeSupported = BroadcastBridge.MERGE_AUTO.equals(policy) ||
+                BroadcastBridge.MERGE_SCHEME.equals(policy) ||
+                BroadcastBridge.MERGE_OPTIMAL.equals(policy);
+        boolean permissionSupported = BroadcastBridge.MERGE_AUTO.equals(policy) ||
+                BroadcastBridge.MERGE_PERMISSION.equals(policy) ||
+                BroadcastBridge.MERGE_OPTIMAL.equals(policy);
+
+        List<BroadcastBridge.Listener> listeners = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "synthetic-" + i;
+            int priority = (i % 7) * 10;
+            BroadcastBridge.Listener.ThreadMode threadMode = i % 10 == 9 ?
+                    BroadcastBridge.Listener.ThreadMode.BACKGROUND :
+                    BroadcastBridge.Listener.ThreadMode.MAIN;
+            if (schemeSupported && i % 8 == 7) {
+                listeners.add(new TestListener(name, priority,
+                        Collections.singletonList("package"), null, threadMode,
+                        Intent.ACTION_PACKAGE_ADDED, Intent.ACTION_PACKAGE_REMOVED));
+            } else if (permissionSupported && i % 8 == 6) {
+                listeners.add(new TestListener(name, priority, null, PERMISSION, threadMode,
+                        customAction(i)));
+            } else if (i % 4 == 3) {
+                listeners.add(new TestListener(name, priority, null, null, threadMode,
+                        customAction(i)));
+            } else {
+                listeners.add(new TestListener(name, priority, null, null, threadMode,
+                        SYSTEM_ACTION_GROUPS[i % SYSTEM_ACTION_GROUPS.length]));
+            }
+        }
+        return listeners;
+    }
+
+    private static String customAction(int index) {
+        return "com.qiku.test.ACTION_" + (index % CUSTOM_ACTION_COUNT);
+    }
+}
@@ -0,0 +1,163 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 28)
+public class ThreadModeTest {
+
+    private static final String ACTION_A = "com.qiku.test.ACTION_A";
+    private static final String ACTION_B = "com.qiku.test.ACTION_B";
+    private static final String ACTION_C = "com.qiku.test.ACTION_C";
+
+    private RecordingContext mContext;
+    private MergePolicyAuto mPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = new RecordingContext(RuntimeEnvironment.application);
+        mPolicy = new MergePolicyAuto(mContext, BroadcastBridge.MERGE_AUTO);
+    }
+
+    private static TestListeners.TestListener listener(String name,
+                                                       BroadcastBridge.Listener.ThreadMode mode,
+                                                       String action) {
+        return new TestListeners.TestListener(name, 0, null, null, mode, action);
+    }
+
+    /**
+     * 记录回调线程，回调之后countDown
+     */
+    private static final class ThreadListener extends TestListeners.TestListener {
+        private final CountDownLatch mLatch;
+        private volatile Thread mThread;
+
+        ThreadListener(String name, BroadcastBridge.Listener.ThreadMode mode, String action,
+                       CountDownLatch latch) {
+            super(name, 0, null, null, mode, action);
+            mLatch = latch;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mThread = Thread.currentThread();
+            mLatch.countDown();
+        }
+    }
+
+    private Handler schedulerOf(BroadcastBridge.Listener listener) {
+        return mContext.getScheduler(receiverOf(listener));
+    }
+
+    private BroadcastReceiver receiverOf(BroadcastBridge.Listener listener) {
+        return mPolicy.getCategoryReceiver(mPolicy.categoryOf(listener));
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("listeners not called");
+        }
+    }
+
+    @Test
+    public void callbackThreadFollowsThreadMode() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(4);
+        ThreadListener posting = new ThreadListener("posting",
+                BroadcastBridge.Listener.ThreadMode.POSTING, ACTION_A, latch);
+        ThreadListener main = new ThreadListener("main",
+                BroadcastBridge.Listener.ThreadMode.MAIN, ACTION_A, latch);
+        ThreadListener background = new ThreadListener("background",
+                BroadcastBridge.Listener.ThreadMode.BACKGROUND, ACTION_A, latch);
+        ThreadListener category = new ThreadListener("category",
+                BroadcastBridge.Listener.ThreadMode.CATEGORY_THREAD, ACTION_A, latch);
+        mPolicy.registerListener(posting);
+        mPolicy.registerListener(main);
+        mPolicy.registerListener(background);
+        mPolicy.registerListener(category);
+        assertEquals(1, mPolicy.getReceiverCount());
+        assertNull(schedulerOf(posting));
+
+        // 有主线程的Listener，receiver在主线程中收到广播
+        receiverOf(posting).onReceive(mContext, new Intent(ACTION_A));
+        await(latch);
+
+        Thread mainThread = Looper.getMainLooper().getThread();
+        assertSame(mainThread, posting.mThread);
+        assertSame(mainThread, main.mThread);
+        assertTrue(background.mThread.getName(),
+                background.mThread.getName().startsWith("BroadcastBridge-bg-"));
+        assertEquals("BroadcastBridge-" + mPolicy.categoryOf(category),
+                category.mThread.getName());
+    }
+
+    @Test
+    public void postingRunsOnSharedReceiverThread() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(2);
+        ThreadListener posting = new ThreadListener("posting",
+                BroadcastBridge.Listener.ThreadMode.POSTING, ACTION_A, latch);
+        ThreadListener category = new ThreadListener("category",
+                BroadcastBridge.Listener.ThreadMode.CATEGORY_THREAD, ACTION_A, latch);
+        mPolicy.registerListener(posting);
+        mPolicy.registerListener(category);
+
+        // 所有Listener都不在主线程回调，receiver在共用的接收线程中收到广播
+        final BroadcastReceiver receiver = receiverOf(posting);
+        Handler scheduler = schedulerOf(posting);
+        scheduler.post(() -> receiver.onReceive(mContext, new Intent(ACTION_A)));
+        await(latch);
+
+        assertSame(scheduler.getLooper().getThread(), posting.mThread);
+        assertEquals("BroadcastBridge-" + mPolicy.categoryOf(category),
+                category.mThread.getName());
+    }
+
+    @Test
+    public void offMainReceiversShareOneLooper() {
+        TestListeners.TestListener posting = listener("posting",
+                BroadcastBridge.Listener.ThreadMode.POSTING, ACTION_A);
+        TestListeners.TestListener background = listener("background",
+                BroadcastBridge.Listener.ThreadMode.BACKGROUND, ACTION_B);
+        TestListeners.TestListener main = listener("main",
+                BroadcastBridge.Listener.ThreadMode.MAIN, ACTION_C);
+        mPolicy.registerListener(posting);
+        mPolicy.registerListener(background);
+        mPolicy.registerListener(main);
+        assertEquals(3, mPolicy.getReceiverCount());
+
+        // 每个自定义action是一个category，不在主线程回调的receiver不各自创建线程
+        Handler scheduler = schedulerOf(posting);
+        assertNotNull(scheduler);
+        assertSame(scheduler.getLooper(), schedulerOf(background).getLooper());
+        assertEquals("BroadcastBridge-receiver", scheduler.getLooper().getThread().getName());
+        assertNull(schedulerOf(main));
+
+        // CATEGORY_THREAD的Listener只在自己的线程中回调，receiver仍然在共用的线程中接收
+        mPolicy.registerListener(listener("category",
+                BroadcastBridge.Listener.ThreadMode.CATEGORY_THREAD, ACTION_A));
+        assertSame(scheduler.getLooper(), schedulerOf(posting).getLooper());
+
+        // 加入主线程的Listener之后在主线程接收
+        mPolicy.registerListener(listener("main-b", BroadcastBridge.Listener.ThreadMode.MAIN,
+                ACTION_B));
+        assertNull(schedulerOf(background));
+    }
+}
@@ -0,0 +1,252 @@
+package com.qiku.broadcasts.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.JavaFileObject;
+
+/**
+ * 为一个宿主类生成 宿主类名_BroadcastBinding。
+ *
+ * scheme、permission、priority、threadMode、critical和category都相同的action合并到一个Listener中，
+ * 每个Listener的onReceiveBroadcast是一个按action的switch(javac编译为按hashCode的跳转表)，
+ * 直接调用宿主的方法，category在类加载时创建一次。
+ * Listener的名字是 宿主类的binary name#序号@绑定序号，绑定序号由每个绑定类的计数器分配，
+ * 同一个宿主类的多个对象可以同时绑定；统计使用不带绑定序号的名字，宿主对象重建时不会产生新的统计
+ */
+final class BindingWriter {
+
+    static final String SUFFIX = "_BroadcastBinding";
+
+    /**
+     * 一个生成的Listener
+     */
+    private static final class Group {
+        final BroadcastMethod mFirst;
+
+        /**
+         * MERGE_AUTO中的category，没有配置文件时为null
+         */
+        final String mCategory;
+
+        /**
+         * action -> 需要调用的方法，保持注解中的顺序
+         */
+        final Map<String, List<BroadcastMethod>> mCalls = new LinkedHashMap<>();
+
+        Group(BroadcastMethod first, String category) {
+            mFirst = first;
+            mCategory = category;
+        }
+    }
+
+    private final ProcessingEnvironment mEnv;
+    private final TypeElement mHost;
+    private final List<BroadcastMethod> mMethods;
+    private final Map<String, String> mActionToCategory;
+
+    BindingWriter(ProcessingEnvironment env, TypeElement host, List<BroadcastMethod> methods,
+                  Map<String, String> actionToCategory) {
+        mEnv = env;
+        mHost = host;
+        mMethods = methods;
+        mActionToCategory = actionToCategory;
+    }
+
+    void write() throws IOException {
+        Elements elements = mEnv.getElementUtils();
+        String packageName = elements.getPackageOf(mHost).getQualifiedName().toString();
+        String bindingName = flatName(mHost) + SUFFIX;
+        String hostType = mHost.getQualifiedName().toString();
+        String listenerPrefix = elements.getBinaryName(mHost) + "#";
+        List<Group> groups = group();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// 由bridge-compiler根据@OnBroadcast生成，不要手动修改\n");
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import android.content.Intent;\n\n");
+        sb.append("import com.qiku.broadcasts.BroadcastBinding;\n");
+        sb.append("import com.qiku.broadcasts.BroadcastBridge;\n");
+        sb.append("import com.qiku.broadcasts.CategoryKey;\n\n");
+        sb.append("import java.util.Arrays;\n");
+        sb.append("import java.util.Collections;\n");
+        sb.append("import java.util.List;\n");
+        sb.append("import java.util.concurrent.atomic.AtomicInteger;\n\n");
+        sb.append("public final class ").append(bindingName).append(" implements BroadcastBinding {\n\n");
+
+        for (int i = 0; i < groups.size(); i++) {
+            Group group = groups.get(i);
+            if (group.mCategory != null) {
+                sb.append("    private static final CategoryKey CATEGORY_").append(i)
+                        .append(" = CategoryKey.of(").append(literal(group.mCategory)).append(");\n\n");
+            }
+            if (!group.mFirst.mSchemes.isEmpty()) {
+                sb.append("    private static final List<String> SCHEMES_").append(i)
+                        .append(" = Collections.unmodifiableList(Arrays.asList(")
+                        .append(literals(group.mFirst.mSchemes)).append("));\n\n");
+            }
+        }
+
+        sb.append("    private static final AtomicInteger sNextId = new AtomicInteger();\n\n");
+        sb.append("    private final List<BroadcastBridge.Listener> mListeners;\n\n");
+        sb.append("    public ").append(bindingName).append("(").append(hostType).append(" host) {\n");
+        sb.append("        String suffix = \"@\" + sNextId.getAndIncrement();\n");
+        sb.append("        mListeners = Collections.unmodifiableList(Arrays.<BroadcastBridge.Listener>asList(");
+        for (int i = 0; i < groups.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("                new Listener").append(i).append("(host, suffix)");
+        }
+        sb.append("));\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public List<BroadcastBridge.Listener> getListeners() {\n");
+        sb.append("        return mListeners;\n");
+        sb.append("    }\n");
+
+        for (int i = 0; i < groups.size(); i++) {
+            writeListener(sb, i, groups.get(i), hostType, listenerPrefix);
+        }
+        sb.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? bindingName : packageName + "." + bindingName;
+        JavaFileObject file = mEnv.getFiler().createSourceFile(qualifiedName, mHost);
+        try (Writer writer = file.openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private void writeListener(StringBuilder sb, int index, Group group, String hostType,
+                               String listenerPrefix) {
+        BroadcastMethod first = group.mFirst;
+        sb.append("\n    private static final class Listener").append(index)
+                .append(" extends BroadcastBridge.Listener {\n\n");
+        sb.append("        private final ").append(hostType).append(" mHost;\n\n");
+        sb.append("        Listener").append(index).append("(").append(hostType)
+                .append(" host, String suffix) {\n");
+        sb.append("            super(").append(literal(listenerPrefix + index)).append(" + suffix, ")
+                .append(first.mPriority).append(", ")
+                .append(literals(new ArrayList<>(group.mCalls.keySet()))).append(");\n");
+        sb.append("            mHost = host;\n");
+        sb.append("        }\n");
+
+        sb.append("\n        @Override\n");
+        sb.append("        public String getStatsName() {\n");
+        sb.append("            return ").append(literal(listenerPrefix + index)).append(";\n");
+        sb.append("        }\n");
+
+        if (!first.mSchemes.isEmpty()) {
+            sb.append("\n        @Override\n");
+            sb.append("        public List<String> getDataSchemes() {\n");
+            sb.append("            return SCHEMES_").append(index).append(";\n");
+            sb.append("        }\n");
+        }
+        if (first.mPermission != null) {
+            sb.append("\n        @Override\n");
+            sb.append("        public String getBroadcastPermission() {\n");
+            sb.append("            return ").append(literal(first.mPermission)).append(";\n");
+            sb.append("        }\n");
+        }
+        if (!"MAIN".equals(first.mThreadMode)) {
+            sb.append("\n        @Override\n");
+            sb.append("        public ThreadMode getThreadMode() {\n");
+            sb.append("            return ThreadMode.").append(first.mThreadMode).append(";\n");
+            sb.append("        }\n");
+        }
+        if (first.mCritical) {
+            sb.append("\n        @Override\n");
+            sb.append("        public Criticality getCriticality() {\n");
+            sb.append("            return Criticality.CRITICAL;\n");
+            sb.append("        }\n");
+        }
+        if (group.mCategory != null) {
+            sb.append("\n        @Override\n");
+            sb.append("        public CategoryKey getAutoCategory() {\n");
+            sb.append("            return CATEGORY_").append(index).append(";\n");
+            sb.append("        }\n");
+        }
+
+        sb.append("\n        @Override\n");
+        sb.append("        public void onReceiveBroadcast(Intent intent) {\n");
+        sb.append("            String action = intent.getAction();\n");
+        sb.append("            if (action == null) {\n");
+        sb.append("                return;\n");
+        sb.append("            }\n");
+        sb.append("            switch (action) {\n");
+        for (Map.Entry<String, List<BroadcastMethod>> entry : group.mCalls.entrySet()) {
+            sb.append("                case ").append(literal(entry.getKey())).append(":\n");
+            for (BroadcastMethod method : entry.getValue()) {
+                sb.append("                    mHost.").append(method.mName)
+                        .append(method.mPassIntent ? "(intent);\n" : "();\n");
+            }
+            sb.append("                    break;\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    break;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+    }
+
+    /**
+     * 按照Listener的属性和category把每个方法的action分组
+     */
+    private List<Group> group() {
+        Map<String, Group> groups = new LinkedHashMap<>();
+        for (BroadcastMethod method : mMethods) {
+            for (String action : method.mActions) {
+                String category = null;
+                String groupCategory = action;
+                if (mActionToCategory != null) {
+                    category = mActionToCategory.getOrDefault(action, action);
+                    groupCategory = category;
+                }
+                String key = method.mSchemes + "|" + method.mPermission + "|" + method.mPriority +
+                        "|" + method.mThreadMode + "|" + method.mCritical + "|" + groupCategory;
+                Group group = groups.get(key);
+                if (group == null) {
+                    group = new Group(method, category);
+                    groups.put(key, group);
+                }
+                group.mCalls.computeIfAbsent(action, k -> new ArrayList<>()).add(method);
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * 嵌套类的名字用_连接，比如Outer.Inner生成Outer_Inner_BroadcastBinding
+     */
+    private static String flatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        if (enclosing instanceof TypeElement) {
+            return flatName((TypeElement) enclosing) + "_" + name;
+        }
+        return name;
+    }
+
+    private String literal(String value) {
+        return mEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private String literals(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(literal(values.get(i)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.qiku.broadcasts.compiler;
+
+import java.util.List;
+
+/**
+ * 一个OnBroadcast方法
+ */
+final class BroadcastMethod {
+
+    final String mName;
+
+    /**
+     * 方法是否有Intent参数
+     */
+    final boolean mPassIntent;
+
+    final List<String> mActions;
+
+    /**
+     * 排序并去重之后的scheme
+     */
+    final List<String> mSchemes;
+
+    /**
+     * 不需要permission时为null
+     */
+    final String mPermission;
+
+    final int mPriority;
+
+    /**
+     * BroadcastBridge.Listener.ThreadMode中的名字
+     */
+    final String mThreadMode;
+
+    /**
+     * App在后台时是否仍然回调
+     */
+    final boolean mCritical;
+
+    BroadcastMethod(String name, boolean passIntent, List<String> actions, List<String> schemes,
+                    String permission, int priority, String threadMode, boolean critical) {
+        mName = name;
+        mPassIntent = passIntent;
+        mActions = actions;
+        mSchemes = schemes;
+        mPermission = permission;
+        mPriority = priority;
+        mThreadMode = threadMode;
+        mCritical = critical;
+    }
+}
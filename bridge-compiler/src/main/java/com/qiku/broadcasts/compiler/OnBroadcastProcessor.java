@@ -0,0 +1,251 @@
+package com.qiku.broadcasts.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+
+/**
+ * 处理OnBroadcast注解，为每个宿主类生成 宿主类名_BroadcastBinding。
+ *
+ * 注解定义在app模块中，这里只通过全名和AnnotationMirror读取，不依赖注解的Class。
+ *
+ * 通过选项broadcastbridge.categoryDirs指定category配置文件(*.conf)所在的目录(多个目录用路径分隔符分开)，
+ * 和MergePolicyAuto使用相同的分类，不同category的action生成不同的Listener，并预先计算好category。
+ * 没有指定时每个action生成一个Listener，由MergePolicyAuto在运行时分类
+ */
+@SupportedAnnotationTypes(OnBroadcastProcessor.ON_BROADCAST)
+@SupportedOptions(OnBroadcastProcessor.OPTION_CATEGORY_DIRS)
+public class OnBroadcastProcessor extends AbstractProcessor {
+
+    static final String ON_BROADCAST = "com.qiku.broadcasts.OnBroadcast";
+
+    static final String OPTION_CATEGORY_DIRS = "broadcastbridge.categoryDirs";
+
+    private static final String INTENT = "android.content.Intent";
+
+    /**
+     * action -> category，没有指定配置文件时为null
+     */
+    private Map<String, String> mActionToCategory;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        String dirs = processingEnv.getOptions().get(OPTION_CATEGORY_DIRS);
+        if (dirs == null || dirs.trim().isEmpty()) {
+            return;
+        }
+        try {
+            mActionToCategory = loadCategories(dirs);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can not read category config " + dirs + ": " + e);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ON_BROADCAST);
+        if (annotation == null) {
+            return false;
+        }
+
+        // 保持源码中的顺序，每次生成的代码相同
+        Map<TypeElement, List<BroadcastMethod>> hosts = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            BroadcastMethod method = parseMethod((ExecutableElement) element, annotation);
+            if (method != null) {
+                TypeElement host = (TypeElement) element.getEnclosingElement();
+                hosts.computeIfAbsent(host, k -> new ArrayList<>()).add(method);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<BroadcastMethod>> entry : hosts.entrySet()) {
+            TypeElement host = entry.getKey();
+            if (!checkHost(host)) {
+                continue;
+            }
+            try {
+                new BindingWriter(processingEnv, host, entry.getValue(), mActionToCategory).write();
+            } catch (IOException e) {
+                error(host, "Can not write broadcast binding: " + e);
+            }
+        }
+        return true;
+    }
+
+    private BroadcastMethod parseMethod(ExecutableElement method, TypeElement annotation) {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+            error(method, "@OnBroadcast method must not be private or static");
+            return null;
+        }
+        if (method.getEnclosingElement().getKind() != ElementKind.CLASS) {
+            error(method, "@OnBroadcast method must be declared in a class");
+            return null;
+        }
+        List<? extends VariableElement> parameters = method.getParameters();
+        boolean passIntent = parameters.size() == 1;
+        if (parameters.size() > 1 || (passIntent &&
+                !INTENT.equals(parameters.get(0).asType().toString()))) {
+            error(method, "@OnBroadcast method must have no parameter or a single Intent");
+            return null;
+        }
+
+        AnnotationMirror mirror = null;
+        for (AnnotationMirror candidate : method.getAnnotationMirrors()) {
+            if (candidate.getAnnotationType().asElement().equals(annotation)) {
+                mirror = candidate;
+                break;
+            }
+        }
+        if (mirror == null) {
+            return null;
+        }
+
+        List<String> actions = new ArrayList<>();
+        TreeSet<String> schemes = new TreeSet<>();
+        String permission = null;
+        int priority = 0;
+        String threadMode = "MAIN";
+        boolean critical = false;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            String name = entry.getKey().getSimpleName().toString();
+            Object value = entry.getValue().getValue();
+            switch (name) {
+                case "actions":
+                    for (AnnotationValue action : asList(value)) {
+                        String s = (String) action.getValue();
+                        if (s.isEmpty()) {
+                            error(method, "@OnBroadcast action must not be empty");
+                            return null;
+                        }
+                        if (!actions.contains(s)) {
+                            actions.add(s);
+                        }
+                    }
+                    break;
+                case "schemes":
+                    for (AnnotationValue scheme : asList(value)) {
+                        schemes.add((String) scheme.getValue());
+                    }
+                    break;
+                case "permission":
+                    permission = ((String) value).isEmpty() ? null : (String) value;
+                    break;
+                case "priority":
+                    priority = (Integer) value;
+                    break;
+                case "threadMode":
+                    threadMode = ((VariableElement) value).getSimpleName().toString();
+                    break;
+                case "critical":
+                    critical = (Boolean) value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (actions.isEmpty()) {
+            error(method, "@OnBroadcast must have actions");
+            return null;
+        }
+        if (method.getReturnType().getKind() != TypeKind.VOID) {
+            warning(method, "Return value of @OnBroadcast method is ignored");
+        }
+        return new BroadcastMethod(method.getSimpleName().toString(), passIntent, actions,
+                new ArrayList<>(schemes), permission, priority, threadMode, critical);
+    }
+
+    /**
+     * 生成的类和宿主在同一个包中，宿主和外部类都不能是private
+     */
+    private boolean checkHost(TypeElement host) {
+        for (Element e = host; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(host, "Class with @OnBroadcast methods must not be private");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<? extends AnnotationValue> asList(Object value) {
+        return (List<? extends AnnotationValue>) value;
+    }
+
+    /**
+     * 和gradle/action-categories.gradle读取相同的配置文件
+     */
+    private static Map<String, String> loadCategories(String dirs) throws IOException {
+        Map<String, String> actionToCategory = new HashMap<>();
+        for (String dir : dirs.split(File.pathSeparator)) {
+            File[] files = new File(dir.trim()).listFiles((d, name) -> name.endsWith(".conf"));
+            if (files == null) {
+                throw new IOException(dir + " is not a directory");
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file.toPath());
+                     Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+                for (String category : properties.stringPropertyNames()) {
+                    for (String action : properties.getProperty(category).split(",")) {
+                        action = action.trim();
+                        if (!action.isEmpty()) {
+                            actionToCategory.put(action, category);
+                        }
+                    }
+                }
+            }
+        }
+        return actionToCategory;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void warning(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
@@ -0,0 +1,304 @@
+package com.qiku.broadcasts.compiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用javac编译带@OnBroadcast的源码，检查生成的Binding和错误提示。
+ *
+ * app模块依赖Android SDK，这里用只包含生成代码所需接口的桩代码代替
+ */
+public class OnBroadcastProcessorTest {
+
+    private static final String SCREEN_ON = "android.intent.action.SCREEN_ON";
+    private static final String SCREEN_OFF = "android.intent.action.SCREEN_OFF";
+
+    private static final String[][] STUBS = {
+            {"android.content.Intent",
+                    "package android.content;\n" +
+                    "public class Intent {\n" +
+                    "    private final String mAction;\n" +
+                    "    public Intent(String action) { mAction = action; }\n" +
+                    "    public String getAction() { return mAction; }\n" +
+                    "}\n"},
+            {"com.qiku.broadcasts.CategoryKey",
+                    "package com.qiku.broadcasts;\n" +
+                    "public final class CategoryKey {\n" +
+                    "    public final String mName;\n" +
+                    "    private CategoryKey(String name) { mName = name; }\n" +
+                    "    public static CategoryKey of(String name) { return new CategoryKey(name); }\n" +
+                    "}\n"},
+            {"com.qiku.broadcasts.BroadcastBinding",
+                    "package com.qiku.broadcasts;\n" +
+                    "public interface BroadcastBinding {\n" +
+                    "    java.util.List<BroadcastBridge.Listener> getListeners();\n" +
+                    "}\n"},
+            {"com.qiku.broadcasts.BroadcastBridge",
+                    "package com.qiku.broadcasts;\n" +
+                    "import android.content.Intent;\n" +
+                    "import java.util.List;\n" +
+                    "public class BroadcastBridge {\n" +
+                    "    public abstract static class Listener {\n" +
+                    "        public enum ThreadMode { MAIN, BACKGROUND, POSTING, CATEGORY_THREAD }\n" +
+                    "        public enum Criticality { NORMAL, CRITICAL }\n" +
+                    "        public final String mName;\n" +
+                    "        public final int mPriority;\n" +
+                    "        public final String[] mActions;\n" +
+                    "        public Listener(String name, int priority, String... actions) {\n" +
+                    "            mName = name; mPriority = priority; mActions = actions;\n" +
+                    "        }\n" +
+                    "        public String getStatsName() { return mName; }\n" +
+                    "        public List<String> getDataSchemes() { return null; }\n" +
+                    "        public String getBroadcastPermission() { return null; }\n" +
+                    "        public ThreadMode getThreadMode() { return ThreadMode.MAIN; }\n" +
+                    "        public Criticality getCriticality() { return Criticality.NORMAL; }\n" +
+                    "        public CategoryKey getAutoCategory() { return null; }\n" +
+                    "        public abstract void onReceiveBroadcast(Intent intent);\n" +
+                    "    }\n" +
+                    "}\n"},
+            {"com.qiku.broadcasts.OnBroadcast",
+                    "package com.qiku.broadcasts;\n" +
+                    "public @interface OnBroadcast {\n" +
+                    "    String[] actions();\n" +
+                    "    String[] schemes() default {};\n" +
+                    "    String permission() default \"\";\n" +
+                    "    int priority() default 0;\n" +
+                    "    BroadcastBridge.Listener.ThreadMode threadMode() " +
+                    "default BroadcastBridge.Listener.ThreadMode.MAIN;\n" +
+                    "    boolean critical() default false;\n" +
+                    "}\n"},
+    };
+
+    private static final String HOST =
+            "package com.qiku.test;\n" +
+            "import android.content.Intent;\n" +
+            "import com.qiku.broadcasts.BroadcastBridge.Listener.ThreadMode;\n" +
+            "import com.qiku.broadcasts.OnBroadcast;\n" +
+            "import java.util.ArrayList;\n" +
+            "import java.util.List;\n" +
+            "public class Host {\n" +
+            "    public final List<String> mCalls = new ArrayList<>();\n" +
+            "    @OnBroadcast(actions = \"" + SCREEN_ON + "\")\n" +
+            "    void onScreenOn(Intent intent) { mCalls.add(\"on:\" + intent.getAction()); }\n" +
+            "    @OnBroadcast(actions = {\"" + SCREEN_OFF + "\", \"" + SCREEN_ON + "\"})\n" +
+            "    void onScreen() { mCalls.add(\"screen\"); }\n" +
+            "    @OnBroadcast(actions = \"com.qiku.test.ACTION_A\", threadMode = ThreadMode.BACKGROUND)\n" +
+            "    void onBackground() { mCalls.add(\"background\"); }\n" +
+            "    @OnBroadcast(actions = \"com.qiku.test.ACTION_B\", priority = 10, critical = true)\n" +
+            "    void onCritical() { mCalls.add(\"critical\"); }\n" +
+            "}\n";
+
+    private Path mDir;
+    private DiagnosticCollector<JavaFileObject> mDiagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("bridge-compiler");
+        mDiagnostics = new DiagnosticCollector<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(mDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') +
+                JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    private boolean compile(String categoryDirs, String hostName, String hostCode)
+            throws IOException {
+        Path classes = Files.createDirectories(mDir.resolve("classes"));
+        Path generated = Files.createDirectories(mDir.resolve("generated"));
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (String[] stub : STUBS) {
+            sources.add(source(stub[0], stub[1]));
+        }
+        sources.add(source(hostName, hostCode));
+
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-d", classes.toString(), "-s", generated.toString()));
+        if (categoryDirs != null) {
+            options.add("-A" + OnBroadcastProcessor.OPTION_CATEGORY_DIRS + "=" + categoryDirs);
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, mDiagnostics, options,
+                null, sources);
+        task.setProcessors(Collections.singletonList(new OnBroadcastProcessor()));
+        return task.call();
+    }
+
+    private String categoryDir() throws IOException {
+        Path dir = Files.createDirectories(mDir.resolve("categories"));
+        Files.write(dir.resolve("system.conf"), ("screen=" + SCREEN_ON + "," + SCREEN_OFF + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        return dir.toString();
+    }
+
+    private String generatedSource() throws IOException {
+        return new String(Files.readAllBytes(mDir.resolve(
+                "generated/com/qiku/test/Host" + BindingWriter.SUFFIX + ".java")),
+                StandardCharsets.UTF_8);
+    }
+
+    private List<String> errors() {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        return errors;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Object field(Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getField(name);
+        return field.get(target);
+    }
+
+    @Test
+    public void groupsActionsByCategory() throws Exception {
+        assertTrue(errors().toString(), compile(categoryDir(), "com.qiku.test.Host", HOST));
+        String code = generatedSource();
+
+        // 同一category的两个action在一个Listener中，其余属性不同的方法各自一个Listener
+        assertEquals(3, count(code, " extends BroadcastBridge.Listener {"));
+        // 配置文件中没有的action自成一个category，和MergePolicyAuto一致
+        assertEquals(3, count(code, "CategoryKey.of("));
+        assertTrue(code, code.contains("CATEGORY_0 = CategoryKey.of(\"screen\")"));
+        assertTrue(code, code.contains("CATEGORY_1 = CategoryKey.of(\"com.qiku.test.ACTION_A\")"));
+        assertTrue(code, code.contains("return CATEGORY_0;"));
+        assertTrue(code, code.contains("return ThreadMode.BACKGROUND;"));
+        assertTrue(code, code.contains("return Criticality.CRITICAL;"));
+        assertTrue(code, code.contains("switch (action) {"));
+        assertTrue(code, code.contains("return \"com.qiku.test.Host#0\";"));
+
+        try (URLClassLoader loader = new URLClassLoader(
+                new URL[]{mDir.resolve("classes").toUri().toURL()},
+                getClass().getClassLoader())) {
+            Object host = loader.loadClass("com.qiku.test.Host").getConstructor().newInstance();
+            Class<?> bindingClass = loader.loadClass("com.qiku.test.Host" + BindingWriter.SUFFIX);
+            Object binding = bindingClass.getConstructors()[0].newInstance(host);
+            Object second = bindingClass.getConstructors()[0].newInstance(host);
+            List<?> listeners = (List<?>) bindingClass.getMethod("getListeners").invoke(binding);
+            List<?> others = (List<?>) bindingClass.getMethod("getListeners").invoke(second);
+            assertEquals(3, listeners.size());
+
+            // 生成的Listener是private的内部类，通过基类调用
+            Class<?> listenerClass = loader.loadClass(
+                    "com.qiku.broadcasts.BroadcastBridge$Listener");
+            Class<?> intentClass = loader.loadClass("android.content.Intent");
+            Object screen = listeners.get(0);
+            assertEquals(Arrays.asList(SCREEN_ON, SCREEN_OFF),
+                    Arrays.asList((String[]) field(screen, "mActions")));
+            assertEquals("screen", field(listenerClass.getMethod("getAutoCategory")
+                    .invoke(screen), "mName"));
+            // 每个绑定的名字不同，统计名字相同
+            assertFalse(field(screen, "mName").equals(field(others.get(0), "mName")));
+            assertEquals(listenerClass.getMethod("getStatsName").invoke(screen),
+                    listenerClass.getMethod("getStatsName").invoke(others.get(0)));
+            assertEquals(10, field(listeners.get(2), "mPriority"));
+
+            for (String action : new String[]{SCREEN_ON, SCREEN_OFF, "unknown"}) {
+                Object intent = intentClass.getConstructor(String.class).newInstance(action);
+                listenerClass.getMethod("onReceiveBroadcast", intentClass).invoke(screen, intent);
+            }
+            assertEquals(Arrays.asList("on:" + SCREEN_ON, "screen", "screen"),
+                    field(host, "mCalls"));
+        }
+    }
+
+    @Test
+    public void oneListenerPerActionWithoutCategories() throws Exception {
+        assertTrue(errors().toString(), compile(null, "com.qiku.test.Host", HOST));
+        String code = generatedSource();
+        assertEquals(4, count(code, " extends BroadcastBridge.Listener {"));
+        assertFalse(code, code.contains("CategoryKey.of("));
+        assertFalse(code, code.contains("getAutoCategory"));
+    }
+
+    @Test
+    public void invalidMethodsReported() throws Exception {
+        String host = "package com.qiku.test;\n" +
+                "import android.content.Intent;\n" +
+                "import com.qiku.broadcasts.OnBroadcast;\n" +
+                "public class Host {\n" +
+                "    @OnBroadcast(actions = \"a\") private void privateMethod() {}\n" +
+                "    @OnBroadcast(actions = \"a\") static void staticMethod() {}\n" +
+                "    @OnBroadcast(actions = \"a\") void twoParameters(Intent a, Intent b) {}\n" +
+                "    @OnBroadcast(actions = \"a\") void wrongParameter(String s) {}\n" +
+                "    @OnBroadcast(actions = {}) void noActions() {}\n" +
+                "    @OnBroadcast(actions = \"\") void emptyAction() {}\n" +
+                "}\n";
+        assertFalse(compile(null, "com.qiku.test.Host", host));
+        List<String> errors = errors();
+        assertEquals(errors.toString(), 6, errors.size());
+        assertEquals(2, Collections.frequency(errors,
+                "@OnBroadcast method must not be private or static"));
+        assertEquals(2, Collections.frequency(errors,
+                "@OnBroadcast method must have no parameter or a single Intent"));
+        assertTrue(errors.contains("@OnBroadcast must have actions"));
+        assertTrue(errors.contains("@OnBroadcast action must not be empty"));
+    }
+
+    @Test
+    public void privateHostReported() throws Exception {
+        String host = "package com.qiku.test;\n" +
+                "import com.qiku.broadcasts.OnBroadcast;\n" +
+                "public class Host {\n" +
+                "    private static class Inner {\n" +
+                "        @OnBroadcast(actions = \"a\") void onA() {}\n" +
+                "    }\n" +
+                "}\n";
+        assertFalse(compile(null, "com.qiku.test.Host", host));
+        assertEquals(Collections.singletonList(
+                "Class with @OnBroadcast methods must not be private"), errors());
+        assertFalse(Files.exists(mDir.resolve(
+                "generated/com/qiku/test/Host_Inner" + BindingWriter.SUFFIX + ".java")));
+    }
+}
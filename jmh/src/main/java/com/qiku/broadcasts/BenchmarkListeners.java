@@ -0,0 +1,133 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * benchmark共用的Policy和Listener。
+ *
+ * 生成的Listener模拟一个普通App的组成：大部分监听系统预置category中的action，
+ * 少部分监听App自定义的action，以及需要scheme或permission的Listener(只在支持的Policy中生成)。
+ * 所有Listener都使用POSTING模式，在FakeReceiverRegistrar.sendBroadcast的线程中回调。
+ */
+final class BenchmarkListeners {
+    private BenchmarkListeners() {}
+
+    static final String[][] SYSTEM_ACTION_GROUPS = {
+            {"android.intent.action.SCREEN_ON", "android.intent.action.SCREEN_OFF"},
+            {"android.intent.action.BATTERY_CHANGED", "android.intent.action.BATTERY_LOW"},
+            {"android.intent.action.TIME_TICK", "android.intent.action.TIME_SET"},
+            {"android.net.conn.CONNECTIVITY_CHANGE"},
+            {"android.intent.action.ACTION_POWER_CONNECTED",
+                    "android.intent.action.ACTION_POWER_DISCONNECTED"},
+    };
+
+    static final String[] PACKAGE_ACTIONS = {
+            "android.intent.action.PACKAGE_ADDED", "android.intent.action.PACKAGE_REMOVED"};
+
+    static final String CUSTOM_ACTION_PREFIX = "com.qiku.bench.ACTION_";
+
+    static final int CUSTOM_ACTION_COUNT = 16;
+
+    static final String PERMISSION_PREFIX = "com.qiku.bench.permission.P";
+
+    static class BenchListener extends BroadcastBridge.Listener {
+        private final List<String> mSchemes;
+        private final String mPermission;
+        long mReceived;
+
+        BenchListener(String name, int priority, List<String> schemes, String permission,
+                      String... actions) {
+            super(name, priority, actions);
+            mSchemes = schemes;
+            mPermission = permission;
+        }
+
+        @Override
+        public List<String> getDataSchemes() {
+            return mSchemes;
+        }
+
+        @Override
+        public String getBroadcastPermission() {
+            return mPermission;
+        }
+
+        @Override
+        public ThreadMode getThreadMode() {
+            return ThreadMode.POSTING;
+        }
+
+        @Override
+        public void onReceiveBroadcast(Intent intent) {
+            mReceived++;
+        }
+    }
+
+    /**
+     * 关闭日志输出，android-all中的Log在JVM上不能使用
+     */
+    static void silenceLog() {
+        BroadcastBridge.setLogLevel(Log.ASSERT);
+        BroadcastBridge.setLogSink((level, tag, message) -> {});
+    }
+
+    static MergePolicyBase newPolicy(String name, ReceiverRegistrar registrar) {
+        switch (name) {
+            case BroadcastBridge.MERGE_AUTO:
+                return new MergePolicyAuto(null, registrar, name);
+            case BroadcastBridge.MERGE_GLOBAL:
+                return new MergePolicyGlobal(null, registrar, name);
+            case BroadcastBridge.MERGE_SCHEME:
+                return new MergePolicyScheme(null, registrar, name);
+            case BroadcastBridge.MERGE_PERMISSION:
+                return new MergePolicyPermission(null, registrar, name);
+            case BroadcastBridge.MERGE_OPTIMAL:
+                return new MergePolicyOptimal(null, registrar, name);
+            default:
+                throw new IllegalArgumentException("Unsupported policy " + name);
+        }
+    }
+
+    /**
+     * 生成policy可以接受的count个Listener，相同的参数每次生成的结果相同
+     *
+     * @param policy
+     * @param count
+     * @return
+     */
+    static List<BenchListener> newListeners(String policy, int count) {
+        boolean schemeSupported = BroadcastBridge.MERGE_AUTO.equals(policy) ||
+                BroadcastBridge.MERGE_SCHEME.equals(policy) ||
+                BroadcastBridge.MERGE_OPTIMAL.equals(policy);
+        boolean permissionSupported = BroadcastBridge.MERGE_PERMISSION.equals(policy) ||
+                BroadcastBridge.MERGE_OPTIMAL.equals(policy);
+
+        List<BenchListener> listeners = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "bench-" + i;
+            int priority = i % 3;
+            if (schemeSupported && i % 8 == 7) {
+                listeners.add(new BenchListener(name, priority,
+                        Collections.singletonList("package"), null, PACKAGE_ACTIONS));
+            } else if (permissionSupported && i % 8 == 7) {
+                listeners.add(new BenchListener(name, priority, null,
+                        PERMISSION_PREFIX + (i % 2), customAction(i)));
+            } else if (i % 4 == 3) {
+                listeners.add(new BenchListener(name, priority, null, null, customAction(i)));
+            } else {
+                listeners.add(new BenchListener(name, priority, null, null,
+                        SYSTEM_ACTION_GROUPS[i % SYSTEM_ACTION_GROUPS.length]));
+            }
+        }
+        return listeners;
+    }
+
+    static String customAction(int index) {
+        return CUSTOM_ACTION_PREFIX + (index % CUSTOM_ACTION_COUNT);
+    }
+}
@@ -0,0 +1,65 @@
+package com.qiku.broadcasts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个Policy计算Listener所属category的耗时。
+ * categorize直接调用getActionCategory，resolveCached是注册和反注册时使用的缓存结果
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CategorizeBenchmark {
+
+    private static final int LISTENER_COUNT = 100;
+
+    @Param({BroadcastBridge.MERGE_AUTO, BroadcastBridge.MERGE_GLOBAL,
+            BroadcastBridge.MERGE_SCHEME, BroadcastBridge.MERGE_PERMISSION,
+            BroadcastBridge.MERGE_OPTIMAL})
+    public String policy;
+
+    private MergePolicyBase mPolicy;
+
+    private List<BenchmarkListeners.BenchListener> mListeners;
+
+    @Setup
+    public void setUp() {
+        BenchmarkListeners.silenceLog();
+        mPolicy = BenchmarkListeners.newPolicy(policy, new FakeReceiverRegistrar());
+        mListeners = BenchmarkListeners.newListeners(policy, LISTENER_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LISTENER_COUNT)
+    public void categorize(Blackhole blackhole) {
+        for (BroadcastBridge.Listener listener : mListeners) {
+            blackhole.consume(mPolicy.getActionCategory(listener));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LISTENER_COUNT)
+    public void resolveCached(Blackhole blackhole) {
+        for (BroadcastBridge.Listener listener : mListeners) {
+            blackhole.consume(mPolicy.categoryOf(listener));
+        }
+    }
+}
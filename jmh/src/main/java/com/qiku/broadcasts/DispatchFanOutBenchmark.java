@@ -0,0 +1,75 @@
+package com.qiku.broadcasts;
+
+import android.content.Intent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分发扇出：注册listenerCount个Listener之后，测量一个广播从"系统"投递到所有匹配的Listener的耗时。
+ *
+ * systemAction发送BATTERY_CHANGED，大约1/5的Listener监听；
+ * customAction发送一个App自定义的action，大约1/64的Listener监听；
+ * localCustomAction通过sendLocal在进程内发送同一个action，不经过receiver。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchFanOutBenchmark {
+
+    @Param({BroadcastBridge.MERGE_AUTO, BroadcastBridge.MERGE_GLOBAL,
+            BroadcastBridge.MERGE_SCHEME, BroadcastBridge.MERGE_PERMISSION,
+            BroadcastBridge.MERGE_OPTIMAL})
+    public String policy;
+
+    @Param({"1", "10", "100", "1000"})
+    public int listenerCount;
+
+    private FakeReceiverRegistrar mRegistrar;
+
+    private MergePolicyBase mPolicy;
+
+    private final Intent mSystemIntent = new Intent("android.intent.action.BATTERY_CHANGED");
+
+    private final Intent mCustomIntent = new Intent(BenchmarkListeners.customAction(3));
+
+    @Setup
+    public void setUp() {
+        BenchmarkListeners.silenceLog();
+        mRegistrar = new FakeReceiverRegistrar();
+        mPolicy = BenchmarkListeners.newPolicy(policy, mRegistrar);
+        for (BroadcastBridge.Listener listener :
+                BenchmarkListeners.newListeners(policy, listenerCount)) {
+            mPolicy.registerListener(listener);
+        }
+    }
+
+    @Benchmark
+    public void systemAction() {
+        mRegistrar.sendBroadcast(mSystemIntent);
+    }
+
+    @Benchmark
+    public void customAction() {
+        mRegistrar.sendBroadcast(mCustomIntent);
+    }
+
+    @Benchmark
+    public int localCustomAction() {
+        return mPolicy.sendLocal(mCustomIntent);
+    }
+}
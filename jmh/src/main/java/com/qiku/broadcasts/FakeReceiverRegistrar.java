@@ -0,0 +1,81 @@
+package com.qiku.broadcasts;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+import java.util.ArrayList;
+
+/**
+ * 在JVM上代替系统的ReceiverRegistrar。
+ *
+ * 和系统一样在注册时复制IntentFilter，sendBroadcast按照action和scheme匹配已经注册的receiver，
+ * 在调用线程中直接回调onReceive。不创建category线程和接收线程，CATEGORY_THREAD的Listener在调用线程中回调。
+ */
+final class FakeReceiverRegistrar implements ReceiverRegistrar {
+
+    private final ArrayList<BroadcastReceiver> mReceivers = new ArrayList<>();
+    private final ArrayList<IntentFilter> mFilters = new ArrayList<>();
+
+    private int mRegisterCount;
+    private int mUnregisterCount;
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                   String permission, Handler scheduler) {
+        mReceivers.add(receiver);
+        mFilters.add(new IntentFilter(filter));
+        mRegisterCount++;
+        return null;
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        int index = mReceivers.indexOf(receiver);
+        if (index < 0) {
+            throw new IllegalArgumentException("Receiver not registered: " + receiver);
+        }
+        mReceivers.remove(index);
+        mFilters.remove(index);
+        mUnregisterCount++;
+    }
+
+    @Override
+    public Handler newCategoryHandler(String category) {
+        return null;
+    }
+
+    @Override
+    public Handler receiverHandler() {
+        return null;
+    }
+
+    void sendBroadcast(Intent intent) {
+        String action = intent.getAction();
+        String scheme = intent.getScheme();
+        for (int i = 0; i < mReceivers.size(); i++) {
+            IntentFilter filter = mFilters.get(i);
+            if (!filter.hasAction(action)) {
+                continue;
+            }
+            boolean schemeMatched = filter.countDataSchemes() == 0 ? scheme == null :
+                    scheme != null && filter.hasDataScheme(scheme);
+            if (schemeMatched) {
+                mReceivers.get(i).onReceive(null, intent);
+            }
+        }
+    }
+
+    int getReceiverCount() {
+        return mReceivers.size();
+    }
+
+    int getRegisterCount() {
+        return mRegisterCount;
+    }
+
+    int getUnregisterCount() {
+        return mUnregisterCount;
+    }
+}
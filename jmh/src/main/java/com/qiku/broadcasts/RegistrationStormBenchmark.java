@@ -0,0 +1,74 @@
+package com.qiku.broadcasts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注册风暴：在一个新的Policy中注册listenerCount个Listener，然后全部反注册，
+ * 模拟进程启动和Activity批量重建。batched为true时整个过程在beginBatch/commitBatch之间。
+ *
+ * 每次调用返回FakeReceiverRegistrar，其中记录了注册到"系统"的次数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationStormBenchmark {
+
+    @Param({BroadcastBridge.MERGE_AUTO, BroadcastBridge.MERGE_GLOBAL,
+            BroadcastBridge.MERGE_SCHEME, BroadcastBridge.MERGE_PERMISSION,
+            BroadcastBridge.MERGE_OPTIMAL})
+    public String policy;
+
+    @Param({"10", "100", "1000"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private List<BenchmarkListeners.BenchListener> mListeners;
+
+    @Setup
+    public void setUp() {
+        BenchmarkListeners.silenceLog();
+        mListeners = BenchmarkListeners.newListeners(policy, listenerCount);
+    }
+
+    @Benchmark
+    public FakeReceiverRegistrar registerThenUnregister() {
+        FakeReceiverRegistrar registrar = new FakeReceiverRegistrar();
+        MergePolicyBase mergePolicy = BenchmarkListeners.newPolicy(policy, registrar);
+
+        if (batched) {
+            mergePolicy.beginBatch();
+        }
+        for (BroadcastBridge.Listener listener : mListeners) {
+            mergePolicy.registerListener(listener);
+        }
+        if (batched) {
+            mergePolicy.commitBatch();
+            mergePolicy.beginBatch();
+        }
+        for (BroadcastBridge.Listener listener : mListeners) {
+            mergePolicy.unregisterListener(listener);
+        }
+        if (batched) {
+            mergePolicy.commitBatch();
+        }
+        return registrar;
+    }
+}